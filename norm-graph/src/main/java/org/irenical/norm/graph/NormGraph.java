@@ -0,0 +1,322 @@
+package org.irenical.norm.graph;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+import org.irenical.norm.transaction.NormMapper;
+import org.irenical.norm.transaction.NormOutputReader;
+import org.irenical.norm.transaction.NormRowReader;
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * Assembles object graphs from flattened one-to-many joins, in a single pass
+ * over the result set. Each node of the graph is mapped by a NormMapper and
+ * identified by its primary key columns; rows repeating an already assembled
+ * entity only have their key columns read, and new children are attached to
+ * their parent as soon as they are met. Rows whose key columns are all null,
+ * such as the missing side of a left join, produce no entity.
+ * <p>
+ * A graph should be fully configured before it is used, and can then be
+ * shared.
+ */
+public class NormGraph<ENTITY> {
+
+  private final NormMapper<ENTITY> mapper;
+
+  private final String[] keyColumns;
+
+  private final List<Relation> relations = new ArrayList<>();
+
+  public NormGraph(Class<ENTITY> type, String... keyColumns) {
+    this(new NormMapper<>(type), keyColumns);
+  }
+
+  /**
+   * @param mapper - maps an entity's columns
+   * @param keyColumns - the columns identifying an entity
+   */
+  public NormGraph(NormMapper<ENTITY> mapper, String... keyColumns) {
+    if (mapper == null) {
+      throw new NormTransactionException("No mapper was provided for this graph");
+    }
+    if (keyColumns == null || keyColumns.length == 0) {
+      throw new NormTransactionException("No key columns were provided for this graph");
+    }
+    this.mapper = mapper;
+    this.keyColumns = keyColumns.clone();
+  }
+
+  /**
+   * Adds a one-to-many relation to this graph's entities
+   * @param children - the graph of the child entities, which may have
+   * children of its own
+   * @param attach - adds a child to its parent, called once per child
+   * @return this graph
+   */
+  public <CHILD> NormGraph<ENTITY> withChildren(NormGraph<CHILD> children, BiConsumer<? super ENTITY, ? super CHILD> attach) {
+    if (children == null || attach == null) {
+      throw new NormTransactionException("Null children graph or attach function provided to this graph");
+    }
+    @SuppressWarnings("unchecked")
+    BiConsumer<Object, Object> untyped = (BiConsumer<Object, Object>) attach;
+    relations.add(new Relation(children, untyped));
+    return this;
+  }
+
+  public <CHILD> NormGraph<ENTITY> withChildren(NormMapper<CHILD> children, String keyColumn, BiConsumer<? super ENTITY, ? super CHILD> attach) {
+    return withChildren(new NormGraph<>(children, keyColumn), attach);
+  }
+
+  public NormMapper<ENTITY> getMapper() {
+    return mapper;
+  }
+
+  /**
+   * @return an output reader assembling every root entity, in order of first
+   * appearance. The rows need not be ordered
+   */
+  public <INPUT> NormOutputReader<INPUT, List<ENTITY>> list() {
+    return context -> {
+      ResultSet resultSet = context.getResultSet();
+      List<ENTITY> result = new ArrayList<>();
+      if (resultSet.next()) {
+        Bound bound = bind(resultSet);
+        Map<Object, Assembly> roots = new LinkedHashMap<>();
+        do {
+          Object key = bound.key(resultSet);
+          if (key != null) {
+            Assembly root = bound.visit(roots, key, resultSet);
+            if (root.fresh) {
+              @SuppressWarnings("unchecked")
+              ENTITY entity = (ENTITY) root.entity;
+              result.add(entity);
+            }
+          }
+        } while (resultSet.next());
+      }
+      return result;
+    };
+  }
+
+  /**
+   * @return an output reader assembling the first root entity only, or null
+   * if there is none. The rows must be ordered by the root's key
+   */
+  public <INPUT> NormOutputReader<INPUT, ENTITY> single() {
+    return context -> {
+      Iterator<ENTITY> roots = iterator(context.getResultSet());
+      return roots.hasNext() ? roots.next() : null;
+    };
+  }
+
+  /**
+   * @param consumer - called with each root entity, once it is complete
+   * @return an output reader streaming root entities to the consumer and
+   * returning their count. The rows must be ordered by the root's key; only
+   * the entity being assembled is kept in memory
+   */
+  public <INPUT> NormOutputReader<INPUT, Integer> forEachOrdered(Consumer<? super ENTITY> consumer) {
+    return context -> {
+      Iterator<ENTITY> roots = iterator(context.getResultSet());
+      int count = 0;
+      while (roots.hasNext()) {
+        consumer.accept(roots.next());
+        ++count;
+      }
+      return count;
+    };
+  }
+
+  /**
+   * Lazily assembles the root entities of a result set whose rows are ordered
+   * by the root's key. An entity is returned once a row with another key, or
+   * the end of the result set, is reached. Database errors while iterating
+   * are thrown as NormTransactionException
+   * @param resultSet - a result set positioned before its first row
+   * @return an iterator over the root entities
+   * @throws SQLException if the result set cannot be read
+   */
+  public Iterator<ENTITY> iterator(ResultSet resultSet) throws SQLException {
+    return new OrderedIterator(resultSet);
+  }
+
+  private Bound bind(ResultSet resultSet) throws SQLException {
+    int[] keyIndexes = new int[keyColumns.length];
+    for (int i = 0; i < keyColumns.length; i++) {
+      keyIndexes[i] = resultSet.findColumn(keyColumns[i]);
+    }
+    Bound[] children = new Bound[relations.size()];
+    List<BiConsumer<Object, Object>> attachments = new ArrayList<>(children.length);
+    for (int i = 0; i < children.length; i++) {
+      children[i] = relations.get(i).graph.bind(resultSet);
+      attachments.add(relations.get(i).attach);
+    }
+    return new Bound(mapper.resolve(resultSet), keyIndexes, children, attachments);
+  }
+
+  private static final class Relation {
+
+    private final NormGraph<?> graph;
+
+    private final BiConsumer<Object, Object> attach;
+
+    private Relation(NormGraph<?> graph, BiConsumer<Object, Object> attach) {
+      this.graph = graph;
+      this.attach = attach;
+    }
+
+  }
+
+  /**
+   * A graph node resolved against one result set
+   */
+  private static final class Bound {
+
+    private final NormRowReader<?> reader;
+
+    private final int[] keyIndexes;
+
+    private final Bound[] children;
+
+    private final List<BiConsumer<Object, Object>> attachments;
+
+    private Bound(NormRowReader<?> reader, int[] keyIndexes, Bound[] children, List<BiConsumer<Object, Object>> attachments) {
+      this.reader = reader;
+      this.keyIndexes = keyIndexes;
+      this.children = children;
+      this.attachments = attachments;
+    }
+
+    private Object key(ResultSet resultSet) throws SQLException {
+      if (keyIndexes.length == 1) {
+        return resultSet.getObject(keyIndexes[0]);
+      }
+      Object[] key = new Object[keyIndexes.length];
+      boolean empty = true;
+      for (int i = 0; i < key.length; i++) {
+        key[i] = resultSet.getObject(keyIndexes[i]);
+        empty &= key[i] == null;
+      }
+      return empty ? null : Arrays.asList(key);
+    }
+
+    /**
+     * Finds or maps the entity with the given key, then visits its children
+     */
+    private Assembly visit(Map<Object, Assembly> seen, Object key, ResultSet resultSet) throws SQLException {
+      Assembly assembly = seen.get(key);
+      if (assembly == null) {
+        assembly = new Assembly(reader.read(resultSet), children.length);
+        seen.put(key, assembly);
+      } else {
+        assembly.fresh = false;
+      }
+      for (int i = 0; i < children.length; i++) {
+        Object childKey = children[i].key(resultSet);
+        if (childKey != null) {
+          Map<Object, Assembly> childrenSeen = assembly.children(i);
+          Assembly child = children[i].visit(childrenSeen, childKey, resultSet);
+          if (child.fresh) {
+            attachments.get(i).accept(assembly.entity, child.entity);
+          }
+        }
+      }
+      return assembly;
+    }
+
+  }
+
+  /**
+   * An assembled entity and the keys of its already attached children
+   */
+  private static final class Assembly {
+
+    private final Object entity;
+
+    private final List<Map<Object, Assembly>> children;
+
+    private boolean fresh = true;
+
+    private Assembly(Object entity, int relations) {
+      this.entity = entity;
+      this.children = new ArrayList<>(Collections.<Map<Object, Assembly>> nCopies(relations, null));
+    }
+
+    private Map<Object, Assembly> children(int relation) {
+      Map<Object, Assembly> seen = children.get(relation);
+      if (seen == null) {
+        seen = new HashMap<>();
+        children.set(relation, seen);
+      }
+      return seen;
+    }
+
+  }
+
+  private final class OrderedIterator implements Iterator<ENTITY> {
+
+    private final ResultSet resultSet;
+
+    private Bound bound;
+
+    private Object nextKey;
+
+    private OrderedIterator(ResultSet resultSet) throws SQLException {
+      this.resultSet = resultSet;
+      advance();
+    }
+
+    /**
+     * Moves to the next row with a root, keeping its key
+     */
+    private void advance() throws SQLException {
+      nextKey = null;
+      while (nextKey == null && resultSet.next()) {
+        if (bound == null) {
+          bound = bind(resultSet);
+        }
+        nextKey = bound.key(resultSet);
+      }
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextKey != null;
+    }
+
+    @Override
+    public ENTITY next() {
+      if (nextKey == null) {
+        throw new NoSuchElementException();
+      }
+      try {
+        Object key = nextKey;
+        Map<Object, Assembly> seen = new HashMap<>(2);
+        Assembly root = bound.visit(seen, key, resultSet);
+        advance();
+        while (key.equals(nextKey)) {
+          bound.visit(seen, key, resultSet);
+          advance();
+        }
+        @SuppressWarnings("unchecked")
+        ENTITY entity = (ENTITY) root.entity;
+        return entity;
+      } catch (SQLException e) {
+        throw new NormTransactionException(e);
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,140 @@
+package org.irenical.norm.graph;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+
+import org.irenical.norm.transaction.NormConnectionSupplier;
+import org.irenical.norm.transaction.NormMapper;
+import org.irenical.norm.transaction.NormTransaction;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class GraphTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_graph;create=true");
+
+  private static final String JOIN = "SELECT A.AUTHOR_ID, A.NAME, B.BOOK_ID, B.TITLE AS BOOK_TITLE, C.CHAPTER_ID, C.TITLE AS CHAPTER_TITLE FROM AUTHOR A LEFT JOIN BOOK B ON B.AUTHOR_ID=A.AUTHOR_ID LEFT JOIN CHAPTER C ON C.BOOK_ID=B.BOOK_ID ";
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    for (String sql : Arrays.asList(
+        "CREATE TABLE AUTHOR (AUTHOR_ID INT NOT NULL PRIMARY KEY, NAME VARCHAR(32))",
+        "CREATE TABLE BOOK (BOOK_ID INT NOT NULL PRIMARY KEY, AUTHOR_ID INT NOT NULL, TITLE VARCHAR(32))",
+        "CREATE TABLE CHAPTER (CHAPTER_ID INT NOT NULL PRIMARY KEY, BOOK_ID INT NOT NULL, TITLE VARCHAR(32))",
+        "INSERT INTO AUTHOR VALUES (1, 'Tolkien'), (2, 'Herbert'), (3, 'Nobody')",
+        "INSERT INTO BOOK VALUES (10, 1, 'The Hobbit'), (11, 1, 'The Silmarillion'), (20, 2, 'Dune')",
+        "INSERT INTO CHAPTER VALUES (100, 10, 'An Unexpected Party'), (101, 10, 'Roast Mutton'), (200, 20, 'Book I'), (201, 20, 'Book II'), (202, 20, 'Book III')")) {
+      PreparedStatement statement = connection.prepareStatement(sql);
+      statement.executeUpdate();
+      statement.close();
+    }
+    connection.close();
+  }
+
+  public static class Author {
+
+    private int authorId;
+
+    private String name;
+
+    private final List<Book> books = new ArrayList<>();
+
+    public void setAuthorId(int authorId) {
+      this.authorId = authorId;
+    }
+
+    public void setName(String name) {
+      this.name = name;
+    }
+
+    public void addBook(Book book) {
+      books.add(book);
+    }
+
+  }
+
+  public static class Book {
+
+    private String title;
+
+    private final List<String> chapters = new ArrayList<>();
+
+    public void setTitle(String title) {
+      this.title = title;
+    }
+
+    public void addChapter(Chapter chapter) {
+      chapters.add(chapter.title);
+    }
+
+  }
+
+  public static class Chapter {
+
+    private String title;
+
+    public void setTitle(String title) {
+      this.title = title;
+    }
+
+  }
+
+  private static NormGraph<Author> authors() {
+    NormGraph<Book> books = new NormGraph<>(new NormMapper<>(Book.class, "BOOK_"), "BOOK_ID");
+    books.withChildren(new NormMapper<>(Chapter.class, "CHAPTER_"), "CHAPTER_ID", Book::addChapter);
+    return new NormGraph<>(Author.class, "AUTHOR_ID").withChildren(books, Author::addBook);
+  }
+
+  @Test
+  public void testList() throws SQLException {
+    NormTransaction<Object, List<Author>> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> JOIN + "ORDER BY C.CHAPTER_ID DESC NULLS LAST", null, authors().list());
+    List<Author> authors = t.execute();
+    Assert.assertEquals(Arrays.asList("Herbert", "Tolkien", "Nobody"), authors.stream().map(author -> author.name).collect(Collectors.toList()));
+    Author herbert = authors.get(0);
+    Assert.assertEquals(2, herbert.authorId);
+    Assert.assertEquals(1, herbert.books.size());
+    Assert.assertEquals(Arrays.asList("Book III", "Book II", "Book I"), herbert.books.get(0).chapters);
+    Author tolkien = authors.get(1);
+    Assert.assertEquals(Arrays.asList("The Hobbit", "The Silmarillion"), tolkien.books.stream().map(book -> book.title).collect(Collectors.toList()));
+    Assert.assertEquals(2, tolkien.books.get(0).chapters.size());
+    Assert.assertTrue(tolkien.books.get(1).chapters.isEmpty());
+    Assert.assertTrue(authors.get(2).books.isEmpty());
+  }
+
+  @Test
+  public void testForEachOrdered() throws SQLException {
+    List<Author> streamed = new ArrayList<>();
+    AtomicInteger booksWhenStreamed = new AtomicInteger();
+    NormTransaction<Object, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> JOIN + "ORDER BY A.AUTHOR_ID, B.BOOK_ID, C.CHAPTER_ID", null, authors().forEachOrdered(author -> {
+      streamed.add(author);
+      booksWhenStreamed.addAndGet(author.books.size());
+    }));
+    Assert.assertEquals((Integer) 3, t.execute());
+    Assert.assertEquals(Arrays.asList(1, 2, 3), streamed.stream().map(author -> author.authorId).collect(Collectors.toList()));
+    Assert.assertEquals(3, booksWhenStreamed.get());
+    Assert.assertEquals(Arrays.asList("An Unexpected Party", "Roast Mutton"), streamed.get(0).books.get(0).chapters);
+  }
+
+  @Test
+  public void testSingle() throws SQLException {
+    NormTransaction<Integer, Author> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> JOIN + "WHERE A.AUTHOR_ID=? ORDER BY B.BOOK_ID", context -> Arrays.asList(context.getInput()), authors().single());
+    Author herbert = t.execute(2);
+    Assert.assertEquals("Dune", herbert.books.get(0).title);
+    Assert.assertEquals(3, herbert.books.get(0).chapters.size());
+    Assert.assertNull(t.execute(42));
+  }
+
+}
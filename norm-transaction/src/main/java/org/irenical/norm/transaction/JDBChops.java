@@ -2,18 +2,10 @@ package org.irenical.norm.transaction;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
-import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.sql.Time;
 import java.sql.Timestamp;
-import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneId;
-import java.time.ZonedDateTime;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 
 public final class JDBChops {
 
@@ -32,8 +24,70 @@ public final class JDBChops {
     return statement;
   }
 
+  public static PreparedStatement prepareStatementForInsert(NormStatementCache cache, Connection connection, String query, Iterable<Object> parameters) throws SQLException {
+    return prepareStatementForInsert(cache, connection, query, parameters, true, null);
+  }
+
+  /**
+   * Prepares an insert statement
+   * @param cache - the statement cache to use, or null
+   * @param connection - the connection
+   * @param query - the insert statement
+   * @param parameters - the parameters to bind
+   * @param generatedKeys - whether the driver should return generated keys
+   * @param keyColumns - the key columns to return, or null to let the driver
+   * decide which columns are generated keys
+   * @return the prepared statement
+   * @throws SQLException if the statement could not be prepared
+   */
+  public static PreparedStatement prepareStatementForInsert(NormStatementCache cache, Connection connection, String query, Iterable<Object> parameters, boolean generatedKeys, String[] keyColumns) throws SQLException {
+    if (!generatedKeys) {
+      return prepareStatementForSelectOrUpdate(cache, connection, query, parameters);
+    }
+    if (cache == null) {
+      PreparedStatement statement = keyColumns == null || keyColumns.length == 0 ? connection.prepareStatement(query, Statement.RETURN_GENERATED_KEYS) : connection.prepareStatement(query, keyColumns);
+      prepareInput(null, statement, parameters);
+      return statement;
+    }
+    PreparedStatement statement = cache.prepare(connection, NormStatementCache.Kind.INSERT, query, keyColumns);
+    prepareInput(cache, statement, parameters);
+    return statement;
+  }
+
+  public static PreparedStatement prepareStatementForSelectOrUpdate(NormStatementCache cache, Connection connection, String query, Iterable<Object> parameters) throws SQLException {
+    if (cache == null) {
+      return prepareStatementForSelectOrUpdate(connection, query, parameters);
+    }
+    PreparedStatement statement = cache.prepare(connection, NormStatementCache.Kind.SELECT_OR_UPDATE, query);
+    prepareInput(cache, statement, parameters);
+    return statement;
+  }
+
   public static CallableStatement prepareStatementForCall(Connection connection, String query, Iterable<Object> parameters) throws SQLException {
-    CallableStatement statement = connection.prepareCall(query);
+    return prepareStatementForCall(null, connection, query, parameters);
+  }
+
+  public static CallableStatement prepareStatementForCall(NormStatementCache cache, Connection connection, String query, Iterable<Object> parameters) throws SQLException {
+    CallableStatement statement = cache == null ? connection.prepareCall(query) : (CallableStatement) cache.prepare(connection, NormStatementCache.Kind.CALL, query);
+    try {
+      prepareCallInput(statement, parameters);
+    } catch (SQLException e) {
+      close(cache, statement);
+      throw e;
+    }
+    return statement;
+  }
+
+  private static void prepareInput(NormStatementCache cache, PreparedStatement statement, Iterable<Object> parameters) throws SQLException {
+    try {
+      prepareInput(statement, parameters);
+    } catch (SQLException e) {
+      close(cache, statement);
+      throw e;
+    }
+  }
+
+  public static void prepareCallInput(CallableStatement statement, Iterable<Object> parameters) throws SQLException {
     if (parameters != null) {
       int idx = 0;
       for (Object parameter : parameters) {
@@ -44,7 +98,24 @@ public final class JDBChops {
         }
       }
     }
-    return statement;
+  }
+
+  /**
+   * Releases a statement obtained from one of the prepareStatementFor methods,
+   * returning it to the cache it came from or closing it
+   * @param cache - the statement cache used to prepare it, or null
+   * @param statement - the statement to release
+   * @throws SQLException if the statement fails to close
+   */
+  public static void close(NormStatementCache cache, PreparedStatement statement) throws SQLException {
+    if (statement == null) {
+      return;
+    }
+    if (cache == null) {
+      statement.close();
+    } else {
+      cache.release(statement);
+    }
   }
 
   public static void prepareInput(PreparedStatement preparedStatement, Iterable<Object> parameters) throws SQLException {
@@ -56,23 +127,18 @@ public final class JDBChops {
     }
   }
 
-  public static void setInput(PreparedStatement preparedStatement, int idx, Object value) throws SQLException {
-    if (value instanceof Timestamp) {
-      preparedStatement.setTimestamp(idx, (Timestamp) value);
-    } else if (value instanceof ZonedDateTime) {
-      ZonedDateTime zdt = (ZonedDateTime) value;
-      Calendar cal = GregorianCalendar.from(zdt);
-      Timestamp t = Timestamp.from(zdt.toInstant());
-      preparedStatement.setTimestamp(idx, t, cal);
-    } else if (value instanceof Time) {
-      preparedStatement.setTime(idx, (Time) value);
-    } else if (value instanceof Date) {
-      preparedStatement.setDate(idx, (Date) value);
-    } else if (value instanceof Enum<?>) {
-      preparedStatement.setString(idx, value.toString());
-    } else {
-      preparedStatement.setObject(idx, value);
+  public static void addBatch(PreparedStatement preparedStatement, Iterable<?> parameters) throws SQLException {
+    if (parameters != null) {
+      int idx = 0;
+      for (Object param : parameters) {
+        setInput(preparedStatement, ++idx, param);
+      }
     }
+    preparedStatement.addBatch();
+  }
+
+  public static void setInput(PreparedStatement preparedStatement, int idx, Object value) throws SQLException {
+    NormBinders.bind(preparedStatement, idx, value);
   }
 
   public static void setOutput(CallableStatement preparedStatement, int idx, Object value) throws SQLException {
@@ -0,0 +1,110 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.function.Function;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * Base class for operations that execute the same statement for many
+ * parameter rows, using JDBC batching. Rows are bound with addBatch and sent
+ * to the database with executeBatch every batchSize rows.
+ */
+public abstract class NormBatch<INPUT, OUTPUT> extends NormOperation<INPUT, OUTPUT> {
+
+  public static final int DEFAULT_BATCH_SIZE = 1000;
+
+  protected Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder;
+
+  protected int batchSize = DEFAULT_BATCH_SIZE;
+
+  abstract PreparedStatement prepareStatement(Connection connection, String query) throws SQLException;
+
+  /**
+   * Called after each executeBatch, while the statement is still open
+   */
+  void batchExecuted(NormContext<INPUT, OUTPUT> context, PreparedStatement statement) throws SQLException {
+  }
+
+  @Override
+  OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
+    if (batchSize < 1) {
+      throw new NormTransactionException("Invalid batch size " + batchSize + " for this batch operation " + this);
+    }
+    Iterable<? extends Iterable<?>> rows = batchParametersBuilder == null ? null : batchParametersBuilder.apply(context);
+    String query = queryBuilder.apply(context);
+    context.setQuery(query);
+    tablesWritten(context, query);
+    long mark = context.mark();
+    try (PreparedStatement statement = prepareStatement(context.getConnection(), query)) {
+      mark = context.timed(NormTimings.Phase.PREPARE, mark);
+      context.setPreparedStatement(statement);
+      context.setActiveStatement(statement);
+      int[] counts = new int[0];
+      int pending = 0;
+      if (rows != null) {
+        for (Iterable<?> row : rows) {
+          JDBChops.addBatch(statement, row);
+          if (++pending == batchSize) {
+            mark = context.timed(NormTimings.Phase.BIND, mark);
+            counts = append(counts, statement.executeBatch());
+            mark = context.timed(NormTimings.Phase.EXECUTE, mark);
+            batchExecuted(context, statement);
+            pending = 0;
+          }
+        }
+      }
+      if (pending > 0) {
+        mark = context.timed(NormTimings.Phase.BIND, mark);
+        counts = append(counts, statement.executeBatch());
+        context.timed(NormTimings.Phase.EXECUTE, mark);
+        batchExecuted(context, statement);
+      }
+      context.setBatchUpdatedRows(counts);
+      context.setUpdatedRows(sum(counts));
+      if (outputReader != null) {
+        return context.read(outputReader);
+      }
+      return null;
+    }
+  }
+
+  private static int[] append(int[] counts, int[] more) {
+    int[] result = Arrays.copyOf(counts, counts.length + more.length);
+    System.arraycopy(more, 0, result, counts.length, more.length);
+    return result;
+  }
+
+  private static int sum(int[] counts) {
+    int sum = 0;
+    for (int count : counts) {
+      // drivers may report Statement.SUCCESS_NO_INFO for each row
+      if (count > 0) {
+        sum += count;
+      }
+    }
+    return sum;
+  }
+
+  public void setBatchParametersBuilder(Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder) {
+    checkNotFrozen();
+    this.batchParametersBuilder = batchParametersBuilder;
+  }
+
+  public Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> getBatchParametersBuilder() {
+    return batchParametersBuilder;
+  }
+
+  public void setBatchSize(int batchSize) {
+    checkNotFrozen();
+    this.batchSize = batchSize;
+  }
+
+  public int getBatchSize() {
+    return batchSize;
+  }
+
+}
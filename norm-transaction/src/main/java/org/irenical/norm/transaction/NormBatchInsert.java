@@ -0,0 +1,51 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class NormBatchInsert<INPUT, OUTPUT> extends NormBatch<INPUT, OUTPUT> {
+
+  private final NormGeneratedKeys generatedKeys = new NormGeneratedKeys();
+
+  @Override
+  PreparedStatement prepareStatement(Connection connection, String query) throws SQLException {
+    return JDBChops.prepareStatementForInsert(null, connection, query, null, isReturnGeneratedKeys(), generatedKeys.columns());
+  }
+
+  @Override
+  void batchExecuted(NormContext<INPUT, OUTPUT> context, PreparedStatement statement) throws SQLException {
+    if (isReturnGeneratedKeys()) {
+      context.collectGeneratedKeys(statement);
+    }
+  }
+
+  /**
+   * @see NormInsert#setReturnGeneratedKeys(Boolean)
+   * @param returnGeneratedKeys - false to never request keys, true or null to
+   * request them
+   */
+  public void setReturnGeneratedKeys(Boolean returnGeneratedKeys) {
+    checkNotFrozen();
+    generatedKeys.setReturnGeneratedKeys(returnGeneratedKeys);
+  }
+
+  public boolean isReturnGeneratedKeys() {
+    return generatedKeys.isReturnGeneratedKeys();
+  }
+
+  /**
+   * @see NormInsert#setGeneratedKeyColumns(String...)
+   * @param generatedKeyColumns - the generated columns the driver should
+   * return, or null to let the driver decide
+   */
+  public void setGeneratedKeyColumns(String... generatedKeyColumns) {
+    checkNotFrozen();
+    generatedKeys.setColumns(generatedKeyColumns);
+  }
+
+  public String[] getGeneratedKeyColumns() {
+    return generatedKeys.getColumns();
+  }
+
+}
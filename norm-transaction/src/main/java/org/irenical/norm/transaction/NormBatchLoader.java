@@ -0,0 +1,236 @@
+package org.irenical.norm.transaction;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * Collects keys requested by any thread and loads them in batches, through a
+ * transaction taking the list of keys and returning the values by key, such
+ * as a select with an IN or ANY condition. A batch is sent once it holds
+ * maxBatchSize distinct keys or once the window since its first key elapses,
+ * whichever comes first, so the window bounds the latency added to any load.
+ * A window of zero sends whatever was collected by the time the executor
+ * picks the batch up.
+ * <p>
+ * Keys missing from the transaction's output load as null; if the
+ * transaction fails, every load of the batch fails with its exception. The
+ * output's keys must be equal to the requested ones, so the output reader
+ * must read them with the keys' type.
+ */
+public class NormBatchLoader<KEY, VALUE> {
+
+  public static final int DEFAULT_MAX_BATCH_SIZE = 100;
+
+  private final NormTransaction<List<KEY>, Map<KEY, VALUE>> transaction;
+
+  private final int maxBatchSize;
+
+  private final long windowNanos;
+
+  private final NormHistogram batchSizes = new NormHistogram();
+
+  private volatile Executor executor;
+
+  private Batch pending;
+
+  public NormBatchLoader(NormTransaction<List<KEY>, Map<KEY, VALUE>> transaction, long window, TimeUnit unit) {
+    this(transaction, DEFAULT_MAX_BATCH_SIZE, window, unit);
+  }
+
+  /**
+   * @param transaction - loads a list of keys, returning the values by key
+   * @param maxBatchSize - the most keys sent in one execution
+   * @param window - how long to wait for more keys after the first one
+   * @param unit - the window's unit
+   */
+  public NormBatchLoader(NormTransaction<List<KEY>, Map<KEY, VALUE>> transaction, int maxBatchSize, long window, TimeUnit unit) {
+    if (transaction == null) {
+      throw new NormTransactionException("No transaction was provided for this batch loader");
+    }
+    if (maxBatchSize < 1) {
+      throw new IllegalArgumentException("Invalid batch size " + maxBatchSize);
+    }
+    if (window < 0) {
+      throw new IllegalArgumentException("Invalid batch window " + window);
+    }
+    this.transaction = transaction;
+    this.maxBatchSize = maxBatchSize;
+    this.windowNanos = unit.toNanos(window);
+  }
+
+  /**
+   * @param executor - where batches execute, or null to use the
+   * transaction's executor, or NormExecutors.defaultExecutor()
+   */
+  public void setExecutor(Executor executor) {
+    this.executor = executor;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  public CompletableFuture<VALUE> load(KEY key) {
+    Batch started = null;
+    Batch full = null;
+    CompletableFuture<VALUE> future;
+    synchronized (this) {
+      if (pending == null) {
+        started = pending = new Batch();
+        if (windowNanos > 0) {
+          Batch batch = pending;
+          batch.timer = NormExecutors.scheduler().schedule(() -> flush(batch), windowNanos, TimeUnit.NANOSECONDS);
+        }
+      }
+      future = pending.futures.get(key);
+      if (future == null) {
+        future = new CompletableFuture<>();
+        pending.futures.put(key, future);
+      }
+      if (pending.futures.size() >= maxBatchSize) {
+        full = pending;
+        pending = null;
+      }
+    }
+    if (full != null) {
+      dispatch(full);
+    } else if (started != null && windowNanos == 0) {
+      Batch batch = started;
+      try {
+        executor().execute(() -> {
+          if (detach(batch)) {
+            run(batch);
+          }
+        });
+      } catch (RejectedExecutionException e) {
+        if (detach(batch)) {
+          batch.fail(e);
+        }
+      }
+    }
+    return future;
+  }
+
+  /**
+   * @param keys - the keys to load, possibly spread over several batches
+   * @return the values by key, once every key is loaded
+   */
+  public CompletableFuture<Map<KEY, VALUE>> loadAll(Collection<KEY> keys) {
+    Map<KEY, CompletableFuture<VALUE>> futures = new LinkedHashMap<>();
+    for (KEY key : keys) {
+      futures.computeIfAbsent(key, this::load);
+    }
+    return CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).thenApply(done -> {
+      Map<KEY, VALUE> values = new LinkedHashMap<>();
+      for (Map.Entry<KEY, CompletableFuture<VALUE>> entry : futures.entrySet()) {
+        values.put(entry.getKey(), entry.getValue().join());
+      }
+      return values;
+    });
+  }
+
+  /**
+   * Sends the keys collected so far without waiting for the window
+   */
+  public void flush() {
+    Batch batch;
+    synchronized (this) {
+      batch = pending;
+      pending = null;
+    }
+    if (batch != null) {
+      dispatch(batch);
+    }
+  }
+
+  private void flush(Batch batch) {
+    if (detach(batch)) {
+      dispatch(batch);
+    }
+  }
+
+  /**
+   * @return whether the batch was still collecting keys, and no longer is
+   */
+  private synchronized boolean detach(Batch batch) {
+    if (pending != batch) {
+      return false;
+    }
+    pending = null;
+    return true;
+  }
+
+  private void dispatch(Batch batch) {
+    if (batch.timer != null) {
+      batch.timer.cancel(false);
+    }
+    try {
+      executor().execute(() -> run(batch));
+    } catch (RejectedExecutionException e) {
+      batch.fail(e);
+    }
+  }
+
+  private void run(Batch batch) {
+    List<KEY> keys = new ArrayList<>(batch.futures.keySet());
+    batchSizes.record(keys.size());
+    Map<KEY, VALUE> values;
+    try {
+      values = transaction.execute(keys);
+    } catch (Throwable e) {
+      batch.fail(e);
+      return;
+    }
+    for (Map.Entry<KEY, CompletableFuture<VALUE>> entry : batch.futures.entrySet()) {
+      entry.getValue().complete(values == null ? null : values.get(entry.getKey()));
+    }
+  }
+
+  private Executor executor() {
+    Executor chosen = executor;
+    if (chosen == null) {
+      chosen = transaction.getExecutor();
+    }
+    return chosen == null ? NormExecutors.defaultExecutor() : chosen;
+  }
+
+  public int getMaxBatchSize() {
+    return maxBatchSize;
+  }
+
+  public long getWindow(TimeUnit unit) {
+    return unit.convert(windowNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the distribution of distinct keys per executed batch
+   */
+  public NormHistogram getBatchSizes() {
+    return batchSizes;
+  }
+
+  private final class Batch {
+
+    private final Map<KEY, CompletableFuture<VALUE>> futures = new LinkedHashMap<>();
+
+    private ScheduledFuture<?> timer;
+
+    private void fail(Throwable e) {
+      for (CompletableFuture<VALUE> future : futures.values()) {
+        future.completeExceptionally(e);
+      }
+    }
+
+  }
+
+}
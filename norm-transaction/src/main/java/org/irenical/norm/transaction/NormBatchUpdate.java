@@ -0,0 +1,14 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+public class NormBatchUpdate<INPUT, OUTPUT> extends NormBatch<INPUT, OUTPUT> {
+
+  @Override
+  PreparedStatement prepareStatement(Connection connection, String query) throws SQLException {
+    return connection.prepareStatement(query);
+  }
+
+}
@@ -0,0 +1,11 @@
+package org.irenical.norm.transaction;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+@FunctionalInterface
+public interface NormBinder<T> {
+
+  void bind(PreparedStatement statement, int index, T value) throws SQLException;
+
+}
@@ -0,0 +1,134 @@
+package org.irenical.norm.transaction;
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.GregorianCalendar;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Registry of parameter binders, keyed by Java class. A value's binder is
+ * resolved once per class, looking at the class itself, then its
+ * superclasses, then its interfaces; the result is cached in a ClassValue.
+ * Types without a binder are bound with setObject, as are Instant and the
+ * java.time local types, which JDBC 4.2 drivers bind natively; register a
+ * binder for them to convert to the java.sql types instead
+ */
+public final class NormBinders {
+
+  private static final NormBinder<Object> OBJECT = PreparedStatement::setObject;
+
+  private static final NormBinder<Object> ENUM = (statement, index, value) -> statement.setString(index, value.toString());
+
+  private static final Map<Class<?>, NormBinder<?>> binders = new ConcurrentHashMap<>();
+
+  private static volatile ClassValue<NormBinder<Object>> resolved = newResolver();
+
+  static {
+    binders.put(String.class, (NormBinder<String>) PreparedStatement::setString);
+    binders.put(Integer.class, (NormBinder<Integer>) PreparedStatement::setInt);
+    binders.put(Long.class, (NormBinder<Long>) PreparedStatement::setLong);
+    binders.put(Short.class, (NormBinder<Short>) PreparedStatement::setShort);
+    binders.put(Byte.class, (NormBinder<Byte>) PreparedStatement::setByte);
+    binders.put(Double.class, (NormBinder<Double>) PreparedStatement::setDouble);
+    binders.put(Float.class, (NormBinder<Float>) PreparedStatement::setFloat);
+    binders.put(Boolean.class, (NormBinder<Boolean>) PreparedStatement::setBoolean);
+    binders.put(BigDecimal.class, (NormBinder<BigDecimal>) PreparedStatement::setBigDecimal);
+    binders.put(byte[].class, (NormBinder<byte[]>) PreparedStatement::setBytes);
+    // drivers with a native uuid type, like PostgreSQL's, expect the object
+    binders.put(UUID.class, OBJECT);
+    binders.put(Timestamp.class, (NormBinder<Timestamp>) PreparedStatement::setTimestamp);
+    binders.put(Time.class, (NormBinder<Time>) PreparedStatement::setTime);
+    binders.put(Date.class, (NormBinder<Date>) PreparedStatement::setDate);
+    binders.put(ZonedDateTime.class, (NormBinder<ZonedDateTime>) (statement, index, value) -> statement.setTimestamp(index, Timestamp.from(value.toInstant()), GregorianCalendar.from(value)));
+  }
+
+  private NormBinders() {
+  }
+
+  /**
+   * Registers a binder for a type and its subtypes, replacing any previous
+   * binder for that exact type
+   * @param type - the type to bind
+   * @param binder - the binder
+   */
+  public static <T> void register(Class<T> type, NormBinder<? super T> binder) {
+    binders.put(type, binder);
+    resolved = newResolver();
+  }
+
+  /**
+   * Removes the binder registered for a type, so that it resolves as if it
+   * had never been registered. Meant for tests, which share this registry
+   * @param type - the registered type
+   */
+  static void unregister(Class<?> type) {
+    binders.remove(type);
+    resolved = newResolver();
+  }
+
+  public static NormBinder<Object> binderFor(Class<?> type) {
+    return resolved.get(type);
+  }
+
+  public static void bind(PreparedStatement statement, int index, Object value) throws SQLException {
+    if (value == null) {
+      statement.setObject(index, null);
+    } else {
+      resolved.get(value.getClass()).bind(statement, index, value);
+    }
+  }
+
+  private static ClassValue<NormBinder<Object>> newResolver() {
+    return new ClassValue<NormBinder<Object>>() {
+      @Override
+      protected NormBinder<Object> computeValue(Class<?> type) {
+        return resolve(type);
+      }
+    };
+  }
+
+  @SuppressWarnings("unchecked")
+  private static NormBinder<Object> resolve(Class<?> type) {
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      NormBinder<?> binder = binders.get(current);
+      if (binder != null) {
+        return (NormBinder<Object>) binder;
+      }
+      if (current == Enum.class) {
+        return ENUM;
+      }
+    }
+    Deque<Class<?>> interfaces = new ArrayDeque<>();
+    Set<Class<?>> seen = new HashSet<>();
+    for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+      for (Class<?> implemented : current.getInterfaces()) {
+        interfaces.add(implemented);
+      }
+    }
+    while (!interfaces.isEmpty()) {
+      Class<?> implemented = interfaces.poll();
+      if (seen.add(implemented)) {
+        NormBinder<?> binder = binders.get(implemented);
+        if (binder != null) {
+          return (NormBinder<Object>) binder;
+        }
+        for (Class<?> parent : implemented.getInterfaces()) {
+          interfaces.add(parent);
+        }
+      }
+    }
+    return OBJECT;
+  }
+
+}
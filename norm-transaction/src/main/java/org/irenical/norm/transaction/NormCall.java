@@ -1,26 +1,52 @@
 package org.irenical.norm.transaction;
 
 import java.sql.CallableStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Set;
 
 public class NormCall<INPUT, OUTPUT> extends NormOperation<INPUT, OUTPUT> {
 
   @Override
   OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
-    try (CallableStatement statement = JDBChops.prepareStatementForCall(context.getConnection(),
-            queryBuilder.apply(context),
-            parametersBuilder == null ? null : parametersBuilder.apply(context))
-    ) {
+    String query = queryBuilder.apply(context);
+    context.setQuery(query);
+    tablesWritten(context, query);
+    NormStatementCache cache = context.getStatementCache();
+    Iterable<Object> parameters = buildParameters(context);
+    long mark = context.mark();
+    CallableStatement statement = JDBChops.prepareStatementForCall(cache, context.getConnection(),
+            query,
+            null);
+    try {
+      mark = context.timed(NormTimings.Phase.PREPARE, mark);
+      JDBChops.prepareCallInput(statement, parameters);
+      bindParameters(context, statement);
+      mark = context.timed(NormTimings.Phase.BIND, mark);
+      context.setActiveStatement(statement);
       boolean hasResultSet = statement.execute();
+      context.timed(NormTimings.Phase.EXECUTE, mark);
 
-      context.setCallableStatement(statement);
-      context.setResultSet(hasResultSet ? statement.getResultSet() : null);
+      try (ResultSet resultSet = hasResultSet ? statement.getResultSet() : null) {
+        context.setCallableStatement(statement);
+        context.setResultSet(resultSet);
 
-      if (outputReader != null) {
-        return outputReader.toOutput(context);
+        if (outputReader != null) {
+          return context.read(outputReader);
+        }
+        return null;
       }
-      return null;
+    } finally {
+      JDBChops.close(cache, statement);
     }
   }
 
+  /**
+   * A procedure may write anywhere
+   */
+  @Override
+  Set<String> detectTablesWritten(NormQueryCache queryCache, String query) {
+    return null;
+  }
+
 }
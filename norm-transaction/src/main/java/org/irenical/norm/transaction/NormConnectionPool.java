@@ -0,0 +1,480 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLNonTransientConnectionException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Arrays;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * A dependency-free connection pool, holding up to maxSize connections
+ * obtained from another supplier, such as DriverManager. Borrowing a
+ * connection takes a permit and claims an idle connection with a single
+ * compare-and-set, trying first the connection the calling thread returned
+ * last, then the others starting at a per-thread offset, so threads rarely
+ * contend for the same one. Only when every connection is in use does a
+ * borrower wait, for at most the borrow timeout.
+ * <p>
+ * Closing a borrowed connection returns it to the pool. Connections idle for
+ * longer than the validation idle time are validated before being handed
+ * out, and replaced if no longer valid.
+ */
+public class NormConnectionPool implements NormConnectionSupplier, AutoCloseable {
+
+  public static final long DEFAULT_BORROW_TIMEOUT_MILLIS = 30000;
+
+  public static final long DEFAULT_VALIDATION_IDLE_MILLIS = 1000;
+
+  public static final int DEFAULT_VALIDATION_TIMEOUT_SECONDS = 5;
+
+  private static final int IDLE = 0;
+
+  private static final int IN_USE = 1;
+
+  private static final int REMOVED = 2;
+
+  private final NormConnectionSupplier connectionSupplier;
+
+  private final int maxSize;
+
+  private final Semaphore permits;
+
+  private static final Entry[] NO_ENTRIES = new Entry[0];
+
+  /**
+   * Every open connection, replaced as a whole when one is added or removed,
+   * so borrows can scan it without locking or copying
+   */
+  private volatile Entry[] entries = NO_ENTRIES;
+
+  private final AtomicInteger size = new AtomicInteger();
+
+  private final ThreadLocal<Entry> lastReturned = new ThreadLocal<>();
+
+  private final NormHistogram waitTimes = new NormHistogram();
+
+  private final LongAdder borrows = new LongAdder();
+
+  private final LongAdder affinityHits = new LongAdder();
+
+  private final LongAdder timeouts = new LongAdder();
+
+  private final LongAdder created = new LongAdder();
+
+  private final LongAdder discarded = new LongAdder();
+
+  private volatile long borrowTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_BORROW_TIMEOUT_MILLIS);
+
+  private volatile long validationIdleNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_VALIDATION_IDLE_MILLIS);
+
+  private volatile int validationTimeoutSeconds = DEFAULT_VALIDATION_TIMEOUT_SECONDS;
+
+  private volatile boolean threadAffinity = true;
+
+  private volatile boolean closed;
+
+  /**
+   * @param connectionSupplier - where to open new physical connections
+   * @param maxSize - the most connections open at once
+   */
+  public NormConnectionPool(NormConnectionSupplier connectionSupplier, int maxSize) {
+    if (connectionSupplier == null) {
+      throw new NormTransactionException("No connection supplier was provided for this pool");
+    }
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Invalid connection pool size " + maxSize);
+    }
+    this.connectionSupplier = connectionSupplier;
+    this.maxSize = maxSize;
+    this.permits = new Semaphore(maxSize);
+  }
+
+  /**
+   * @param timeout - how long to wait for a connection when all are in use
+   * @param unit - the timeout's unit
+   */
+  public void setBorrowTimeout(long timeout, TimeUnit unit) {
+    this.borrowTimeoutNanos = unit.toNanos(timeout);
+  }
+
+  public long getBorrowTimeout(TimeUnit unit) {
+    return unit.convert(borrowTimeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param idleTime - how long a connection may stay idle before it is
+   * validated on borrow; zero validates on every borrow
+   * @param unit - the idle time's unit
+   */
+  public void setValidationIdleTime(long idleTime, TimeUnit unit) {
+    this.validationIdleNanos = unit.toNanos(idleTime);
+  }
+
+  public long getValidationIdleTime(TimeUnit unit) {
+    return unit.convert(validationIdleNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param seconds - passed on to Connection.isValid
+   */
+  public void setValidationTimeout(int seconds) {
+    this.validationTimeoutSeconds = seconds;
+  }
+
+  public int getValidationTimeout() {
+    return validationTimeoutSeconds;
+  }
+
+  /**
+   * @param threadAffinity - whether a thread first tries the connection it
+   * returned last
+   */
+  public void setThreadAffinity(boolean threadAffinity) {
+    this.threadAffinity = threadAffinity;
+  }
+
+  public boolean isThreadAffinity() {
+    return threadAffinity;
+  }
+
+  @Override
+  public Connection get() throws SQLException {
+    if (closed) {
+      throw new SQLNonTransientConnectionException("Connection pool is closed");
+    }
+    acquire();
+    try {
+      Entry entry;
+      while ((entry = claim()) != null) {
+        if (validate(entry)) {
+          return lease(entry);
+        }
+        discard(entry);
+      }
+      return lease(open());
+    } catch (SQLException | RuntimeException | Error e) {
+      permits.release();
+      throw e;
+    }
+  }
+
+  private void acquire() throws SQLException {
+    borrows.increment();
+    if (permits.tryAcquire()) {
+      waitTimes.record(0);
+      return;
+    }
+    long start = System.nanoTime();
+    boolean acquired;
+    try {
+      acquired = permits.tryAcquire(borrowTimeoutNanos, TimeUnit.NANOSECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+    }
+    waitTimes.record(System.nanoTime() - start);
+    if (!acquired) {
+      timeouts.increment();
+      throw new SQLTransientConnectionException("Timed out waiting for one of " + maxSize + " pooled connections");
+    }
+  }
+
+  /**
+   * @return an idle connection, now in use, or null if there is none
+   */
+  private Entry claim() {
+    if (threadAffinity) {
+      Entry last = lastReturned.get();
+      if (last != null && last.state.compareAndSet(IDLE, IN_USE)) {
+        affinityHits.increment();
+        return last;
+      }
+    }
+    Entry[] snapshot = entries;
+    int count = snapshot.length;
+    int offset = count == 0 ? 0 : (int) (Thread.currentThread().getId() % count);
+    for (int i = 0; i < count; i++) {
+      Entry entry = snapshot[(offset + i) % count];
+      if (entry.state.compareAndSet(IDLE, IN_USE)) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Opens a new connection, or claims one returned since the last scan if the
+   * pool is already full
+   */
+  private Entry open() throws SQLException {
+    while (size.incrementAndGet() > maxSize) {
+      size.decrementAndGet();
+      Thread.yield();
+      Entry entry = claim();
+      if (entry != null) {
+        if (validate(entry)) {
+          return entry;
+        }
+        discard(entry);
+      }
+    }
+    Connection connection;
+    try {
+      connection = connectionSupplier.get();
+    } catch (SQLException | RuntimeException | Error e) {
+      size.decrementAndGet();
+      throw e;
+    }
+    if (connection == null) {
+      size.decrementAndGet();
+      throw new NormTransactionException("Null connection supplied to this pool");
+    }
+    created.increment();
+    Entry entry = new Entry(connection);
+    add(entry);
+    return entry;
+  }
+
+  private synchronized void add(Entry entry) {
+    Entry[] grown = Arrays.copyOf(entries, entries.length + 1);
+    grown[grown.length - 1] = entry;
+    entries = grown;
+  }
+
+  /**
+   * @return whether the entry was in the pool
+   */
+  private synchronized boolean remove(Entry entry) {
+    Entry[] current = entries;
+    for (int i = 0; i < current.length; i++) {
+      if (current[i] == entry) {
+        Entry[] shrunk = Arrays.copyOf(current, current.length - 1);
+        System.arraycopy(current, i + 1, shrunk, i, current.length - i - 1);
+        entries = shrunk;
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private boolean validate(Entry entry) {
+    if (System.nanoTime() - entry.lastUsed < validationIdleNanos) {
+      return true;
+    }
+    try {
+      return entry.connection.isValid(validationTimeoutSeconds);
+    } catch (SQLException e) {
+      return false;
+    }
+  }
+
+  private void discard(Entry entry) {
+    entry.state.set(REMOVED);
+    if (remove(entry)) {
+      size.decrementAndGet();
+      discarded.increment();
+    }
+    try {
+      entry.connection.close();
+    } catch (SQLException e) {
+      // Closing a broken connection... ignoring.
+    }
+  }
+
+  private Connection lease(Entry entry) {
+    return (Connection) Proxy.newProxyInstance(NormConnectionPool.class.getClassLoader(), new Class<?>[] { Connection.class }, new Lease(entry));
+  }
+
+  /**
+   * Returns a connection to the pool, rolling back whatever its borrower left
+   * uncommitted. Closed or failing connections are discarded instead
+   */
+  private void release(Entry entry) {
+    boolean broken;
+    try {
+      broken = closed || entry.connection.isClosed();
+      if (!broken && !entry.connection.getAutoCommit()) {
+        entry.connection.rollback();
+      }
+    } catch (SQLException e) {
+      broken = true;
+    }
+    if (broken) {
+      discard(entry);
+    } else {
+      entry.lastUsed = System.nanoTime();
+      if (threadAffinity) {
+        lastReturned.set(entry);
+      }
+      entry.state.set(IDLE);
+    }
+    permits.release();
+  }
+
+  /**
+   * Closes every idle connection and refuses further borrows. Connections in
+   * use are closed as they are returned
+   */
+  @Override
+  public void close() {
+    closed = true;
+    for (Entry entry : entries) {
+      if (entry.state.compareAndSet(IDLE, IN_USE)) {
+        discard(entry);
+      }
+    }
+  }
+
+  public boolean isClosed() {
+    return closed;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  /**
+   * @return how many connections are open, idle or in use
+   */
+  public int getSize() {
+    return size.get();
+  }
+
+  /**
+   * @return how many connections are borrowed
+   */
+  public int getActive() {
+    return maxSize - permits.availablePermits();
+  }
+
+  public int getIdle() {
+    return Math.max(0, getSize() - getActive());
+  }
+
+  /**
+   * @return the share of maxSize currently borrowed, between 0 and 1
+   */
+  public double getUtilisation() {
+    return (double) getActive() / maxSize;
+  }
+
+  /**
+   * @return how many threads are waiting for a connection
+   */
+  public int getWaiting() {
+    return permits.getQueueLength();
+  }
+
+  /**
+   * @return the nanoseconds each borrow waited for a permit
+   */
+  public NormHistogram getWaitTimes() {
+    return waitTimes;
+  }
+
+  public long getBorrows() {
+    return borrows.sum();
+  }
+
+  /**
+   * @return how many borrows got the connection their thread returned last
+   */
+  public long getAffinityHits() {
+    return affinityHits.sum();
+  }
+
+  public long getTimeouts() {
+    return timeouts.sum();
+  }
+
+  public long getCreated() {
+    return created.sum();
+  }
+
+  /**
+   * @return how many connections were closed for being invalid or broken
+   */
+  public long getDiscarded() {
+    return discarded.sum();
+  }
+
+  private static final class Entry {
+
+    private final Connection connection;
+
+    private final AtomicInteger state = new AtomicInteger(IN_USE);
+
+    private volatile long lastUsed = System.nanoTime();
+
+    private Entry(Connection connection) {
+      this.connection = connection;
+    }
+
+  }
+
+  /**
+   * A borrowed connection: closing it returns the physical connection to the
+   * pool, after which it can no longer be used
+   */
+  private final class Lease implements InvocationHandler {
+
+    private final Entry entry;
+
+    private final AtomicBoolean returned = new AtomicBoolean();
+
+    private Lease(Entry entry) {
+      this.entry = entry;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      switch (method.getName()) {
+      case "close":
+        if (returned.compareAndSet(false, true)) {
+          release(entry);
+        }
+        return null;
+      case "isClosed":
+        return returned.get() || entry.connection.isClosed();
+      case "equals":
+        return proxy == args[0];
+      case "hashCode":
+        return System.identityHashCode(proxy);
+      case "toString":
+        return "Pooled " + entry.connection;
+      case "unwrap":
+        if (args[0] == Connection.class && !returned.get()) {
+          return entry.connection;
+        }
+        break;
+      case "isWrapperFor":
+        if (args[0] == Connection.class) {
+          return true;
+        }
+        break;
+      default:
+      }
+      if (returned.get()) {
+        throw new SQLNonTransientConnectionException("Connection was returned to the pool");
+      }
+      try {
+        return method.invoke(entry.connection, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+
+  }
+
+}
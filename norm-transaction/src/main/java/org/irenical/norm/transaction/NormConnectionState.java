@@ -0,0 +1,84 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * The connection attributes a transaction changed, and their original values,
+ * so the connection is handed back as it was supplied. Attributes are only
+ * set when they differ from the connection's, sparing round trips
+ */
+final class NormConnectionState {
+
+  private final Connection connection;
+
+  private final Boolean targetAutoCommit;
+
+  private final boolean targetReadOnly;
+
+  private final Integer targetIsolation;
+
+  private Boolean autoCommit;
+
+  private Boolean readOnly;
+
+  private Integer isolation;
+
+  private NormConnectionState(Connection connection, Boolean autoCommit, boolean readOnly, Integer isolation) {
+    this.connection = connection;
+    this.targetAutoCommit = autoCommit;
+    this.targetReadOnly = readOnly;
+    this.targetIsolation = isolation;
+  }
+
+  /**
+   * @param autoCommit - the auto-commit mode to set, or null to keep it
+   * @param readOnly - whether to set the connection read-only
+   * @param isolation - the isolation level to set, or null to keep it
+   * @return the state to apply, or null if there is nothing to change
+   */
+  static NormConnectionState of(Connection connection, Boolean autoCommit, boolean readOnly, Integer isolation) {
+    if (autoCommit == null && !readOnly && isolation == null) {
+      return null;
+    }
+    return new NormConnectionState(connection, autoCommit, readOnly, isolation);
+  }
+
+  /**
+   * Sets the attributes, remembering the original value of each one changed
+   */
+  void apply() throws SQLException {
+    if (targetAutoCommit != null && connection.getAutoCommit() != targetAutoCommit) {
+      connection.setAutoCommit(targetAutoCommit);
+      autoCommit = !targetAutoCommit;
+    }
+    if (targetReadOnly && !connection.isReadOnly()) {
+      connection.setReadOnly(true);
+      readOnly = false;
+    }
+    if (targetIsolation != null) {
+      int original = connection.getTransactionIsolation();
+      if (original != targetIsolation) {
+        connection.setTransactionIsolation(targetIsolation);
+        isolation = original;
+      }
+    }
+  }
+
+  /**
+   * Restores the original values of the changed attributes, after the
+   * transaction committed or rolled back
+   */
+  void restore() throws SQLException {
+    if (isolation != null) {
+      connection.setTransactionIsolation(isolation);
+    }
+    if (readOnly != null) {
+      connection.setReadOnly(readOnly);
+    }
+    if (autoCommit != null) {
+      connection.setAutoCommit(autoCommit);
+    }
+  }
+
+}
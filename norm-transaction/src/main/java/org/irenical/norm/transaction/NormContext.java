@@ -4,21 +4,30 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.sql.Statement;
 import java.util.Collections;
-import java.util.LinkedHashMap;
-import java.util.LinkedList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
 public class NormContext<INPUT, OUTPUT> {
 
+  private static final ThreadLocal<NormContext<?, ?>> CURRENT = new ThreadLocal<>();
+
   private NormTransaction<INPUT, OUTPUT> transaction;
 
   private Connection connection;
 
+  private NormConnectionSupplier connectionSupplier;
+
   private INPUT input;
 
   private OUTPUT output;
@@ -31,9 +40,61 @@ public class NormContext<INPUT, OUTPUT> {
 
   private Integer updatedRows;
 
-  private List<Map<String, Object>> generatedKeys;
+  private NormRows generatedKeys;
+
+  private int[] batchUpdatedRows;
 
   private Function<INPUT, ?> inputAdapter;
+
+  private Set<String> tablesWritten;
+
+  private boolean allTablesWritten;
+
+  private volatile Statement activeStatement;
+
+  private volatile boolean cancelled;
+
+  private boolean hasDeadline;
+
+  private long deadline;
+
+  private long operationTimeout;
+
+  private int attempt;
+
+  private NormOperation<?, ?> operation;
+
+  private String query;
+
+  private NormFingerprint fingerprint;
+
+  private Iterable<Object> parameters;
+
+  private long transactionStart;
+
+  private long operationStart;
+
+  private long rowsRead;
+
+  private long totalRowsRead;
+
+  private long totalUpdatedRows;
+
+  private Exception failure;
+
+  private NormTimings timings;
+
+  private volatile NormContext<INPUT, OUTPUT> retry;
+
+  private volatile Runnable onCancel;
+
+  private volatile List<NormContext<INPUT, OUTPUT>> forks;
+
+  private Map<String, Object> outputs;
+
+  private Statement timedStatement;
+
+  private ScheduledFuture<?> watchdog;
   
   protected NormContext() {
   }
@@ -50,15 +111,590 @@ public class NormContext<INPUT, OUTPUT> {
     return connection;
   }
 
+  void setConnectionSupplier(NormConnectionSupplier connectionSupplier) {
+    this.connectionSupplier = connectionSupplier;
+  }
+
+  NormConnectionSupplier getConnectionSupplier() {
+    return connectionSupplier;
+  }
+
+  /**
+   * @return the context of the transaction running on this thread, if any
+   */
+  static NormContext<?, ?> current() {
+    return CURRENT.get();
+  }
+
+  /**
+   * Makes this the context of the transaction running on this thread
+   * @return the previous one, to restore on exit
+   */
+  NormContext<?, ?> enter() {
+    NormContext<?, ?> previous = CURRENT.get();
+    CURRENT.set(this);
+    return previous;
+  }
+
+  static void exit(NormContext<?, ?> previous) {
+    if (previous == null) {
+      CURRENT.remove();
+    } else {
+      CURRENT.set(previous);
+    }
+  }
+
+  /**
+   * Runs this context on the enclosing transaction's connection, bounded by
+   * its deadline
+   */
+  void join(NormContext<?, ?> outer) {
+    connection = outer.connection;
+    connectionSupplier = outer.connectionSupplier;
+    if (outer.hasDeadline && (!hasDeadline || outer.deadline - deadline < 0)) {
+      hasDeadline = true;
+      deadline = outer.deadline;
+    }
+  }
+
+  /**
+   * Hands the tables this joined context wrote over to the enclosing one,
+   * which invalidates them once its transaction ends
+   */
+  void leave(NormContext<?, ?> outer) {
+    NormQueryCache queryCache = getQueryCache();
+    if (queryCache == null) {
+      return;
+    }
+    if (queryCache != outer.getQueryCache()) {
+      invalidateTablesWritten();
+    } else if (allTablesWritten) {
+      outer.allTablesWritten = true;
+    } else if (tablesWritten != null) {
+      if (outer.tablesWritten == null) {
+        outer.tablesWritten = new HashSet<>();
+      }
+      outer.tablesWritten.addAll(tablesWritten);
+    }
+  }
+
   public NormTransaction<INPUT, OUTPUT> getTransaction() {
     return transaction;
   }
 
+  NormStatementCache getStatementCache() {
+    return transaction == null ? null : transaction.getStatementCache();
+  }
+
+  NormQueryCache getQueryCache() {
+    return transaction == null ? null : transaction.getQueryCache();
+  }
+
+  /**
+   * Invalidates the tables an operation is about to write to, remembering
+   * them to invalidate again once the transaction ends, as other
+   * transactions may cache their old rows meanwhile
+   * @param tables - the tables, or null for all of them
+   */
+  void tablesWritten(NormQueryCache queryCache, Set<String> tables) {
+    if (tables == null) {
+      allTablesWritten = true;
+      queryCache.invalidateAll();
+    } else {
+      if (tablesWritten == null) {
+        tablesWritten = new HashSet<>();
+      }
+      tablesWritten.addAll(tables);
+      queryCache.invalidate(tables);
+    }
+  }
+
+  /**
+   * Whether this transaction wrote to any of the given tables, in which case
+   * reading them must bypass the query cache
+   */
+  boolean wroteAny(Set<String> tables) {
+    if (allTablesWritten) {
+      return true;
+    }
+    if (tablesWritten != null) {
+      for (String table : tables) {
+        if (tablesWritten.contains(table)) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  void invalidateTablesWritten() {
+    NormQueryCache queryCache = getQueryCache();
+    if (queryCache != null) {
+      if (allTablesWritten) {
+        queryCache.invalidateAll();
+      } else if (tablesWritten != null) {
+        queryCache.invalidate(tablesWritten);
+      }
+    }
+  }
+
+  /**
+   * Sets this execution's deadline, from now
+   * @param timeout - in nanoseconds, or zero for no deadline
+   */
+  void setTimeout(long timeout) {
+    hasDeadline = timeout > 0;
+    deadline = System.nanoTime() + timeout;
+  }
+
+  /**
+   * A fresh context to execute the transaction again, with the same input and
+   * deadline. Cancelling this context cancels the new one too
+   */
+  NormContext<INPUT, OUTPUT> retry() {
+    NormContext<INPUT, OUTPUT> next = new NormContext<>();
+    next.transaction = transaction;
+    next.input = input;
+    next.hasDeadline = hasDeadline;
+    next.deadline = deadline;
+    next.attempt = attempt + 1;
+    next.timings = timings == null ? null : new NormTimings();
+    retry = next;
+    if (cancelled) {
+      next.cancel();
+    }
+    return next;
+  }
+
+  /**
+   * A context for one operation of a parallel execution, sharing this one's
+   * input, deadline and named outputs. Cancelling this context cancels the
+   * new one too
+   */
+  NormContext<INPUT, OUTPUT> fork() {
+    NormContext<INPUT, OUTPUT> fork = new NormContext<>();
+    fork.transaction = transaction;
+    fork.input = input;
+    fork.connectionSupplier = connectionSupplier;
+    fork.hasDeadline = hasDeadline;
+    fork.deadline = deadline;
+    fork.attempt = attempt;
+    fork.timings = timings == null ? null : new NormTimings();
+    if (outputs == null) {
+      outputs = new ConcurrentHashMap<>();
+    }
+    fork.outputs = outputs;
+    synchronized (this) {
+      if (forks == null) {
+        forks = new CopyOnWriteArrayList<>();
+      }
+      forks.add(fork);
+    }
+    if (cancelled) {
+      fork.cancel();
+    }
+    return fork;
+  }
+
+  void putOutput(String name, Object output) {
+    if (output == null) {
+      if (outputs != null) {
+        outputs.remove(name);
+      }
+      return;
+    }
+    if (outputs == null) {
+      outputs = new ConcurrentHashMap<>();
+    }
+    outputs.put(name, output);
+  }
+
+  /**
+   * @param name - the name of an operation that already ran
+   * @return the output of that operation, or null if it did not run or had
+   * no output
+   */
+  @SuppressWarnings("unchecked")
+  public <T> T getOutput(String name) {
+    return outputs == null ? null : (T) outputs.get(name);
+  }
+
+  /**
+   * @return how many times the transaction was retried before this
+   * execution, zero for the first one
+   */
+  public int getAttempt() {
+    return attempt;
+  }
+
+  public boolean hasDeadline() {
+    return hasDeadline;
+  }
+
+  /**
+   * @return the time left until this execution's deadline, possibly
+   * negative, or Long.MAX_VALUE if it has none
+   */
+  public long getRemaining(TimeUnit unit) {
+    return hasDeadline ? unit.convert(deadline - System.nanoTime(), TimeUnit.NANOSECONDS) : Long.MAX_VALUE;
+  }
+
+  /**
+   * Called before each operation runs
+   * @param operation - the operation about to run, or null for a stream
+   * select's cursor
+   * @throws SQLTimeoutException if the deadline has passed
+   * @throws SQLException if this context was cancelled
+   */
+  void startOperation(NormOperation<?, ?> operation) throws SQLException {
+    this.operation = operation;
+    operationTimeout = operation == null ? 0 : operation.timeoutNanos;
+    operationStart = System.nanoTime();
+    if (timings != null) {
+      timings.startOperation();
+    }
+    checkCancelled();
+  }
+
+  /**
+   * Called after each operation, stopping its watchdog before its statement
+   * can be reused
+   */
+  void endOperation() {
+    ScheduledFuture<?> running = watchdog;
+    if (running != null) {
+      watchdog = null;
+      running.cancel(false);
+    }
+    Statement statement = timedStatement;
+    if (statement != null) {
+      timedStatement = null;
+      try {
+        if (!statement.isClosed()) {
+          statement.setQueryTimeout(0);
+        }
+      } catch (SQLException e) {
+        // Statement unusable... ignoring, it will fail when reused.
+      }
+    }
+    activeStatement = null;
+  }
+
+  /**
+   * @throws SQLTimeoutException if the deadline has passed
+   * @throws SQLException if this context was cancelled, so its transaction
+   * rolls back instead of going on or committing
+   */
+  void checkCancelled() throws SQLException {
+    if (hasDeadline && deadline - System.nanoTime() <= 0) {
+      throw new SQLTimeoutException("Transaction deadline exceeded", "57014");
+    }
+    if (cancelled) {
+      throw new SQLException("Transaction cancelled", "57014");
+    }
+  }
+
+  /**
+   * Registers the statement about to be executed, so it can be cancelled from
+   * another thread, applying the operation's timeout or the time left until
+   * the deadline, whichever is shorter
+   * @throws SQLException if this context was already cancelled or the
+   * deadline has passed
+   */
+  void setActiveStatement(Statement statement) throws SQLException {
+    activeStatement = statement;
+    if (statement != null) {
+      checkCancelled();
+    }
+    if (statement != null && (operationTimeout > 0 || hasDeadline)) {
+      applyTimeout(statement);
+    }
+  }
+
+  private void applyTimeout(Statement statement) throws SQLException {
+    long timeout = operationTimeout;
+    boolean toDeadline = false;
+    if (hasDeadline) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        throw new SQLTimeoutException("Transaction deadline exceeded", "57014");
+      }
+      if (timeout <= 0 || remaining < timeout) {
+        timeout = remaining;
+        toDeadline = true;
+      }
+    }
+    long seconds = (timeout + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1);
+    statement.setQueryTimeout((int) Math.min(Integer.MAX_VALUE, seconds));
+    timedStatement = statement;
+    if (watchdog == null) {
+      boolean cancelAll = toDeadline;
+      watchdog = NormExecutors.scheduler().schedule(() -> {
+        if (cancelAll) {
+          cancel();
+        } else {
+          cancel(statement);
+        }
+      }, timeout, TimeUnit.NANOSECONDS);
+    }
+  }
+
+  /**
+   * Cancels the transaction running with this context, from any thread. The
+   * statement being executed is cancelled, if the driver supports it, and no
+   * further operations will run
+   */
+  public void cancel() {
+    cancelled = true;
+    Runnable listener = onCancel;
+    if (listener != null) {
+      listener.run();
+    }
+    Statement statement = activeStatement;
+    if (statement != null) {
+      cancel(statement);
+    }
+    NormContext<INPUT, OUTPUT> next = retry;
+    if (next != null) {
+      next.cancel();
+    }
+    List<NormContext<INPUT, OUTPUT>> running = forks;
+    if (running != null) {
+      for (NormContext<INPUT, OUTPUT> fork : running) {
+        fork.cancel();
+      }
+    }
+  }
+
+  /**
+   * @param listener - run if this context is cancelled, right away if it
+   * already was, or null to stop listening
+   */
+  void onCancel(Runnable listener) {
+    onCancel = listener;
+    if (listener != null && cancelled) {
+      listener.run();
+    }
+  }
+
+  private static void cancel(Statement statement) {
+    try {
+      statement.cancel();
+    } catch (SQLException e) {
+      // Statement already done or cancel not supported... ignoring.
+    }
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Called as the transaction starts, before its hook is
+   */
+  void startTransaction() {
+    transactionStart = System.nanoTime();
+  }
+
+  void setTimings(NormTimings timings) {
+    this.timings = timings;
+  }
+
+  /**
+   * @return where this execution's time went, or null if it was not sampled
+   */
+  public NormTimings getTimings() {
+    return timings;
+  }
+
+  /**
+   * @return now, to time a phase from, or zero if this execution is not
+   * timed
+   */
+  long mark() {
+    return timings == null ? 0 : System.nanoTime();
+  }
+
+  /**
+   * Adds the time since the mark to the phase
+   * @return now, to time the next phase from
+   */
+  long timed(NormTimings.Phase phase, long mark) {
+    if (timings == null) {
+      return 0;
+    }
+    long now = System.nanoTime();
+    timings.add(phase, now - mark);
+    return now;
+  }
+
+  /**
+   * Adds a finished fork's phases to this execution's
+   */
+  void timed(NormContext<?, ?> fork) {
+    if (timings != null && fork.timings != null) {
+      timings.add(fork.timings);
+    }
+  }
+
+  /**
+   * Runs the output reader, splitting its time between fetching rows and
+   * mapping them when timed
+   */
+  OUTPUT read(NormOutputReader<INPUT, OUTPUT> reader) throws SQLException {
+    if (timings == null) {
+      return reader.toOutput(this);
+    }
+    ResultSet plain = resultSet;
+    if (plain != null) {
+      resultSet = timings.fetching(plain);
+    }
+    long start = System.nanoTime();
+    try {
+      return reader.toOutput(this);
+    } finally {
+      long fetching = timings.takeFetching();
+      timings.add(NormTimings.Phase.FETCH, fetching);
+      timings.add(NormTimings.Phase.MAP, System.nanoTime() - start - fetching);
+      resultSet = plain;
+    }
+  }
+
+  /**
+   * Called as the transaction ends, before its hook is
+   */
+  void endTransaction() {
+    if (timings != null) {
+      timings.end(System.nanoTime() - transactionStart);
+    }
+  }
+
+  /**
+   * @return the System.nanoTime at which the transaction started
+   */
+  public long getTransactionStart() {
+    return transactionStart;
+  }
+
+  /**
+   * @return the System.nanoTime at which the current operation started
+   */
+  public long getOperationStart() {
+    return operationStart;
+  }
+
+  /**
+   * @return the operation running, or that ran last
+   */
+  public NormOperation<?, ?> getOperation() {
+    return operation;
+  }
+
+  void setQuery(String query) {
+    this.query = query;
+    fingerprint = null;
+  }
+
+  /**
+   * @return the SQL of the current operation, once built
+   */
+  public String getQuery() {
+    return query;
+  }
+
+  void setParameters(Iterable<Object> parameters) {
+    this.parameters = parameters;
+  }
+
+  /**
+   * @return the parameters built for the current operation, if it has a
+   * parameters builder
+   */
+  public Iterable<Object> getParameters() {
+    return parameters;
+  }
+
+  /**
+   * @return the shape of the current operation's SQL, once built
+   */
+  public NormFingerprint getFingerprint() {
+    if (fingerprint == null && query != null) {
+      fingerprint = NormFingerprint.of(query);
+    }
+    return fingerprint;
+  }
+
+  /**
+   * Reports rows read from the current result set, for hooks counting them.
+   * Rows read with readRows are reported already
+   * @param rows - how many rows were read
+   */
+  public void addRowsRead(long rows) {
+    rowsRead += rows;
+  }
+
+  /**
+   * @return the rows reported as read by the current operation
+   */
+  public long getRowsRead() {
+    return rowsRead;
+  }
+
+  /**
+   * Adds the current operation's rows to the transaction's totals
+   */
+  void countRows() {
+    totalRowsRead += rowsRead;
+    if (updatedRows != null) {
+      totalUpdatedRows += updatedRows;
+    }
+  }
+
+  /**
+   * Adds a parallel operation's totals to this context's
+   */
+  void countRows(NormContext<?, ?> fork) {
+    totalRowsRead += fork.totalRowsRead;
+    totalUpdatedRows += fork.totalUpdatedRows;
+  }
+
+  /**
+   * @return the rows reported as read by every operation so far
+   */
+  public long getTotalRowsRead() {
+    return totalRowsRead;
+  }
+
+  /**
+   * @return the rows updated by every operation so far
+   */
+  public long getTotalUpdatedRows() {
+    return totalUpdatedRows;
+  }
+
+  void setFailure(Exception failure) {
+    this.failure = failure;
+  }
+
+  /**
+   * @return the exception that failed the transaction, once it ended, or
+   * null if it succeeded
+   */
+  public Exception getFailure() {
+    return failure;
+  }
+
   protected void forward() {
+    activeStatement = null;
+    query = null;
+    fingerprint = null;
+    parameters = null;
+    rowsRead = 0;
     setCallableStatement(null);
     setPreparedStatement(null);
     setResultSet(null);
     setUpdatedRows(null);
+    setBatchUpdatedRows(null);
     generatedKeys = null;
   }
 
@@ -114,6 +750,19 @@ public class NormContext<INPUT, OUTPUT> {
     return updatedRows;
   }
 
+  protected void setBatchUpdatedRows(int[] batchUpdatedRows) {
+    this.batchUpdatedRows = batchUpdatedRows;
+  }
+
+  /**
+   * The update count of each row of the last batch operation, as reported by
+   * the driver (may be Statement.SUCCESS_NO_INFO)
+   * @return the update counts, or null if the last operation was not a batch
+   */
+  public int[] getBatchUpdatedRows() {
+    return batchUpdatedRows;
+  }
+
   public Integer getFirstGeneratedKeyAsInteger() throws SQLException {
     Object got = getFirstGeneratedKey();
     if (got instanceof Number) {
@@ -123,40 +772,82 @@ public class NormContext<INPUT, OUTPUT> {
     }
   }
 
+  /**
+   * The first column of the first generated key row, as a primitive long
+   * @return the generated key
+   * @throws SQLException if no key was generated, or it is not numeric
+   */
+  public long getFirstGeneratedKeyAsLong() throws SQLException {
+    Object got = getFirstGeneratedKey();
+    if (got == null) {
+      throw new SQLException("No generated key is available");
+    }
+    try {
+      return getGeneratedKeyRows().get(0).getLong(0);
+    } catch (NumberFormatException e) {
+      throw new SQLException("Generated key is not numeric: " + got, e);
+    }
+  }
+
   public Object getFirstGeneratedKey() throws SQLException {
-    Map<String, Object> firstRow = getFirstGeneratedKeys();
-    return firstRow == null || firstRow.isEmpty() ? null : firstRow.entrySet().iterator().next().getValue();
+    NormRows generatedKeys = getGeneratedKeyRows();
+    return generatedKeys.isEmpty() || generatedKeys.get(0).isEmpty() ? null : generatedKeys.get(0).get(0);
   }
 
   public Map<String, Object> getFirstGeneratedKeys() throws SQLException {
-    List<Map<String, Object>> generatedKeys = getGeneratedKeys();
+    NormRows generatedKeys = getGeneratedKeyRows();
     return generatedKeys.isEmpty() ? null : generatedKeys.get(0);
   }
 
   public List<Map<String, Object>> getGeneratedKeys() throws SQLException {
-    loadGeneratedKeys();
+    return Collections.unmodifiableList(getGeneratedKeyRows());
+  }
+
+  /**
+   * The keys generated by the last operation, as compact rows
+   * @return the generated key rows, possibly empty
+   * @throws SQLException if the keys could not be read
+   */
+  public NormRows getGeneratedKeyRows() throws SQLException {
+    if (generatedKeys == null) {
+      generatedKeys = new NormRows();
+      if (preparedStatement != null) {
+        readGeneratedKeys(preparedStatement);
+      }
+    }
     return generatedKeys;
   }
 
-  private void loadGeneratedKeys() throws SQLException {
+  /**
+   * Accumulates the keys generated by the statement's last execution, for
+   * operations that execute their statement more than once
+   */
+  protected void collectGeneratedKeys(PreparedStatement statement) throws SQLException {
     if (generatedKeys == null) {
-      List<Map<String, Object>> generatedKeys = new LinkedList<Map<String, Object>>();
-      try (ResultSet resultset = preparedStatement.getGeneratedKeys()) {
-        while (resultset.next()) {
-          Map<String, Object> row = new LinkedHashMap<>();
-          ResultSetMetaData metadata = resultset.getMetaData();
-          int columnCount = metadata.getColumnCount();
-          for (int i = 1; i <= columnCount; i++) {
-            String columnName = metadata.getColumnName(i);
-            row.put(columnName, resultset.getObject(columnName));
-          }
-          generatedKeys.add(Collections.unmodifiableMap(row));
-        }
+      generatedKeys = new NormRows();
+    }
+    readGeneratedKeys(statement);
+  }
+
+  private void readGeneratedKeys(PreparedStatement statement) throws SQLException {
+    try (ResultSet resultset = statement.getGeneratedKeys()) {
+      if (resultset != null) {
+        generatedKeys.append(resultset);
       }
-      this.generatedKeys = Collections.unmodifiableList(generatedKeys);
     }
   }
 
+  /**
+   * Reads the remaining rows of the current result set as compact rows
+   * @return the rows
+   * @throws SQLException if reading fails
+   */
+  public NormRows readRows() throws SQLException {
+    NormRows rows = NormRows.read(resultSet);
+    rowsRead += rows.size();
+    return rows;
+  }
+
   public void setInputAdapter(Function<INPUT, ?> inputAdapter) {
     this.inputAdapter = inputAdapter;
   }
@@ -0,0 +1,109 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Executors for asynchronous transaction execution
+ */
+public final class NormExecutors {
+
+  private static volatile Executor defaultExecutor;
+
+  private static volatile ScheduledExecutorService scheduler;
+
+  private NormExecutors() {
+  }
+
+  /**
+   * How many tasks the default executor queues once all its threads are busy
+   */
+  public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+
+  /**
+   * A shared pool of daemon threads, bounded to twice the number of available
+   * processors (and no less than four), used when a transaction has no
+   * executor of its own. Once its threads are busy, up to
+   * DEFAULT_QUEUE_CAPACITY tasks wait in its queue; further tasks are
+   * rejected, failing the futures returned by executeAsync and
+   * NormBatchLoader.load with a RejectedExecutionException, rather than
+   * piling up without limit
+   * @return the default executor
+   */
+  public static Executor defaultExecutor() {
+    Executor executor = defaultExecutor;
+    if (executor == null) {
+      synchronized (NormExecutors.class) {
+        executor = defaultExecutor;
+        if (executor == null) {
+          int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+          defaultExecutor = executor = boundedPool(threads, DEFAULT_QUEUE_CAPACITY, "norm-async-");
+        }
+      }
+    }
+    return executor;
+  }
+
+  /**
+   * A pool of daemon threads, idle ones timing out, with a bounded queue that
+   * rejects tasks once full
+   */
+  static ThreadPoolExecutor boundedPool(int threads, int queueCapacity, String prefix) {
+    ThreadPoolExecutor pool = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(queueCapacity), daemonThreads(prefix), new ThreadPoolExecutor.AbortPolicy());
+    pool.allowCoreThreadTimeOut(true);
+    return pool;
+  }
+
+  /**
+   * Creates an executor that starts a virtual thread per task, on runtimes
+   * that support them
+   * @return a new virtual thread executor, or null if the runtime has no
+   * virtual threads
+   */
+  public static ExecutorService virtualThreadExecutor() {
+    try {
+      Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+      return (ExecutorService) factory.invoke(null);
+    } catch (ReflectiveOperationException | RuntimeException e) {
+      return null;
+    }
+  }
+
+  /**
+   * A single daemon thread for short timer tasks, such as flushing batches.
+   * Tasks must not block
+   */
+  static ScheduledExecutorService scheduler() {
+    ScheduledExecutorService timer = scheduler;
+    if (timer == null) {
+      synchronized (NormExecutors.class) {
+        timer = scheduler;
+        if (timer == null) {
+          ScheduledThreadPoolExecutor pool = new ScheduledThreadPoolExecutor(1, daemonThreads("norm-timer-"));
+          pool.setRemoveOnCancelPolicy(true);
+          scheduler = timer = pool;
+        }
+      }
+    }
+    return timer;
+  }
+
+  static ThreadFactory daemonThreads(String prefix) {
+    AtomicInteger count = new AtomicInteger();
+    return runnable -> {
+      Thread thread = new Thread(runnable, prefix + count.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    };
+  }
+
+}
@@ -0,0 +1,186 @@
+package org.irenical.norm.transaction;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The shape of a SQL statement: its text with literals replaced by
+ * placeholders, IN lists of placeholders and repeated value rows collapsed,
+ * words upper cased and comments and whitespace normalised. Statements that
+ * differ only in their literals or IN list lengths share a shape, so
+ * statistics can be aggregated by it.
+ * <p>
+ * Fingerprints are cached by SQL text, so fingerprinting a repeated statement
+ * is a map lookup. Once the cache is full, further statements are
+ * fingerprinted on every call rather than displacing the cached ones.
+ */
+public final class NormFingerprint {
+
+  private static final int MAX_CACHED = 4096;
+
+  private static final String PLACEHOLDER = "?";
+
+  private static final String PLACEHOLDERS = "?+";
+
+  private static final Map<String, NormFingerprint> CACHE = new ConcurrentHashMap<>();
+
+  private final String shape;
+
+  private final String id;
+
+  private NormFingerprint(String shape) {
+    this.shape = shape;
+    this.id = String.format("%016x", hash(shape));
+  }
+
+  /**
+   * @return the statement's fingerprint, or null for a null statement
+   */
+  public static NormFingerprint of(String sql) {
+    if (sql == null) {
+      return null;
+    }
+    NormFingerprint fingerprint = CACHE.get(sql);
+    if (fingerprint == null) {
+      fingerprint = new NormFingerprint(shape(sql));
+      if (CACHE.size() < MAX_CACHED) {
+        NormFingerprint cached = CACHE.putIfAbsent(sql, fingerprint);
+        if (cached != null) {
+          fingerprint = cached;
+        }
+      }
+    }
+    return fingerprint;
+  }
+
+  static void clearCache() {
+    CACHE.clear();
+  }
+
+  static String shape(String sql) {
+    List<String> shape = new ArrayList<>();
+    for (String token : NormSql.tokens(sql)) {
+      char first = token.charAt(0);
+      if (first == '\'' || Character.isDigit(first) || first == '?') {
+        shape.add(PLACEHOLDER);
+      } else if (token.equals(")")) {
+        shape.add(token);
+        collapseRow(shape);
+      } else if (Character.isLetter(first) || first == '_') {
+        shape.add(token.toUpperCase(Locale.ROOT));
+      } else {
+        shape.add(token);
+      }
+    }
+    StringBuilder joined = new StringBuilder(sql.length());
+    String previous = null;
+    for (String token : shape) {
+      if (previous != null && !previous.equals("(") && !previous.equals(".") && !token.equals(")") && !token.equals(",") && !token.equals(".")) {
+        joined.append(' ');
+      }
+      joined.append(token);
+      previous = token;
+    }
+    return joined.toString();
+  }
+
+  /**
+   * Collapses an IN list of placeholders just closed into a single "?+", and
+   * drops a parenthesised group just closed if it repeats the one before it,
+   * as multi-row VALUES do
+   */
+  private static void collapseRow(List<String> shape) {
+    int end = shape.size() - 1;
+    int start = opening(shape, end);
+    if (start >= 1 && shape.get(start - 1).equals("IN") && isPlaceholderList(shape, start + 1, end)) {
+      shape.subList(start + 1, end).clear();
+      shape.add(start + 1, PLACEHOLDERS);
+      return;
+    }
+    if (start < 2 || !shape.get(start - 1).equals(",") || !shape.get(start - 2).equals(")")) {
+      return;
+    }
+    int previousEnd = start - 2;
+    int previousStart = opening(shape, previousEnd);
+    if (previousStart >= 0 && shape.subList(previousStart, previousEnd + 1).equals(shape.subList(start, end + 1))) {
+      shape.subList(start - 1, end + 1).clear();
+    }
+  }
+
+  /**
+   * @return whether the tokens from start to end, exclusive, are placeholders
+   * separated by commas
+   */
+  private static boolean isPlaceholderList(List<String> shape, int start, int end) {
+    if (start >= end || (end - start) % 2 == 0) {
+      return false;
+    }
+    for (int i = start; i < end; i++) {
+      if (!shape.get(i).equals((i - start) % 2 == 0 ? PLACEHOLDER : ",")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the index of the "(" matching the ")" at end, or -1
+   */
+  private static int opening(List<String> shape, int end) {
+    int depth = 0;
+    for (int i = end; i >= 0; i--) {
+      String token = shape.get(i);
+      if (token.equals(")")) {
+        ++depth;
+      } else if (token.equals("(") && --depth == 0) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * 64 bit FNV-1a, stable across runs and JVMs
+   */
+  private static long hash(String shape) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < shape.length(); i++) {
+      hash ^= shape.charAt(i);
+      hash *= 0x100000001b3L;
+    }
+    return hash;
+  }
+
+  /**
+   * @return the normalised statement
+   */
+  public String getShape() {
+    return shape;
+  }
+
+  /**
+   * @return a short, stable identifier of the shape, in hexadecimal
+   */
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return obj instanceof NormFingerprint && shape.equals(((NormFingerprint) obj).shape);
+  }
+
+  @Override
+  public int hashCode() {
+    return shape.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return shape;
+  }
+
+}
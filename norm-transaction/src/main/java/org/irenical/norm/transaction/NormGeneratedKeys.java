@@ -0,0 +1,38 @@
+package org.irenical.norm.transaction;
+
+/**
+ * The generated key settings shared by NormInsert and NormBatchInsert
+ */
+final class NormGeneratedKeys {
+
+  private Boolean returnGeneratedKeys;
+
+  private String[] columns;
+
+  void setReturnGeneratedKeys(Boolean returnGeneratedKeys) {
+    this.returnGeneratedKeys = returnGeneratedKeys;
+  }
+
+  /**
+   * Keys are requested unless explicitly disabled, as they always were
+   */
+  boolean isReturnGeneratedKeys() {
+    return returnGeneratedKeys == null || returnGeneratedKeys;
+  }
+
+  void setColumns(String... columns) {
+    this.columns = columns == null || columns.length == 0 ? null : columns.clone();
+  }
+
+  /**
+   * @return the declared columns, not copied, or null
+   */
+  String[] columns() {
+    return columns;
+  }
+
+  String[] getColumns() {
+    return columns == null ? null : columns.clone();
+  }
+
+}
@@ -0,0 +1,133 @@
+package org.irenical.norm.transaction;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative values, with HDR-style buckets: each
+ * power of two range is split into SUB_BUCKETS linear sub-buckets, so a
+ * bucket's width is at most 1/SUB_BUCKETS of the values it counts. Values
+ * below SUB_BUCKETS get a bucket each. Recording is an atomic increment and a
+ * couple of uncontended adds, so it can sit on hot paths; percentiles are
+ * accurate to their bucket, within about 6%, capped by the maximum seen.
+ */
+public final class NormHistogram {
+
+  private static final int SUB_BUCKET_BITS = 4;
+
+  public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+  /**
+   * Exact buckets for values below SUB_BUCKETS, then SUB_BUCKETS per power of
+   * two up to 2^62
+   */
+  public static final int BUCKETS = SUB_BUCKETS + (63 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+  private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+  private final LongAdder sum = new LongAdder();
+
+  private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+  /**
+   * @param value - the value to record, negative values count as zero
+   */
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    buckets.getAndIncrement(bucketOf(value));
+    sum.add(value);
+    max.accumulate(value);
+  }
+
+  public static int bucketOf(long value) {
+    if (value < SUB_BUCKETS) {
+      return value <= 0 ? 0 : (int) value;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(value);
+    int shift = exponent - SUB_BUCKET_BITS;
+    int sub = (int) (value >>> shift) & (SUB_BUCKETS - 1);
+    return SUB_BUCKETS + shift * SUB_BUCKETS + sub;
+  }
+
+  /**
+   * @return the largest value counted by a bucket
+   */
+  public static long upperBoundOf(int bucket) {
+    if (bucket < SUB_BUCKETS) {
+      return bucket;
+    }
+    int shift = (bucket - SUB_BUCKETS) / SUB_BUCKETS;
+    int sub = (bucket - SUB_BUCKETS) % SUB_BUCKETS;
+    long lower = (long) (SUB_BUCKETS + sub) << shift;
+    return lower + (1L << shift) - 1;
+  }
+
+  public long getCount() {
+    long count = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      count += buckets.get(i);
+    }
+    return count;
+  }
+
+  public long getSum() {
+    return sum.sum();
+  }
+
+  public long getMax() {
+    return max.get();
+  }
+
+  public double getMean() {
+    long count = getCount();
+    return count == 0 ? 0 : (double) getSum() / count;
+  }
+
+  /**
+   * @return the count of each bucket
+   */
+  public long[] getBuckets() {
+    long[] counts = new long[BUCKETS];
+    for (int i = 0; i < BUCKETS; i++) {
+      counts[i] = buckets.get(i);
+    }
+    return counts;
+  }
+
+  /**
+   * @param percentile - between 0 and 100
+   * @return an upper bound of the given percentile, or 0 if nothing was
+   * recorded
+   */
+  public long getPercentile(double percentile) {
+    long[] counts = getBuckets();
+    long total = 0;
+    for (long count : counts) {
+      total += count;
+    }
+    if (total == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(total * Math.min(100, Math.max(0, percentile)) / 100);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += counts[i];
+      if (seen >= rank && counts[i] > 0) {
+        return Math.min(upperBoundOf(i), getMax());
+      }
+    }
+    return getMax();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      buckets.set(i, 0);
+    }
+    sum.reset();
+    max.reset();
+  }
+
+}
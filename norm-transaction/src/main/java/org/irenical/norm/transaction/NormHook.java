@@ -1,5 +1,7 @@
 package org.irenical.norm.transaction;
 
+import java.sql.SQLException;
+
 public interface NormHook {
 
   <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context);
@@ -10,4 +12,22 @@ public interface NormHook {
 
   <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context);
 
+  /**
+   * Called instead of operationEnded when an operation fails
+   * @param context - the failed operation's context
+   * @param cause - why it failed
+   */
+  default <INPUT, OUTPUT> void operationFailed(NormContext<INPUT, OUTPUT> context, Exception cause) {
+  }
+
+  /**
+   * Called when an execution failed and is about to be retried, after its
+   * transactionEnded and before the backoff
+   * @param context - the failed execution's context
+   * @param cause - why it failed
+   * @param backoffNanos - how long until the retry starts
+   */
+  default <INPUT, OUTPUT> void transactionRetried(NormContext<INPUT, OUTPUT> context, SQLException cause, long backoffNanos) {
+  }
+
 }
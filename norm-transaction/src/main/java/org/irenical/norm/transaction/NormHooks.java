@@ -0,0 +1,65 @@
+package org.irenical.norm.transaction;
+
+import java.sql.SQLException;
+
+/**
+ * Combines hooks, so a transaction can have several
+ */
+public final class NormHooks implements NormHook {
+
+  private final NormHook[] hooks;
+
+  private NormHooks(NormHook[] hooks) {
+    this.hooks = hooks;
+  }
+
+  /**
+   * @return a hook calling each of the given hooks, in order
+   */
+  public static NormHook of(NormHook... hooks) {
+    return hooks.length == 1 ? hooks[0] : new NormHooks(hooks.clone());
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+    for (NormHook hook : hooks) {
+      hook.transactionStarted(context);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+    for (NormHook hook : hooks) {
+      hook.transactionEnded(context);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+    for (NormHook hook : hooks) {
+      hook.operationStarted(context);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+    for (NormHook hook : hooks) {
+      hook.operationEnded(context);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationFailed(NormContext<INPUT, OUTPUT> context, Exception cause) {
+    for (NormHook hook : hooks) {
+      hook.operationFailed(context, cause);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionRetried(NormContext<INPUT, OUTPUT> context, SQLException cause, long backoffNanos) {
+    for (NormHook hook : hooks) {
+      hook.transactionRetried(context, cause, backoffNanos);
+    }
+  }
+
+}
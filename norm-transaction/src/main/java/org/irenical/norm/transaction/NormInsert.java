@@ -5,17 +5,64 @@ import java.sql.SQLException;
 
 public class NormInsert<INPUT, OUTPUT> extends NormOperation<INPUT, OUTPUT> {
 
+  private final NormGeneratedKeys generatedKeys = new NormGeneratedKeys();
+
   @Override
   OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
-    try (PreparedStatement statement = JDBChops.prepareStatementForInsert(context.getConnection(), queryBuilder.apply(context), parametersBuilder == null ? null : parametersBuilder.apply(context))) {
+    String query = queryBuilder.apply(context);
+    context.setQuery(query);
+    tablesWritten(context, query);
+    NormStatementCache cache = context.getStatementCache();
+    Iterable<Object> parameters = buildParameters(context);
+    long mark = context.mark();
+    PreparedStatement statement = JDBChops.prepareStatementForInsert(cache, context.getConnection(), query, null, isReturnGeneratedKeys(), generatedKeys.columns());
+    try {
+      mark = context.timed(NormTimings.Phase.PREPARE, mark);
+      JDBChops.prepareInput(statement, parameters);
+      bindParameters(context, statement);
+      mark = context.timed(NormTimings.Phase.BIND, mark);
+      context.setActiveStatement(statement);
       int count = statement.executeUpdate();
+      context.timed(NormTimings.Phase.EXECUTE, mark);
       context.setPreparedStatement(statement);
       context.setUpdatedRows(count);
       if (outputReader != null) {
-        return outputReader.toOutput(context);
+        return context.read(outputReader);
       }
       return null;
+    } finally {
+      JDBChops.close(cache, statement);
     }
   }
 
+  /**
+   * Whether the driver is asked to return generated keys. Keys are requested
+   * by default; inserts whose keys are never read can disable them, sparing
+   * drivers that return the whole inserted row when no key columns are
+   * declared, like PostgreSQL's
+   * @param returnGeneratedKeys - false to never request keys, true or null to
+   * request them
+   */
+  public void setReturnGeneratedKeys(Boolean returnGeneratedKeys) {
+    checkNotFrozen();
+    generatedKeys.setReturnGeneratedKeys(returnGeneratedKeys);
+  }
+
+  public boolean isReturnGeneratedKeys() {
+    return generatedKeys.isReturnGeneratedKeys();
+  }
+
+  /**
+   * @param generatedKeyColumns - the generated columns the driver should
+   * return, or null to let the driver decide
+   */
+  public void setGeneratedKeyColumns(String... generatedKeyColumns) {
+    checkNotFrozen();
+    generatedKeys.setColumns(generatedKeyColumns);
+  }
+
+  public String[] getGeneratedKeyColumns() {
+    return generatedKeys.getColumns();
+  }
+
 }
@@ -0,0 +1,620 @@
+package org.irenical.norm.transaction;
+
+import java.beans.ConstructorProperties;
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.Parameter;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * Maps result set rows to instances of a class. Columns are matched to
+ * properties by name, ignoring case and underscores, so PERSON_ID maps to
+ * personId. The matching is done once per result set shape and the rows are
+ * then read through compiled accessors, without per row reflection or
+ * column lookups, so a mapper should be created once and reused.
+ * <p>
+ * Classes with a public no-argument constructor are mapped as beans, through
+ * their public setters and fields. Other classes are built through their
+ * public constructor with most parameters (any constructor, for non public
+ * classes), whose names are taken from ConstructorProperties, from record
+ * components or from classes compiled with -parameters. Columns without a property are ignored, as are
+ * properties without a column.
+ */
+public final class NormMapper<T> {
+
+  private final Class<T> type;
+
+  private final String columnPrefix;
+
+  private final Target target;
+
+  private final Map<List<String>, NormRowReader<T>> readers = new ConcurrentHashMap<>();
+
+  public NormMapper(Class<T> type) {
+    this(type, null);
+  }
+
+  /**
+   * @param type - the class to map rows to
+   * @param columnPrefix - only columns starting with this prefix are mapped,
+   * without it, so that ADDRESS_STREET maps to street with prefix ADDRESS_.
+   * Useful to map joined tables with clashing column names
+   */
+  public NormMapper(Class<T> type, String columnPrefix) {
+    if (type == null) {
+      throw new NormTransactionException("No type was provided for this mapper");
+    }
+    this.type = type;
+    this.columnPrefix = columnPrefix == null || columnPrefix.isEmpty() ? null : normalize(columnPrefix);
+    this.target = target(type);
+  }
+
+  public Class<T> getType() {
+    return type;
+  }
+
+  /**
+   * Resolves the row reader for a result set's shape, compiling it on the
+   * first result set with that shape
+   * @param resultSet - the result set to read
+   * @return a reader for the rows of that result set
+   * @throws SQLException if the result set's metadata is unavailable
+   */
+  public NormRowReader<T> resolve(ResultSet resultSet) throws SQLException {
+    ResultSetMetaData metadata = resultSet.getMetaData();
+    String[] columns = new String[metadata.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = metadata.getColumnLabel(i + 1);
+    }
+    // the schema is only built when a shape is first seen
+    List<String> shape = Arrays.asList(columns);
+    NormRowReader<T> reader = readers.get(shape);
+    if (reader == null) {
+      reader = compile(new NormRowSchema(columns));
+      NormRowReader<T> raced = readers.putIfAbsent(shape, reader);
+      if (raced != null) {
+        reader = raced;
+      }
+    }
+    return reader;
+  }
+
+  /**
+   * @return an output reader mapping the first row, or null if there are no
+   * rows
+   */
+  public <INPUT> NormOutputReader<INPUT, T> single() {
+    return context -> {
+      ResultSet resultSet = context.getResultSet();
+      return resultSet.next() ? resolve(resultSet).read(resultSet) : null;
+    };
+  }
+
+  /**
+   * @return an output reader mapping every row, in order
+   */
+  public <INPUT> NormOutputReader<INPUT, List<T>> list() {
+    return context -> {
+      ResultSet resultSet = context.getResultSet();
+      List<T> result = new ArrayList<>();
+      if (resultSet.next()) {
+        NormRowReader<T> reader = resolve(resultSet);
+        do {
+          result.add(reader.read(resultSet));
+        } while (resultSet.next());
+      }
+      return result;
+    };
+  }
+
+  /**
+   * @param column - the key column, which need not be mapped
+   * @return an output reader mapping every row, keyed by the given column's
+   * value, in row order. Later rows replace earlier rows with the same key
+   */
+  public <INPUT, KEY> NormOutputReader<INPUT, Map<KEY, T>> mapBy(String column) {
+    return context -> {
+      ResultSet resultSet = context.getResultSet();
+      Map<KEY, T> result = new LinkedHashMap<>();
+      if (resultSet.next()) {
+        NormRowReader<T> reader = resolve(resultSet);
+        int keyColumn = resultSet.findColumn(column);
+        do {
+          @SuppressWarnings("unchecked")
+          KEY key = (KEY) resultSet.getObject(keyColumn);
+          result.put(key, reader.read(resultSet));
+        } while (resultSet.next());
+      }
+      return result;
+    };
+  }
+
+  /**
+   * @return an output reader mapping the current row only, such as a
+   * NormStreamSelect's row reader
+   */
+  public <INPUT> NormOutputReader<INPUT, T> row() {
+    return new NormOutputReader<INPUT, T>() {
+
+      private ResultSet resultSet;
+
+      private NormRowReader<T> reader;
+
+      @Override
+      public synchronized T toOutput(NormContext<INPUT, T> context) throws SQLException {
+        ResultSet current = context.getResultSet();
+        if (current != resultSet) {
+          reader = resolve(current);
+          resultSet = current;
+        }
+        return reader.read(current);
+      }
+
+    };
+  }
+
+  private NormRowReader<T> compile(NormRowSchema schema) {
+    int[] columns = new int[target.properties.size()];
+    int matched = 0;
+    for (int p = 0; p < columns.length; p++) {
+      columns[p] = -1;
+      String name = target.properties.get(p).name;
+      for (int c = 0; c < schema.size(); c++) {
+        if (name.equals(propertyName(schema.getColumn(c)))) {
+          columns[p] = c + 1;
+          ++matched;
+          break;
+        }
+      }
+    }
+    if (matched == 0) {
+      throw new NormTransactionException("None of the columns " + schema.getColumns() + " match a property of " + type.getName());
+    }
+    Property[] properties = new Property[matched];
+    int[] indexes = new int[matched];
+    for (int p = 0, i = 0; p < columns.length; p++) {
+      if (columns[p] > 0) {
+        properties[i] = target.properties.get(p);
+        indexes[i++] = columns[p];
+      }
+    }
+    return target.compile(indexes, properties);
+  }
+
+  private String propertyName(String column) {
+    String name = normalize(column);
+    if (columnPrefix == null) {
+      return name;
+    }
+    return name.startsWith(columnPrefix) ? name.substring(columnPrefix.length()) : null;
+  }
+
+  private static String normalize(String name) {
+    return name.replace("_", "").toLowerCase(Locale.ROOT);
+  }
+
+  private static Target target(Class<?> type) {
+    if (type.isInterface() || Modifier.isAbstract(type.getModifiers()) || type.isPrimitive() || type.isArray()) {
+      throw new NormTransactionException("Cannot map rows to " + type.getName());
+    }
+    // a non public class's implicit constructor is not public either
+    Constructor<?>[] constructors = Modifier.isPublic(type.getModifiers()) ? type.getConstructors() : type.getDeclaredConstructors();
+    Constructor<?> chosen = null;
+    for (Constructor<?> constructor : constructors) {
+      if (constructor.getParameterCount() == 0) {
+        return new BeanTarget(type, constructor);
+      }
+      if (chosen == null || constructor.isAnnotationPresent(ConstructorProperties.class) || (!chosen.isAnnotationPresent(ConstructorProperties.class) && constructor.getParameterCount() > chosen.getParameterCount())) {
+        chosen = constructor;
+      }
+    }
+    if (chosen == null) {
+      throw new NormTransactionException("No public constructor to map rows to " + type.getName());
+    }
+    return new ConstructorTarget(chosen);
+  }
+
+  private static boolean compilable(Class<?> type, int modifiers) {
+    if (!Modifier.isPublic(type.getModifiers()) || !Modifier.isPublic(modifiers)) {
+      return false;
+    }
+    // generated lambdas live in this class loader and must see the target
+    try {
+      return Class.forName(type.getName(), false, NormMapper.class.getClassLoader()) == type;
+    } catch (ClassNotFoundException | LinkageError e) {
+      return false;
+    }
+  }
+
+  private static MethodHandles.Lookup lookup() {
+    return MethodHandles.lookup();
+  }
+
+  private static Object zero(Class<?> type) {
+    return type.isPrimitive() ? Array.get(Array.newInstance(type, 1), 0) : null;
+  }
+
+  private static RuntimeException rethrow(Throwable e) {
+    if (e instanceof RuntimeException) {
+      return (RuntimeException) e;
+    }
+    if (e instanceof Error) {
+      throw (Error) e;
+    }
+    return new NormTransactionException(e);
+  }
+
+  @FunctionalInterface
+  private interface ColumnReader {
+
+    Object read(ResultSet resultSet, int column) throws SQLException;
+
+  }
+
+  private static final class Property {
+
+    private final String name;
+
+    private final ColumnReader reader;
+
+    private final BiConsumer<Object, Object> setter;
+
+    private final int parameter;
+
+    private Property(String name, Class<?> type, BiConsumer<Object, Object> setter, int parameter) {
+      this.name = normalize(name);
+      this.reader = columnReader(type);
+      this.setter = setter;
+      this.parameter = parameter;
+    }
+
+  }
+
+  private abstract static class Target {
+
+    protected final List<Property> properties = new ArrayList<>();
+
+    protected abstract <T> NormRowReader<T> compile(int[] columns, Property[] properties);
+
+  }
+
+  private static final class BeanTarget extends Target {
+
+    private final Supplier<Object> factory;
+
+    private BeanTarget(Class<?> type, Constructor<?> constructor) {
+      factory = factory(type, constructor);
+      Map<String, Property> byName = new LinkedHashMap<>();
+      for (Field field : type.getFields()) {
+        int modifiers = field.getModifiers();
+        if (!Modifier.isStatic(modifiers) && !Modifier.isFinal(modifiers)) {
+          Property property = new Property(field.getName(), field.getType(), fieldSetter(field), -1);
+          byName.put(property.name, property);
+        }
+      }
+      for (Method method : type.getMethods()) {
+        String name = method.getName();
+        if (name.length() > 3 && name.startsWith("set") && method.getParameterCount() == 1 && !Modifier.isStatic(method.getModifiers()) && !method.isBridge()) {
+          Property property = new Property(name.substring(3), method.getParameterTypes()[0], setter(method), -1);
+          byName.put(property.name, property);
+        }
+      }
+      properties.addAll(byName.values());
+    }
+
+    @Override
+    protected <T> NormRowReader<T> compile(int[] columns, Property[] properties) {
+      ColumnReader[] readers = new ColumnReader[columns.length];
+      List<BiConsumer<Object, Object>> setters = new ArrayList<>(columns.length);
+      for (int i = 0; i < columns.length; i++) {
+        readers[i] = properties[i].reader;
+        setters.add(properties[i].setter);
+      }
+      return resultSet -> {
+        Object bean = factory.get();
+        for (int i = 0; i < columns.length; i++) {
+          Object value = readers[i].read(resultSet, columns[i]);
+          if (value != null) {
+            setters.get(i).accept(bean, value);
+          }
+        }
+        @SuppressWarnings("unchecked")
+        T result = (T) bean;
+        return result;
+      };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Supplier<Object> factory(Class<?> type, Constructor<?> constructor) {
+      try {
+        if (!compilable(type, constructor.getModifiers())) {
+          constructor.setAccessible(true);
+        }
+        MethodHandle handle = lookup().unreflectConstructor(constructor);
+        if (compilable(type, constructor.getModifiers())) {
+          CallSite site = LambdaMetafactory.metafactory(lookup(), "get", MethodType.methodType(Supplier.class), MethodType.methodType(Object.class), handle, MethodType.methodType(type));
+          return (Supplier<Object>) site.getTarget().invokeExact();
+        }
+        MethodHandle generic = handle.asType(MethodType.methodType(Object.class));
+        return () -> {
+          try {
+            return (Object) generic.invokeExact();
+          } catch (Throwable e) {
+            throw rethrow(e);
+          }
+        };
+      } catch (Throwable e) {
+        throw new NormTransactionException("Cannot instantiate " + type.getName(), e);
+      }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static BiConsumer<Object, Object> setter(Method method) {
+      Class<?> owner = method.getDeclaringClass();
+      try {
+        if (!compilable(owner, method.getModifiers())) {
+          method.setAccessible(true);
+          return generic(lookup().unreflect(method));
+        }
+        MethodHandle handle = lookup().unreflect(method);
+        Class<?> parameter = MethodType.methodType(method.getParameterTypes()[0]).wrap().returnType();
+        CallSite site = LambdaMetafactory.metafactory(lookup(), "accept", MethodType.methodType(BiConsumer.class), MethodType.methodType(void.class, Object.class, Object.class), handle, MethodType.methodType(void.class, owner, parameter));
+        return (BiConsumer<Object, Object>) site.getTarget().invokeExact();
+      } catch (Throwable e) {
+        throw new NormTransactionException("Cannot access " + method, e);
+      }
+    }
+
+    private static BiConsumer<Object, Object> fieldSetter(Field field) {
+      try {
+        if (!compilable(field.getDeclaringClass(), field.getModifiers())) {
+          field.setAccessible(true);
+        }
+        return generic(lookup().unreflectSetter(field));
+      } catch (IllegalAccessException | RuntimeException e) {
+        throw new NormTransactionException("Cannot access " + field, e);
+      }
+    }
+
+    private static BiConsumer<Object, Object> generic(MethodHandle handle) {
+      MethodHandle generic = handle.asType(MethodType.methodType(void.class, Object.class, Object.class));
+      return (bean, value) -> {
+        try {
+          generic.invokeExact(bean, value);
+        } catch (Throwable e) {
+          throw rethrow(e);
+        }
+      };
+    }
+
+  }
+
+  private static final class ConstructorTarget extends Target {
+
+    private final MethodHandle constructor;
+
+    private final Object[] defaults;
+
+    private ConstructorTarget(Constructor<?> constructor) {
+      Class<?>[] types = constructor.getParameterTypes();
+      String[] names = parameterNames(constructor);
+      defaults = new Object[types.length];
+      for (int i = 0; i < types.length; i++) {
+        defaults[i] = zero(types[i]);
+        properties.add(new Property(names[i], types[i], null, i));
+      }
+      try {
+        if (!compilable(constructor.getDeclaringClass(), constructor.getModifiers())) {
+          constructor.setAccessible(true);
+        }
+        this.constructor = lookup().unreflectConstructor(constructor).asSpreader(Object[].class, types.length).asType(MethodType.methodType(Object.class, Object[].class));
+      } catch (IllegalAccessException | RuntimeException e) {
+        throw new NormTransactionException("Cannot access " + constructor, e);
+      }
+    }
+
+    @Override
+    protected <T> NormRowReader<T> compile(int[] columns, Property[] properties) {
+      ColumnReader[] readers = new ColumnReader[columns.length];
+      int[] parameters = new int[columns.length];
+      for (int i = 0; i < columns.length; i++) {
+        readers[i] = properties[i].reader;
+        parameters[i] = properties[i].parameter;
+      }
+      return resultSet -> {
+        Object[] arguments = defaults.clone();
+        for (int i = 0; i < columns.length; i++) {
+          Object value = readers[i].read(resultSet, columns[i]);
+          if (value != null) {
+            arguments[parameters[i]] = value;
+          }
+        }
+        try {
+          @SuppressWarnings("unchecked")
+          T result = (T) (Object) constructor.invokeExact(arguments);
+          return result;
+        } catch (Throwable e) {
+          throw rethrow(e);
+        }
+      };
+    }
+
+    private static String[] parameterNames(Constructor<?> constructor) {
+      ConstructorProperties annotation = constructor.getAnnotation(ConstructorProperties.class);
+      if (annotation != null && annotation.value().length == constructor.getParameterCount()) {
+        return annotation.value();
+      }
+      String[] components = recordComponents(constructor.getDeclaringClass());
+      if (components != null && components.length == constructor.getParameterCount()) {
+        return components;
+      }
+      Parameter[] parameters = constructor.getParameters();
+      String[] names = new String[parameters.length];
+      for (int i = 0; i < parameters.length; i++) {
+        if (!parameters[i].isNamePresent()) {
+          throw new NormTransactionException("Cannot resolve the parameter names of " + constructor + ", annotate it with @ConstructorProperties or compile it with -parameters");
+        }
+        names[i] = parameters[i].getName();
+      }
+      return names;
+    }
+
+    private static String[] recordComponents(Class<?> type) {
+      // Class.getRecordComponents only exists from Java 16 on
+      try {
+        Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+        if (components == null) {
+          return null;
+        }
+        String[] names = new String[components.length];
+        for (int i = 0; i < components.length; i++) {
+          names[i] = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+        }
+        return names;
+      } catch (ReflectiveOperationException e) {
+        return null;
+      }
+    }
+
+  }
+
+  private static ColumnReader columnReader(Class<?> type) {
+    if (type == String.class) {
+      return ResultSet::getString;
+    }
+    if (type == int.class || type == Integer.class) {
+      return (resultSet, column) -> {
+        int value = resultSet.getInt(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == long.class || type == Long.class) {
+      return (resultSet, column) -> {
+        long value = resultSet.getLong(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == short.class || type == Short.class) {
+      return (resultSet, column) -> {
+        short value = resultSet.getShort(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == byte.class || type == Byte.class) {
+      return (resultSet, column) -> {
+        byte value = resultSet.getByte(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == double.class || type == Double.class) {
+      return (resultSet, column) -> {
+        double value = resultSet.getDouble(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == float.class || type == Float.class) {
+      return (resultSet, column) -> {
+        float value = resultSet.getFloat(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == boolean.class || type == Boolean.class) {
+      return (resultSet, column) -> {
+        boolean value = resultSet.getBoolean(column);
+        return resultSet.wasNull() ? null : value;
+      };
+    }
+    if (type == BigDecimal.class) {
+      return ResultSet::getBigDecimal;
+    }
+    if (type == byte[].class) {
+      return ResultSet::getBytes;
+    }
+    if (type == Timestamp.class || type == java.util.Date.class) {
+      return ResultSet::getTimestamp;
+    }
+    if (type == Date.class) {
+      return ResultSet::getDate;
+    }
+    if (type == Time.class) {
+      return ResultSet::getTime;
+    }
+    if (type == Instant.class) {
+      return (resultSet, column) -> {
+        Timestamp value = resultSet.getTimestamp(column);
+        return value == null ? null : value.toInstant();
+      };
+    }
+    if (type == ZonedDateTime.class) {
+      return (resultSet, column) -> {
+        Timestamp value = resultSet.getTimestamp(column);
+        return value == null ? null : value.toInstant().atZone(ZoneId.systemDefault());
+      };
+    }
+    if (type == LocalDateTime.class) {
+      return (resultSet, column) -> {
+        Timestamp value = resultSet.getTimestamp(column);
+        return value == null ? null : value.toLocalDateTime();
+      };
+    }
+    if (type == LocalDate.class) {
+      return (resultSet, column) -> {
+        Date value = resultSet.getDate(column);
+        return value == null ? null : value.toLocalDate();
+      };
+    }
+    if (type == LocalTime.class) {
+      return (resultSet, column) -> {
+        Time value = resultSet.getTime(column);
+        return value == null ? null : value.toLocalTime();
+      };
+    }
+    if (type.isEnum()) {
+      return (resultSet, column) -> {
+        String value = resultSet.getString(column);
+        return value == null ? null : enumValue(type, value);
+      };
+    }
+    return (resultSet, column) -> {
+      Object value = resultSet.getObject(column);
+      return value == null || type.isInstance(value) ? value : resultSet.getObject(column, type);
+    };
+  }
+
+  @SuppressWarnings({ "unchecked", "rawtypes" })
+  private static Object enumValue(Class<?> type, String value) {
+    return Enum.valueOf((Class) type, value);
+  }
+
+}
@@ -0,0 +1,353 @@
+package org.irenical.norm.transaction;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * A hook recording, per operation and per transaction, latency histograms
+ * and counts of executions, errors, rows read and rows updated. Recording is
+ * lock-free: a map lookup and a few adds per operation. Operations are
+ * identified by their name or, if unnamed, by their SQL's fingerprint shape,
+ * so statements differing only in literals or IN list lengths are recorded
+ * together; transactions by their name, unnamed ones being recorded together
+ * under UNNAMED. Keys are thus bounded by the application's code rather than
+ * by how many transaction instances it creates.
+ * Executions sampled for timings also add up their time per phase.
+ * <p>
+ * Statistics are read with getOperations and getTransactions, and can be
+ * exposed as an MXBean with register.
+ */
+public class NormMetrics implements NormHook, NormMetricsMXBean {
+
+  public static final String DOMAIN = "org.irenical.norm";
+
+  public static final String UNNAMED = "unnamed";
+
+  private static final NormTimings.Phase[] PHASES = NormTimings.Phase.values();
+
+  private final ConcurrentHashMap<String, Stats> operations = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<String, Stats> transactions = new ConcurrentHashMap<>();
+
+  private volatile ObjectName objectName;
+
+  /**
+   * @return the key operations are recorded under
+   */
+  protected String operationKey(NormContext<?, ?> context) {
+    NormOperation<?, ?> operation = context.getOperation();
+    if (operation != null && operation.getName() != null) {
+      return operation.getName();
+    }
+    NormFingerprint fingerprint = context.getFingerprint();
+    return fingerprint == null ? UNNAMED : fingerprint.getShape();
+  }
+
+  /**
+   * @return the key transactions are recorded under
+   */
+  protected String transactionKey(NormContext<?, ?> context) {
+    NormTransaction<?, ?> transaction = context.getTransaction();
+    if (transaction == null) {
+      return "unknown";
+    }
+    return transaction.getName() != null ? transaction.getName() : UNNAMED;
+  }
+
+  private static Stats stats(ConcurrentHashMap<String, Stats> all, String key) {
+    Stats stats = all.get(key);
+    if (stats == null) {
+      stats = all.computeIfAbsent(key, k -> new Stats());
+    }
+    return stats;
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+    Stats stats = stats(transactions, transactionKey(context));
+    stats.latency.record(System.nanoTime() - context.getTransactionStart());
+    stats.rows.add(context.getTotalRowsRead());
+    stats.updatedRows.add(context.getTotalUpdatedRows());
+    if (context.getFailure() != null) {
+      stats.errors.increment();
+    }
+    NormTimings timings = context.getTimings();
+    if (timings != null) {
+      stats.sampled.increment();
+      for (NormTimings.Phase phase : PHASES) {
+        stats.phases[phase.ordinal()].add(timings.getTransaction(phase));
+      }
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+    Stats stats = stats(operations, operationKey(context));
+    stats.latency.record(System.nanoTime() - context.getOperationStart());
+    stats.rows.add(context.getRowsRead());
+    Integer updatedRows = context.getUpdatedRows();
+    if (updatedRows != null) {
+      stats.updatedRows.add(updatedRows);
+    }
+    NormTimings timings = context.getTimings();
+    if (timings != null) {
+      stats.sampled.increment();
+      for (NormTimings.Phase phase : PHASES) {
+        stats.phases[phase.ordinal()].add(timings.getOperation(phase));
+      }
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationFailed(NormContext<INPUT, OUTPUT> context, Exception cause) {
+    Stats stats = stats(operations, operationKey(context));
+    stats.latency.record(System.nanoTime() - context.getOperationStart());
+    stats.errors.increment();
+  }
+
+  /**
+   * @return a snapshot of each operation's statistics, by key
+   */
+  @Override
+  public Map<String, Snapshot> getOperations() {
+    return snapshot(operations);
+  }
+
+  /**
+   * @return a snapshot of each transaction's statistics, by key
+   */
+  @Override
+  public Map<String, Snapshot> getTransactions() {
+    return snapshot(transactions);
+  }
+
+  /**
+   * @return a snapshot of an operation's statistics, or null if it never ran
+   */
+  public Snapshot getOperation(String key) {
+    Stats stats = operations.get(key);
+    return stats == null ? null : new Snapshot(key, stats);
+  }
+
+  /**
+   * @return a snapshot of a transaction's statistics, or null if it never
+   * ran
+   */
+  public Snapshot getTransaction(String key) {
+    Stats stats = transactions.get(key);
+    return stats == null ? null : new Snapshot(key, stats);
+  }
+
+  private static Map<String, Snapshot> snapshot(Map<String, Stats> all) {
+    Map<String, Snapshot> snapshots = new TreeMap<>();
+    for (Map.Entry<String, Stats> entry : all.entrySet()) {
+      snapshots.put(entry.getKey(), new Snapshot(entry.getKey(), entry.getValue()));
+    }
+    return snapshots;
+  }
+
+  @Override
+  public void reset() {
+    operations.clear();
+    transactions.clear();
+  }
+
+  /**
+   * Registers these metrics in the platform MBean server, as
+   * org.irenical.norm:type=NormMetrics,name=&lt;name&gt;
+   * @param name - tells these metrics apart from others'
+   * @return the name registered
+   */
+  public synchronized ObjectName register(String name) {
+    if (objectName != null) {
+      throw new NormTransactionException("These metrics are already registered as " + objectName);
+    }
+    try {
+      ObjectName registered = new ObjectName(DOMAIN + ":type=NormMetrics,name=" + ObjectName.quote(name));
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, registered);
+      objectName = registered;
+      return registered;
+    } catch (JMException e) {
+      throw new NormTransactionException("Could not register these metrics as " + name, e);
+    }
+  }
+
+  public synchronized void unregister() {
+    if (objectName == null) {
+      return;
+    }
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    try {
+      server.unregisterMBean(objectName);
+    } catch (JMException e) {
+      throw new NormTransactionException("Could not unregister these metrics as " + objectName, e);
+    } finally {
+      objectName = null;
+    }
+  }
+
+  public ObjectName getObjectName() {
+    return objectName;
+  }
+
+  private static final class Stats {
+
+    private final NormHistogram latency = new NormHistogram();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final LongAdder rows = new LongAdder();
+
+    private final LongAdder updatedRows = new LongAdder();
+
+    private final LongAdder sampled = new LongAdder();
+
+    private final LongAdder[] phases = new LongAdder[PHASES.length];
+
+    private Stats() {
+      for (int i = 0; i < phases.length; i++) {
+        phases[i] = new LongAdder();
+      }
+    }
+
+  }
+
+  /**
+   * The statistics of an operation or transaction at some point in time.
+   * Latencies are in nanoseconds, and percentiles are upper bounds accurate
+   * to a power of two
+   */
+  public static final class Snapshot {
+
+    private final String key;
+
+    private final long count;
+
+    private final long errors;
+
+    private final long rows;
+
+    private final long updatedRows;
+
+    private final long totalNanos;
+
+    private final long maxNanos;
+
+    private final long p50Nanos;
+
+    private final long p90Nanos;
+
+    private final long p99Nanos;
+
+    private final long sampled;
+
+    private final Map<String, Long> phaseNanos;
+
+    private Snapshot(String key, Stats stats) {
+      this.key = key;
+      this.count = stats.latency.getCount();
+      this.errors = stats.errors.sum();
+      this.rows = stats.rows.sum();
+      this.updatedRows = stats.updatedRows.sum();
+      this.totalNanos = stats.latency.getSum();
+      this.maxNanos = stats.latency.getMax();
+      this.p50Nanos = stats.latency.getPercentile(50);
+      this.p90Nanos = stats.latency.getPercentile(90);
+      this.p99Nanos = stats.latency.getPercentile(99);
+      this.sampled = stats.sampled.sum();
+      Map<String, Long> phaseNanos = new LinkedHashMap<>();
+      for (NormTimings.Phase phase : PHASES) {
+        phaseNanos.put(phase.name(), stats.phases[phase.ordinal()].sum());
+      }
+      this.phaseNanos = Collections.unmodifiableMap(phaseNanos);
+    }
+
+    public String getKey() {
+      return key;
+    }
+
+    /**
+     * @return how many executions were recorded, failed ones included
+     */
+    public long getCount() {
+      return count;
+    }
+
+    public long getErrors() {
+      return errors;
+    }
+
+    public long getRows() {
+      return rows;
+    }
+
+    public long getUpdatedRows() {
+      return updatedRows;
+    }
+
+    public long getTotalNanos() {
+      return totalNanos;
+    }
+
+    public long getMeanNanos() {
+      return count == 0 ? 0 : totalNanos / count;
+    }
+
+    public long getMaxNanos() {
+      return maxNanos;
+    }
+
+    public long getP50Nanos() {
+      return p50Nanos;
+    }
+
+    public long getP90Nanos() {
+      return p90Nanos;
+    }
+
+    public long getP99Nanos() {
+      return p99Nanos;
+    }
+
+    /**
+     * @return how many of the executions were sampled for timings
+     */
+    public long getSampled() {
+      return sampled;
+    }
+
+    /**
+     * @return the nanoseconds the sampled executions spent in each phase, by
+     * phase name
+     */
+    public Map<String, Long> getPhaseNanos() {
+      return phaseNanos;
+    }
+
+    @Override
+    public String toString() {
+      return key + " count=" + count + " errors=" + errors + " rows=" + rows + " updatedRows=" + updatedRows + " mean=" + getMeanNanos() + "ns p99=" + p99Nanos + "ns max=" + maxNanos + "ns";
+    }
+
+  }
+
+}
@@ -0,0 +1,16 @@
+package org.irenical.norm.transaction;
+
+import java.util.Map;
+
+/**
+ * The JMX view of a NormMetrics hook
+ */
+public interface NormMetricsMXBean {
+
+  Map<String, NormMetrics.Snapshot> getOperations();
+
+  Map<String, NormMetrics.Snapshot> getTransactions();
+
+  void reset();
+
+}
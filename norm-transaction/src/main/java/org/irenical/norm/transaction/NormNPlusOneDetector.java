@@ -0,0 +1,335 @@
+package org.irenical.norm.transaction;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * A hook flagging statement shapes executed too many times within one
+ * transaction, or within one request tracked with beginRequest and
+ * endRequest, usually loops that could be a single query or a batch.
+ * <p>
+ * Counting is a map lookup per operation, and keeping the first few
+ * parameters of each shape. The call site is only captured when a shape
+ * reaches the threshold. Transactions run from within another's operations,
+ * on the same thread, count toward the enclosing one. Findings are reported
+ * when their transaction or request ends, to the listener if any, and kept
+ * for getFindings.
+ */
+public class NormNPlusOneDetector implements NormHook {
+
+  public static final int DEFAULT_THRESHOLD = 10;
+
+  public static final int DEFAULT_MAX_FINDINGS = 100;
+
+  private static final int SAMPLES = 3;
+
+  private static final String INTERNAL = NormNPlusOneDetector.class.getName().substring(0, NormNPlusOneDetector.class.getName().lastIndexOf('.') + 1) + "Norm";
+
+  private final int threshold;
+
+  private final int maxFindings;
+
+  private final ConcurrentHashMap<NormContext<?, ?>, Scope> transactions = new ConcurrentHashMap<>();
+
+  private final ThreadLocal<Scope> request = new ThreadLocal<>();
+
+  private final Deque<Finding> findings = new ArrayDeque<>();
+
+  private volatile Consumer<Finding> listener;
+
+  public NormNPlusOneDetector() {
+    this(DEFAULT_THRESHOLD, DEFAULT_MAX_FINDINGS);
+  }
+
+  public NormNPlusOneDetector(int threshold) {
+    this(threshold, DEFAULT_MAX_FINDINGS);
+  }
+
+  /**
+   * @param threshold - how many executions of a shape within a transaction
+   * or request are flagged
+   * @param maxFindings - how many of the latest findings are kept
+   */
+  public NormNPlusOneDetector(int threshold, int maxFindings) {
+    if (threshold < 2) {
+      throw new IllegalArgumentException("Invalid threshold " + threshold);
+    }
+    if (maxFindings < 0) {
+      throw new IllegalArgumentException("Invalid maximum findings " + maxFindings);
+    }
+    this.threshold = threshold;
+    this.maxFindings = maxFindings;
+  }
+
+  /**
+   * @param listener - called with each finding, as its transaction or request
+   * ends
+   */
+  public void setListener(Consumer<Finding> listener) {
+    this.listener = listener;
+  }
+
+  public Consumer<Finding> getListener() {
+    return listener;
+  }
+
+  public int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Starts counting the executions of every transaction this thread runs
+   * with this hook, until endRequest. Should be paired with endRequest in a
+   * finally block
+   * @param name - identifies the request in findings
+   */
+  public void beginRequest(String name) {
+    if (request.get() != null) {
+      throw new NormTransactionException("A request is already being tracked on this thread");
+    }
+    request.set(new Scope(name, null));
+  }
+
+  /**
+   * Stops counting this thread's request, reporting its findings
+   * @return the request's findings
+   */
+  public List<Finding> endRequest() {
+    Scope scope = request.get();
+    if (scope == null) {
+      return Collections.emptyList();
+    }
+    request.remove();
+    return report(scope);
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+    NormContext<?, ?> outer = NormContext.current();
+    Scope enclosing = outer == null ? null : transactions.get(outer);
+    transactions.put(context, enclosing != null ? enclosing : new Scope(transactionName(context), context));
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+    Scope scope = transactions.remove(context);
+    if (scope != null && scope.owner == context) {
+      report(scope);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+    Scope transaction = transactions.get(context);
+    Scope current = request.get();
+    if (transaction == null && current == null) {
+      return;
+    }
+    NormFingerprint fingerprint = context.getFingerprint();
+    if (fingerprint == null) {
+      return;
+    }
+    if (transaction != null) {
+      transaction.count(fingerprint, context);
+    }
+    if (current != null) {
+      current.count(fingerprint, context);
+    }
+  }
+
+  private static String transactionName(NormContext<?, ?> context) {
+    NormTransaction<?, ?> transaction = context.getTransaction();
+    if (transaction == null) {
+      return "unknown";
+    }
+    return transaction.getName() != null ? transaction.getName() : NormMetrics.UNNAMED;
+  }
+
+  private List<Finding> report(Scope scope) {
+    if (scope.flagged == null) {
+      return Collections.emptyList();
+    }
+    List<Finding> reported = new ArrayList<>(scope.flagged.size());
+    Consumer<Finding> sink = listener;
+    for (Count count : scope.flagged) {
+      Finding finding = new Finding(scope.name, count);
+      reported.add(finding);
+      if (maxFindings > 0) {
+        synchronized (findings) {
+          if (findings.size() == maxFindings) {
+            findings.removeFirst();
+          }
+          findings.addLast(finding);
+        }
+      }
+      if (sink != null) {
+        sink.accept(finding);
+      }
+    }
+    return reported;
+  }
+
+  /**
+   * @return the latest findings, oldest first
+   */
+  public List<Finding> getFindings() {
+    synchronized (findings) {
+      return new ArrayList<>(findings);
+    }
+  }
+
+  public void clear() {
+    synchronized (findings) {
+      findings.clear();
+    }
+  }
+
+  /**
+   * @return the first frame outside this library, where the repeated
+   * executions come from
+   */
+  private static StackTraceElement callSite() {
+    for (StackTraceElement frame : new Throwable().getStackTrace()) {
+      String name = frame.getClassName();
+      if (!name.startsWith(INTERNAL) && !name.startsWith("java.") && !name.startsWith("sun.") && !name.startsWith("jdk.")) {
+        return frame;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The counts of a transaction or request, only touched by the thread
+   * running it
+   */
+  private final class Scope {
+
+    private final String name;
+
+    private final NormContext<?, ?> owner;
+
+    private final Map<NormFingerprint, Count> counts = new HashMap<>();
+
+    private List<Count> flagged;
+
+    private Scope(String name, NormContext<?, ?> owner) {
+      this.name = name;
+      this.owner = owner;
+    }
+
+    private void count(NormFingerprint fingerprint, NormContext<?, ?> context) {
+      Count count = counts.get(fingerprint);
+      if (count == null) {
+        count = new Count(fingerprint);
+        counts.put(fingerprint, count);
+      }
+      int executions = ++count.executions;
+      if (executions <= SAMPLES && context.getParameters() != null) {
+        count.samples.add(Collections.unmodifiableList(NormQueryCache.parameters(context.getParameters())));
+      }
+      if (executions == threshold) {
+        count.callSite = callSite();
+        if (flagged == null) {
+          flagged = new ArrayList<>();
+        }
+        flagged.add(count);
+      }
+    }
+
+  }
+
+  private static final class Count {
+
+    private final NormFingerprint fingerprint;
+
+    private final List<List<Object>> samples = new ArrayList<>(SAMPLES);
+
+    private int executions;
+
+    private StackTraceElement callSite;
+
+    private Count(NormFingerprint fingerprint) {
+      this.fingerprint = fingerprint;
+    }
+
+  }
+
+  /**
+   * A statement shape executed at least the threshold number of times within
+   * a transaction or request
+   */
+  public static final class Finding {
+
+    private final String scope;
+
+    private final NormFingerprint fingerprint;
+
+    private final int executions;
+
+    private final StackTraceElement callSite;
+
+    private final List<List<Object>> sampleParameters;
+
+    private Finding(String scope, Count count) {
+      this.scope = scope;
+      this.fingerprint = count.fingerprint;
+      this.executions = count.executions;
+      this.callSite = count.callSite;
+      this.sampleParameters = Collections.unmodifiableList(count.samples);
+    }
+
+    /**
+     * @return the name of the transaction or request
+     */
+    public String getScope() {
+      return scope;
+    }
+
+    public NormFingerprint getFingerprint() {
+      return fingerprint;
+    }
+
+    /**
+     * @return how many times the shape ran in the whole transaction or
+     * request
+     */
+    public int getExecutions() {
+      return executions;
+    }
+
+    /**
+     * @return where the shape ran from when it reached the threshold, or
+     * null if unknown
+     */
+    public StackTraceElement getCallSite() {
+      return callSite;
+    }
+
+    /**
+     * @return the parameters of the shape's first executions
+     */
+    public List<List<Object>> getSampleParameters() {
+      return sampleParameters;
+    }
+
+    @Override
+    public String toString() {
+      return fingerprint + " ran " + executions + " times in " + scope + " from " + callSite + " with parameters " + sampleParameters;
+    }
+
+  }
+
+}
@@ -1,25 +1,112 @@
 package org.irenical.norm.transaction;
 
+import java.sql.PreparedStatement;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 
+import org.irenical.norm.transaction.error.NormTransactionException;
+
 public abstract class NormOperation<INPUT, OUTPUT> {
 
   protected Function<NormContext<INPUT, OUTPUT>, String> queryBuilder;
 
   protected Function<NormContext<INPUT, OUTPUT>, Iterable<Object>> parametersBuilder;
 
+  protected NormParameterBinder<INPUT, OUTPUT> parameterBinder;
+
   protected NormOutputReader<INPUT, OUTPUT> outputReader;
 
   protected Function<NormContext<INPUT, OUTPUT>, Boolean> condition;
 
+  protected Set<String> tables;
+
+  protected long timeoutNanos;
+
+  protected String name;
+
+  protected List<String> dependencies = Collections.emptyList();
+
+  private volatile boolean frozen;
+
   abstract OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException;
 
+  /**
+   * Called when a transaction holding this operation is frozen
+   */
+  void freeze() {
+    frozen = true;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  protected void checkNotFrozen() {
+    if (frozen) {
+      throw new NormTransactionException("This operation belongs to a frozen transaction and can no longer be changed");
+    }
+  }
+
+  /**
+   * The parameters to bind, from the parameters builder, unless there is a
+   * parameter binder
+   */
+  Iterable<Object> buildParameters(NormContext<INPUT, OUTPUT> context) {
+    Iterable<Object> parameters = parameterBinder != null || parametersBuilder == null ? null : parametersBuilder.apply(context);
+    context.setParameters(parameters);
+    return parameters;
+  }
+
+  void bindParameters(NormContext<INPUT, OUTPUT> context, PreparedStatement statement) throws SQLException {
+    if (parameterBinder != null) {
+      parameterBinder.bind(context, statement);
+    }
+  }
+
+  /**
+   * Reports the tables this operation writes to the transaction's query
+   * cache, if any. Unless declared, they are detected from the query
+   */
+  void tablesWritten(NormContext<INPUT, OUTPUT> context, String query) {
+    NormQueryCache queryCache = context.getQueryCache();
+    if (queryCache != null) {
+      context.tablesWritten(queryCache, tables != null ? tables : detectTablesWritten(queryCache, query));
+    }
+  }
+
+  /**
+   * @return the tables the query writes to, or null if unknown
+   */
+  Set<String> detectTablesWritten(NormQueryCache queryCache, String query) {
+    return query == null ? null : queryCache.tablesWritten(query);
+  }
+
   public void setParametersBuilder(Function<NormContext<INPUT, OUTPUT>, Iterable<Object>> parametersBuilder) {
+    checkNotFrozen();
     this.parametersBuilder = parametersBuilder;
   }
 
+  /**
+   * @param parameterBinder - binds parameters directly into the statement,
+   * replacing the parameters builder
+   */
+  public void setParameterBinder(NormParameterBinder<INPUT, OUTPUT> parameterBinder) {
+    checkNotFrozen();
+    this.parameterBinder = parameterBinder;
+  }
+
+  public NormParameterBinder<INPUT, OUTPUT> getParameterBinder() {
+    return parameterBinder;
+  }
+
   public void setQueryBuilder(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder) {
+    checkNotFrozen();
     this.queryBuilder = queryBuilder;
   }
 
@@ -32,6 +119,7 @@ public abstract class NormOperation<INPUT, OUTPUT> {
   }
 
   public void setOutputReader(NormOutputReader<INPUT, OUTPUT> outputReader) {
+    checkNotFrozen();
     this.outputReader = outputReader;
   }
 
@@ -40,6 +128,7 @@ public abstract class NormOperation<INPUT, OUTPUT> {
   }
 
   public void setCondition(Function<NormContext<INPUT, OUTPUT>, Boolean> condition) {
+    checkNotFrozen();
     this.condition = condition;
   }
 
@@ -47,4 +136,72 @@ public abstract class NormOperation<INPUT, OUTPUT> {
     return condition;
   }
 
+  /**
+   * @param tables - the tables this operation reads, for cached selects, or
+   * writes, for other operations. Replaces detection from the query, for a
+   * query cache's invalidation
+   */
+  public void setTables(String... tables) {
+    checkNotFrozen();
+    if (tables == null || tables.length == 0) {
+      this.tables = null;
+    } else {
+      Set<String> names = new LinkedHashSet<>();
+      for (String table : tables) {
+        names.add(NormSql.tableName(table));
+      }
+      this.tables = Collections.unmodifiableSet(names);
+    }
+  }
+
+  public Set<String> getTables() {
+    return tables;
+  }
+
+  /**
+   * @param timeout - how long this operation's statement may run, applied
+   * with Statement.setQueryTimeout and enforced by cancelling the statement;
+   * zero for no timeout other than the transaction's
+   * @param unit - the timeout's unit
+   */
+  public void setTimeout(long timeout, TimeUnit unit) {
+    checkNotFrozen();
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid operation timeout " + timeout);
+    }
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param name - names this operation's output, which later operations read
+   * with NormContext.getOutput, and parallel operations depend on
+   */
+  public void setName(String name) {
+    checkNotFrozen();
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param dependencies - the names of the operations, appended before this
+   * one, whose outputs this one needs. In a parallel transaction, this
+   * operation only starts once they are done, and operations without
+   * dependencies start right away
+   */
+  public void setDependencies(String... dependencies) {
+    checkNotFrozen();
+    this.dependencies = dependencies == null ? Collections.emptyList() : Collections.unmodifiableList(Arrays.asList(dependencies.clone()));
+  }
+
+  public List<String> getDependencies() {
+    return dependencies;
+  }
+
 }
@@ -1,5 +1,6 @@
 package org.irenical.norm.transaction;
 
+import java.sql.SQLException;
 import java.util.function.Function;
 
 public class NormOperationAdapter<INPUT, OUTPUT, OP_INPUT, OP_OUTPUT> {
@@ -14,11 +15,42 @@ public class NormOperationAdapter<INPUT, OUTPUT, OP_INPUT, OP_OUTPUT> {
     this.operation=operation;
   }
 
+  protected NormOperationAdapter(NormOperation<OP_INPUT, OP_OUTPUT> operation, Function<INPUT, OP_INPUT> inputAdapter, Function<OUTPUT, OP_OUTPUT> outputAdapter) {
+    this.operation = operation;
+    this.inputAdapter = inputAdapter;
+    this.outputAdapter = outputAdapter;
+  }
+
+  /**
+   * The transaction's context, seen as the operation's context. The context
+   * applies the input adapter on getInput, so only the type differs
+   */
+  @SuppressWarnings("unchecked")
+  private NormContext<OP_INPUT, OP_OUTPUT> operationContext(NormContext<INPUT, OUTPUT> context) {
+    return (NormContext<OP_INPUT, OP_OUTPUT>) (NormContext<?, ?>) context;
+  }
+
+  boolean accepts(NormContext<INPUT, OUTPUT> context) {
+    Function<NormContext<OP_INPUT, OP_OUTPUT>, Boolean> condition = operation.condition;
+    return condition == null || condition.apply(operationContext(context));
+  }
+
+  @SuppressWarnings("unchecked")
+  OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
+    Object got = operation.execute(operationContext(context));
+    if (outputAdapter != null) {
+      got = outputAdapter.apply((OUTPUT) got);
+    }
+    return (OUTPUT) got;
+  }
+
   public void setInputAdapter(Function<INPUT, OP_INPUT> inputAdapter) {
+    operation.checkNotFrozen();
     this.inputAdapter = inputAdapter;
   }
 
   public void setOutputAdapter(Function<OUTPUT, OP_OUTPUT> outputAdapter) {
+    operation.checkNotFrozen();
     this.outputAdapter = outputAdapter;
   }
 
@@ -0,0 +1,16 @@
+package org.irenical.norm.transaction;
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+/**
+ * Binds an operation's parameters straight into its statement, with the typed
+ * setters (setInt, setLong, setString...), instead of building an Iterable of
+ * boxed values. For callables, the statement is a CallableStatement
+ */
+@FunctionalInterface
+public interface NormParameterBinder<INPUT, OUTPUT> {
+
+  void bind(NormContext<INPUT, OUTPUT> context, PreparedStatement statement) throws SQLException;
+
+}
@@ -0,0 +1,28 @@
+package org.irenical.norm.transaction;
+
+/**
+ * How a transaction executed while another one is running on the same thread,
+ * for instance from an output reader, relates to it. Joining only happens when
+ * both transactions use the same connection supplier
+ */
+public enum NormPropagation {
+
+  /**
+   * Joins the enclosing transaction, running on its connection and
+   * committing or rolling back with it
+   */
+  REQUIRED,
+
+  /**
+   * Joins the enclosing transaction within a savepoint, so a failure rolls
+   * back this execution's work alone. The enclosing transaction must not be
+   * in auto-commit mode
+   */
+  NESTED,
+
+  /**
+   * Always runs on a connection of its own, committing on its own
+   */
+  REQUIRES_NEW
+
+}
@@ -0,0 +1,468 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.Array;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in cache of select results, shared by every transaction it is set on.
+ * Entries are keyed by SQL text and parameters and hold the select's mapped
+ * output, so a hit skips statement preparation, execution and mapping.
+ * <p>
+ * The cache is bounded by entry count and by the estimated size of keys and
+ * outputs, evicting in LRU or LFU order, and entries may expire after a time
+ * to live. Inserts, updates, deletes, batches and calls of transactions using
+ * the cache invalidate the entries reading the tables they write to, both
+ * while they run and once their transaction ends. Tables are detected from
+ * the SQL unless declared on the operation; calls without declared tables
+ * invalidate everything. Writes from elsewhere, or to tables behind views,
+ * can be reported through invalidate.
+ * <p>
+ * Cached outputs are shared between executions, so they should be immutable
+ * and depend on the result set alone.
+ * <p>
+ * Lookups take no lock: entries live in a ConcurrentHashMap and record their
+ * own last access and use count. Stores, invalidations and evictions are
+ * serialized; finding the entry to evict scans the cache, a cost only paid
+ * by misses that fill a full cache. Array parameters, such as byte[], are
+ * compared by content.
+ */
+public class NormQueryCache {
+
+  public enum Eviction {
+    LRU, LFU
+  }
+
+  public static final int DEFAULT_MAX_ENTRIES = 1024;
+
+  public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+  static final Object MISS = new Object();
+
+  private static final int MAX_PARSED_QUERIES = 4096;
+
+  private final int maxEntries;
+
+  private final long maxBytes;
+
+  private final long ttlNanos;
+
+  private final Eviction eviction;
+
+  private final ConcurrentHashMap<Key, Entry> entries = new ConcurrentHashMap<>();
+
+  private final Map<String, Set<Key>> readers = new HashMap<>();
+
+  private final Map<String, Long> invalidatedAt = new ConcurrentHashMap<>();
+
+  private final Map<String, Set<String>> readTables = new ConcurrentHashMap<>();
+
+  private final Map<String, Set<String>> writtenTables = new ConcurrentHashMap<>();
+
+  private final AtomicLong clock = new AtomicLong();
+
+  private volatile long allInvalidatedAt;
+
+  private volatile long bytes;
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  private final LongAdder expirations = new LongAdder();
+
+  private final LongAdder invalidations = new LongAdder();
+
+  public NormQueryCache() {
+    this(DEFAULT_MAX_ENTRIES, DEFAULT_MAX_BYTES, 0, TimeUnit.MILLISECONDS, Eviction.LRU);
+  }
+
+  /**
+   * @param maxEntries - the maximum number of cached results
+   * @param maxBytes - the maximum estimated size of cached keys and results
+   * @param ttl - how long a result may be served, or 0 to keep it until
+   * evicted or invalidated
+   * @param unit - the time to live's unit
+   * @param eviction - which entries go first when the cache is full
+   */
+  public NormQueryCache(int maxEntries, long maxBytes, long ttl, TimeUnit unit, Eviction eviction) {
+    if (maxEntries < 1) {
+      throw new IllegalArgumentException("Invalid query cache size " + maxEntries);
+    }
+    if (maxBytes < 1) {
+      throw new IllegalArgumentException("Invalid query cache byte limit " + maxBytes);
+    }
+    if (ttl < 0) {
+      throw new IllegalArgumentException("Invalid query cache time to live " + ttl);
+    }
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+    this.ttlNanos = unit.toNanos(ttl);
+    this.eviction = eviction == null ? Eviction.LRU : eviction;
+  }
+
+  /**
+   * @return the cached output, possibly null, or MISS
+   */
+  Object get(String query, List<Object> parameters) {
+    Key key = new Key(query, parameters);
+    Entry entry = entries.get(key);
+    if (entry == null) {
+      misses.increment();
+      return MISS;
+    }
+    long now = System.nanoTime();
+    if (ttlNanos != 0 && entry.expiresAt - now < 0) {
+      synchronized (this) {
+        if (entries.get(key) == entry) {
+          remove(key);
+          expirations.increment();
+        }
+      }
+      misses.increment();
+      return MISS;
+    }
+    entry.accessedAt = now;
+    if (eviction == Eviction.LFU) {
+      entry.frequency.incrementAndGet();
+    }
+    hits.increment();
+    return entry.value;
+  }
+
+  /**
+   * @return a ticket to present when storing a result read from now on
+   */
+  long begin() {
+    return clock.get();
+  }
+
+  /**
+   * Stores a result, unless one of its tables was invalidated since the
+   * ticket was taken, as the result could then be stale
+   */
+  synchronized void put(String query, List<Object> parameters, Set<String> tables, Object value, long ticket) {
+    if (allInvalidatedAt > ticket) {
+      return;
+    }
+    for (String table : tables) {
+      Long invalidated = invalidatedAt.get(table);
+      if (invalidated != null && invalidated > ticket) {
+        return;
+      }
+    }
+    Key key = new Key(query, parameters);
+    long size = 64 + estimate(query, 0) + estimate(parameters, 0) + estimate(value, 0);
+    if (size > maxBytes) {
+      return;
+    }
+    remove(key);
+    Entry entry = new Entry(value, tables, size, System.nanoTime(), ttlNanos);
+    entries.put(key, entry);
+    bytes += size;
+    for (String table : tables) {
+      readers.computeIfAbsent(table, t -> new HashSet<>()).add(key);
+    }
+    while (entries.size() > maxEntries || bytes > maxBytes) {
+      remove(victim(key));
+      evictions.increment();
+    }
+  }
+
+  /**
+   * The least recently used key or, for LFU, the least frequently used one,
+   * least recently used first. The newcomer is spared, as it would otherwise
+   * always be the least frequent
+   */
+  private Key victim(Key newcomer) {
+    Key victim = newcomer;
+    Entry chosen = null;
+    for (Map.Entry<Key, Entry> candidate : entries.entrySet()) {
+      Entry entry = candidate.getValue();
+      if (candidate.getKey().equals(newcomer)) {
+        continue;
+      }
+      if (chosen == null || before(entry, chosen)) {
+        victim = candidate.getKey();
+        chosen = entry;
+      }
+    }
+    return victim;
+  }
+
+  private boolean before(Entry entry, Entry other) {
+    if (eviction == Eviction.LFU) {
+      long frequency = entry.frequency.get();
+      long otherFrequency = other.frequency.get();
+      if (frequency != otherFrequency) {
+        return frequency < otherFrequency;
+      }
+    }
+    return entry.accessedAt - other.accessedAt < 0;
+  }
+
+  private void remove(Key key) {
+    Entry entry = entries.remove(key);
+    if (entry == null) {
+      return;
+    }
+    bytes -= entry.bytes;
+    for (String table : entry.tables) {
+      Set<Key> keys = readers.get(table);
+      if (keys != null) {
+        keys.remove(key);
+        if (keys.isEmpty()) {
+          readers.remove(table);
+        }
+      }
+    }
+  }
+
+  /**
+   * Drops every result reading any of the given tables
+   * @param tables - the tables written to, case insensitive, without schema
+   */
+  public void invalidate(String... tables) {
+    Set<String> names = new HashSet<>();
+    for (String table : tables) {
+      names.add(NormSql.tableName(table));
+    }
+    invalidate(names);
+  }
+
+  synchronized void invalidate(Collection<String> tables) {
+    long now = clock.incrementAndGet();
+    for (String table : tables) {
+      invalidatedAt.put(table, now);
+      Set<Key> keys = readers.get(table);
+      if (keys != null) {
+        for (Key key : new ArrayList<>(keys)) {
+          remove(key);
+          invalidations.increment();
+        }
+      }
+    }
+  }
+
+  public synchronized void invalidateAll() {
+    allInvalidatedAt = clock.incrementAndGet();
+    invalidations.add(entries.size());
+    entries.clear();
+    readers.clear();
+    bytes = 0;
+  }
+
+  /**
+   * The tables a select may read: every identifier in its SQL
+   */
+  Set<String> tablesRead(String query) {
+    return parsed(readTables, query, true);
+  }
+
+  /**
+   * The tables a write targets: those after INTO, UPDATE, FROM and the like
+   */
+  Set<String> tablesWritten(String query) {
+    return parsed(writtenTables, query, false);
+  }
+
+  /**
+   * Parses each statement shape once, literals not naming tables
+   */
+  private static Set<String> parsed(Map<String, Set<String>> parsed, String query, boolean read) {
+    String shape = NormFingerprint.of(query).getShape();
+    Set<String> tables = parsed.get(shape);
+    if (tables == null) {
+      tables = read ? NormSql.identifiers(shape) : NormSql.targets(shape);
+      if (parsed.size() >= MAX_PARSED_QUERIES) {
+        parsed.clear();
+      }
+      parsed.put(shape, tables);
+    }
+    return tables;
+  }
+
+  /**
+   * A copy of the parameters, to use both as key and as statement input
+   */
+  static List<Object> parameters(Iterable<Object> parameters) {
+    if (parameters == null) {
+      return Collections.emptyList();
+    }
+    List<Object> copy = new ArrayList<>();
+    for (Object parameter : parameters) {
+      copy.add(parameter);
+    }
+    return copy;
+  }
+
+  /**
+   * A rough estimate of an object's retained size, walking collections, maps
+   * and arrays a few levels deep
+   */
+  static long estimate(Object value, int depth) {
+    if (value == null) {
+      return 0;
+    }
+    if (value instanceof CharSequence) {
+      return 40 + 2L * ((CharSequence) value).length();
+    }
+    if (value instanceof Number || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+      return 16;
+    }
+    if (value instanceof byte[]) {
+      return 16 + ((byte[]) value).length;
+    }
+    if (depth > 4) {
+      return 64;
+    }
+    if (value instanceof Collection) {
+      long size = 40;
+      for (Object element : (Collection<?>) value) {
+        size += 8 + estimate(element, depth + 1);
+      }
+      return size;
+    }
+    if (value instanceof Map) {
+      long size = 48;
+      for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+        size += 32 + estimate(entry.getKey(), depth + 1) + estimate(entry.getValue(), depth + 1);
+      }
+      return size;
+    }
+    if (value.getClass().isArray()) {
+      int length = Array.getLength(value);
+      if (value.getClass().getComponentType().isPrimitive()) {
+        return 16 + 8L * length;
+      }
+      long size = 16;
+      for (int i = 0; i < length; i++) {
+        size += 8 + estimate(Array.get(value, i), depth + 1);
+      }
+      return size;
+    }
+    return 64;
+  }
+
+  public int size() {
+    return entries.size();
+  }
+
+  public long getEstimatedBytes() {
+    return bytes;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    readers.clear();
+    bytes = 0;
+  }
+
+  public int getMaxEntries() {
+    return maxEntries;
+  }
+
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+
+  public long getTimeToLive(TimeUnit unit) {
+    return unit.convert(ttlNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public Eviction getEviction() {
+    return eviction;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  /**
+   * @return how many results were dropped to respect the size limits
+   */
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  public long getExpirations() {
+    return expirations.sum();
+  }
+
+  public long getInvalidations() {
+    return invalidations.sum();
+  }
+
+  private static final class Key {
+
+    private final String query;
+
+    private final Object[] parameters;
+
+    private final int hash;
+
+    private Key(String query, List<Object> parameters) {
+      this.query = query;
+      // arrays, like byte[] parameters, compare by content
+      this.parameters = parameters.toArray();
+      this.hash = 31 * query.hashCode() + Arrays.deepHashCode(this.parameters);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash && query.equals(other.query) && Arrays.deepEquals(parameters, other.parameters);
+    }
+
+  }
+
+  private static final class Entry {
+
+    private final Object value;
+
+    private final Set<String> tables;
+
+    private final long bytes;
+
+    private final long expiresAt;
+
+    private final AtomicLong frequency = new AtomicLong(1);
+
+    private volatile long accessedAt;
+
+    private Entry(Object value, Set<String> tables, long bytes, long now, long ttlNanos) {
+      this.value = value;
+      this.tables = tables;
+      this.bytes = bytes;
+      this.expiresAt = now + ttlNanos;
+      this.accessedAt = now;
+    }
+
+  }
+
+}
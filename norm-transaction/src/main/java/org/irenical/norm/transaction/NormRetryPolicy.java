@@ -0,0 +1,198 @@
+package org.irenical.norm.transaction;
+
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Decides which failed executions of a transaction are retried, and how long
+ * to wait before each retry. An execution is retried when it failed with an
+ * SQLException whose SQLState, or that of any exception chained to it, is
+ * retryable, and the retry budget is not spent. The whole transaction is
+ * rolled back and executed again, with a fresh context, after a capped
+ * exponential backoff with jitter.
+ * <p>
+ * A policy can be shared by many transactions; its counters then add up the
+ * retries of all of them.
+ */
+public class NormRetryPolicy {
+
+  public static final String SERIALIZATION_FAILURE = "40001";
+
+  public static final String DEADLOCK_DETECTED = "40P01";
+
+  public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 10;
+
+  public static final long DEFAULT_MAX_BACKOFF_MILLIS = 1000;
+
+  private final int maxRetries;
+
+  private volatile Set<String> retryableStates = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(SERIALIZATION_FAILURE, DEADLOCK_DETECTED)));
+
+  private volatile long initialBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_INITIAL_BACKOFF_MILLIS);
+
+  private volatile long maxBackoffNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_MAX_BACKOFF_MILLIS);
+
+  private final LongAdder retries = new LongAdder();
+
+  private final LongAdder recovered = new LongAdder();
+
+  private final LongAdder exhausted = new LongAdder();
+
+  private final ConcurrentHashMap<String, LongAdder> retriesByState = new ConcurrentHashMap<>();
+
+  /**
+   * @param maxRetries - how many times an execution may be retried
+   */
+  public NormRetryPolicy(int maxRetries) {
+    if (maxRetries < 0) {
+      throw new IllegalArgumentException("Invalid retry count " + maxRetries);
+    }
+    this.maxRetries = maxRetries;
+  }
+
+  /**
+   * @param states - the SQLStates worth retrying, replacing the default
+   * serialization failure and deadlock states
+   */
+  public void setRetryableStates(String... states) {
+    this.retryableStates = Collections.unmodifiableSet(new LinkedHashSet<>(Arrays.asList(states)));
+  }
+
+  public Set<String> getRetryableStates() {
+    return retryableStates;
+  }
+
+  /**
+   * @param initial - the backoff before the first retry, doubled on each one
+   * @param max - the longest backoff
+   * @param unit - the backoffs' unit
+   */
+  public void setBackoff(long initial, long max, TimeUnit unit) {
+    if (initial < 0 || max < initial) {
+      throw new IllegalArgumentException("Invalid backoff from " + initial + " to " + max);
+    }
+    this.initialBackoffNanos = unit.toNanos(initial);
+    this.maxBackoffNanos = unit.toNanos(max);
+  }
+
+  public long getInitialBackoff(TimeUnit unit) {
+    return unit.convert(initialBackoffNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public long getMaxBackoff(TimeUnit unit) {
+    return unit.convert(maxBackoffNanos, TimeUnit.NANOSECONDS);
+  }
+
+  public int getMaxRetries() {
+    return maxRetries;
+  }
+
+  public boolean isRetryable(SQLException exception) {
+    return retryableState(exception) != null;
+  }
+
+  /**
+   * @return the first retryable SQLState found in the exception, its causes
+   * or its chained exceptions, or null if there is none
+   */
+  String retryableState(SQLException exception) {
+    Set<String> states = retryableStates;
+    Set<Throwable> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<Throwable> pending = new ArrayDeque<>();
+    pending.add(exception);
+    while (!pending.isEmpty()) {
+      Throwable current = pending.poll();
+      if (current == null || !seen.add(current)) {
+        continue;
+      }
+      if (current instanceof SQLException) {
+        SQLException sqlException = (SQLException) current;
+        String state = sqlException.getSQLState();
+        if (state != null && states.contains(state)) {
+          return state;
+        }
+        if (sqlException.getNextException() != null) {
+          pending.add(sqlException.getNextException());
+        }
+      }
+      if (current.getCause() != null) {
+        pending.add(current.getCause());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * @param retry - the retry about to happen, starting at 1
+   * @return how long to wait before it, in nanoseconds: half the capped
+   * exponential backoff, plus a random share of the other half
+   */
+  long backoff(int retry) {
+    long ceiling = initialBackoffNanos;
+    for (int i = 1; i < retry && ceiling < maxBackoffNanos; i++) {
+      ceiling *= 2;
+    }
+    ceiling = Math.min(ceiling, maxBackoffNanos);
+    long half = ceiling / 2;
+    return half + (ceiling - half > 0 ? ThreadLocalRandom.current().nextLong(ceiling - half + 1) : 0);
+  }
+
+  void retried(String state) {
+    retries.increment();
+    retriesByState.computeIfAbsent(state, s -> new LongAdder()).increment();
+  }
+
+  void recovered() {
+    recovered.increment();
+  }
+
+  void exhausted() {
+    exhausted.increment();
+  }
+
+  /**
+   * @return how many times executions were retried
+   */
+  public long getRetries() {
+    return retries.sum();
+  }
+
+  /**
+   * @return how many executions succeeded after being retried
+   */
+  public long getRecovered() {
+    return recovered.sum();
+  }
+
+  /**
+   * @return how many executions failed with a retryable exception after
+   * spending their retries, or running out of time for another one
+   */
+  public long getExhausted() {
+    return exhausted.sum();
+  }
+
+  /**
+   * @return the retry count of each SQLState that caused retries
+   */
+  public Map<String, Long> getRetriesBySqlState() {
+    Map<String, Long> counts = new TreeMap<>();
+    for (Map.Entry<String, LongAdder> entry : retriesByState.entrySet()) {
+      counts.put(entry.getKey(), entry.getValue().sum());
+    }
+    return counts;
+  }
+
+}
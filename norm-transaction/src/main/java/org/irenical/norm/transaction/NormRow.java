@@ -0,0 +1,99 @@
+package org.irenical.norm.transaction;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A read-only result row: the values in column order, plus the schema shared
+ * with the other rows of the same result set. Also usable as a column name to
+ * value map, holding the first column of each name
+ */
+public final class NormRow extends AbstractMap<String, Object> {
+
+  private final NormRowSchema schema;
+
+  private final Object[] values;
+
+  public NormRow(NormRowSchema schema, Object[] values) {
+    this.schema = schema;
+    this.values = values;
+  }
+
+  public NormRowSchema getSchema() {
+    return schema;
+  }
+
+  /**
+   * @param index - the column index, starting at 0
+   * @return the column value
+   */
+  public Object get(int index) {
+    return values[index];
+  }
+
+  public long getLong(int index) {
+    Object value = values[index];
+    return value instanceof Number ? ((Number) value).longValue() : Long.parseLong(value.toString());
+  }
+
+  public int getInt(int index) {
+    Object value = values[index];
+    return value instanceof Number ? ((Number) value).intValue() : Integer.parseInt(value.toString());
+  }
+
+  @Override
+  public Object get(Object column) {
+    int index = column instanceof String ? schema.indexOf((String) column) : -1;
+    return index < 0 ? null : values[index];
+  }
+
+  @Override
+  public boolean containsKey(Object column) {
+    return column instanceof String && schema.indexOf((String) column) >= 0;
+  }
+
+  @Override
+  public int size() {
+    return schema.named().length;
+  }
+
+  @Override
+  public Set<Entry<String, Object>> entrySet() {
+    int[] named = schema.named();
+    return new AbstractSet<Entry<String, Object>>() {
+
+      @Override
+      public Iterator<Entry<String, Object>> iterator() {
+        return new Iterator<Entry<String, Object>>() {
+
+          private int next;
+
+          @Override
+          public boolean hasNext() {
+            return next < named.length;
+          }
+
+          @Override
+          public Entry<String, Object> next() {
+            if (next >= named.length) {
+              throw new NoSuchElementException();
+            }
+            int index = named[next++];
+            return new SimpleImmutableEntry<>(schema.getColumn(index), values[index]);
+          }
+
+        };
+      }
+
+      @Override
+      public int size() {
+        return named.length;
+      }
+
+    };
+  }
+
+}
@@ -0,0 +1,14 @@
+package org.irenical.norm.transaction;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Reads the current row of a result set, without moving its cursor
+ */
+@FunctionalInterface
+public interface NormRowReader<ROW> {
+
+  ROW read(ResultSet resultSet) throws SQLException;
+
+}
@@ -0,0 +1,88 @@
+package org.irenical.norm.transaction;
+
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The column names of a result set, resolved once and shared by all its rows.
+ * When names repeat, as when a join selects two ID columns, a name refers to
+ * its first column: later ones are only reachable by index, and are left out
+ * of the map view of rows.
+ */
+public final class NormRowSchema {
+
+  private final String[] columns;
+
+  private final Map<String, Integer> indexes;
+
+  private final int[] named;
+
+  public NormRowSchema(String... columns) {
+    this.columns = columns.clone();
+    this.indexes = new HashMap<>(columns.length * 2);
+    int[] named = new int[columns.length];
+    int count = 0;
+    for (int i = 0; i < columns.length; i++) {
+      if (indexes.putIfAbsent(columns[i], i) == null) {
+        named[count++] = i;
+      }
+    }
+    this.named = count == columns.length ? named : Arrays.copyOf(named, count);
+  }
+
+  public static NormRowSchema of(ResultSetMetaData metadata) throws SQLException {
+    String[] columns = new String[metadata.getColumnCount()];
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = metadata.getColumnLabel(i + 1);
+    }
+    return new NormRowSchema(columns);
+  }
+
+  public int size() {
+    return columns.length;
+  }
+
+  /**
+   * @param index - the column index, starting at 0
+   * @return the column name
+   */
+  public String getColumn(int index) {
+    return columns[index];
+  }
+
+  /**
+   * @return the indexes of the first column with each name, in column order
+   */
+  int[] named() {
+    return named;
+  }
+
+  public List<String> getColumns() {
+    return Collections.unmodifiableList(Arrays.asList(columns));
+  }
+
+  /**
+   * Finds a column by name, ignoring case if there is no exact match, like
+   * ResultSet does
+   * @param column - the column name
+   * @return the column index, starting at 0, or -1 if there is no such column
+   */
+  public int indexOf(String column) {
+    Integer index = indexes.get(column);
+    if (index != null) {
+      return index;
+    }
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i].equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+}
@@ -0,0 +1,70 @@
+package org.irenical.norm.transaction;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * An array backed, read-only list of rows
+ */
+public final class NormRows extends AbstractList<NormRow> implements RandomAccess {
+
+  private static final NormRow[] EMPTY = new NormRow[0];
+
+  private NormRow[] rows = EMPTY;
+
+  private int size;
+
+  NormRows() {
+  }
+
+  /**
+   * Reads all remaining rows of a result set. Metadata is read once and
+   * values are read by index
+   * @param resultSet - the result set to read, left open
+   * @return the rows
+   * @throws SQLException if reading fails
+   */
+  public static NormRows read(ResultSet resultSet) throws SQLException {
+    NormRows rows = new NormRows();
+    rows.append(resultSet);
+    return rows;
+  }
+
+  void append(ResultSet resultSet) throws SQLException {
+    NormRowSchema schema = null;
+    while (resultSet.next()) {
+      if (schema == null) {
+        schema = NormRowSchema.of(resultSet.getMetaData());
+      }
+      Object[] values = new Object[schema.size()];
+      for (int i = 0; i < values.length; i++) {
+        values[i] = resultSet.getObject(i + 1);
+      }
+      addRow(new NormRow(schema, values));
+    }
+  }
+
+  private void addRow(NormRow row) {
+    if (size == rows.length) {
+      rows = Arrays.copyOf(rows, Math.max(4, size * 2));
+    }
+    rows[size++] = row;
+  }
+
+  @Override
+  public NormRow get(int index) {
+    if (index >= size) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+    }
+    return rows[index];
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+}
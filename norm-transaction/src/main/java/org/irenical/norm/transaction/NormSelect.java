@@ -3,30 +3,83 @@ package org.irenical.norm.transaction;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.List;
+import java.util.Set;
 
 import org.irenical.norm.transaction.error.NormTransactionException;
 
 public class NormSelect<INPUT, OUTPUT> extends NormOperation<INPUT, OUTPUT> {
 
+  private boolean cached;
+
   @Override
   OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
     if (queryBuilder == null) {
       throw new NormTransactionException("No query builder was provided for this select operation " + this);
     }
     String query = queryBuilder.apply(context);
+    context.setQuery(query);
     if (query == null || query.isEmpty()) {
       throw new NormTransactionException("A null or empty query was provided for this select operation " + this);
     }
-    try (PreparedStatement statement = JDBChops.prepareStatementForSelectOrUpdate(context.getConnection(), query, parametersBuilder == null ? null : parametersBuilder.apply(context))) {
+    NormQueryCache queryCache = cached && parameterBinder == null ? context.getQueryCache() : null;
+    if (queryCache == null) {
+      return select(context, query, buildParameters(context));
+    }
+    List<Object> parameters = NormQueryCache.parameters(buildParameters(context));
+    Set<String> tablesRead = tables != null ? tables : queryCache.tablesRead(query);
+    if (context.wroteAny(tablesRead)) {
+      // this transaction's uncommitted rows must not reach the cache
+      return select(context, query, parameters);
+    }
+    Object hit = queryCache.get(query, parameters);
+    if (hit != NormQueryCache.MISS) {
+      @SuppressWarnings("unchecked")
+      OUTPUT output = (OUTPUT) hit;
+      return output;
+    }
+    long ticket = queryCache.begin();
+    OUTPUT output = select(context, query, parameters);
+    queryCache.put(query, parameters, tablesRead, output, ticket);
+    return output;
+  }
+
+  private OUTPUT select(NormContext<INPUT, OUTPUT> context, String query, Iterable<Object> parameters) throws SQLException {
+    NormStatementCache cache = context.getStatementCache();
+    long mark = context.mark();
+    PreparedStatement statement = JDBChops.prepareStatementForSelectOrUpdate(cache, context.getConnection(), query, null);
+    try {
+      mark = context.timed(NormTimings.Phase.PREPARE, mark);
+      JDBChops.prepareInput(statement, parameters);
+      bindParameters(context, statement);
+      mark = context.timed(NormTimings.Phase.BIND, mark);
+      context.setActiveStatement(statement);
       try (ResultSet resultSet = statement.executeQuery()) {
+        context.timed(NormTimings.Phase.EXECUTE, mark);
         context.setPreparedStatement(statement);
         context.setResultSet(resultSet);
         if (outputReader != null) {
-          return outputReader.toOutput(context);
+          return context.read(outputReader);
         }
         return null;
       }
+    } finally {
+      JDBChops.close(cache, statement);
     }
   }
 
+  /**
+   * @param cached - whether this select's output is served from and stored
+   * in its transaction's query cache. Only selects whose output reader
+   * depends on the result set alone should be cached
+   */
+  public void setCached(boolean cached) {
+    checkNotFrozen();
+    this.cached = cached;
+  }
+
+  public boolean isCached() {
+    return cached;
+  }
+
 }
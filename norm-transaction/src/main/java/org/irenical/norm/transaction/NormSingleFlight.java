@@ -0,0 +1,177 @@
+package org.irenical.norm.transaction;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * Coalesces concurrent executions of the same read-only transaction with the
+ * same input and connection supplier: the first one runs, the others wait for
+ * it, without taking a connection, and receive its output or its exception.
+ * Transactions containing anything other than selects always run on their
+ * own. Shared outputs should be treated as immutable.
+ * <p>
+ * Executions are matched by transaction instance, connection supplier
+ * instance and equal input, not by the SQL they render or the parameters they
+ * bind, which are only known once a connection is held. Two executions match
+ * only when the transaction's builders produce the same statements for equal
+ * inputs; builders that read other state, such as the time or a tenant held
+ * outside the input, must not be used with single flight. Different
+ * transactions issuing the same SQL are never coalesced.
+ * <p>
+ * Waiting executions still honour their own deadline and cancellation. If the
+ * first execution fails because it was itself cancelled or ran out of time,
+ * the waiting ones run again instead of sharing that failure.
+ */
+public class NormSingleFlight {
+
+  @FunctionalInterface
+  interface Flight<T> {
+
+    T run() throws SQLException;
+
+  }
+
+  private final ConcurrentHashMap<Key, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+  private final LongAdder executions = new LongAdder();
+
+  private final LongAdder collapsed = new LongAdder();
+
+  <T> T execute(Object transaction, Object connectionSupplier, Object input, NormContext<?, ?> context, Flight<T> flight) throws SQLException {
+    Key key = new Key(transaction, connectionSupplier, input);
+    CompletableFuture<Object> mine = new CompletableFuture<>();
+    CompletableFuture<Object> running = inFlight.putIfAbsent(key, mine);
+    if (running != null) {
+      collapsed.increment();
+      return await(running, transaction, connectionSupplier, input, context, flight);
+    }
+    executions.increment();
+    try {
+      T result = flight.run();
+      mine.complete(result);
+      return result;
+    } catch (SQLException | RuntimeException | Error e) {
+      mine.completeExceptionally(abandoned(context) ? new Abandoned(e) : e);
+      throw e;
+    } finally {
+      inFlight.remove(key, mine);
+    }
+  }
+
+  /**
+   * @return whether the execution was cancelled or ran out of time, reasons
+   * of its own that executions waiting for it do not share
+   */
+  private static boolean abandoned(NormContext<?, ?> context) {
+    return context.isCancelled() || context.hasDeadline() && context.getRemaining(TimeUnit.NANOSECONDS) <= 0;
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T> T await(CompletableFuture<Object> running, Object transaction, Object connectionSupplier, Object input, NormContext<?, ?> context, Flight<T> flight) throws SQLException {
+    CompletableFuture<Object> waiting = new CompletableFuture<>();
+    running.whenComplete((result, e) -> {
+      if (e == null) {
+        waiting.complete(result);
+      } else {
+        waiting.completeExceptionally(e);
+      }
+    });
+    context.onCancel(() -> waiting.completeExceptionally(new SQLException("Transaction cancelled", "57014")));
+    try {
+      return (T) (context.hasDeadline() ? waiting.get(context.getRemaining(TimeUnit.NANOSECONDS), TimeUnit.NANOSECONDS) : waiting.get());
+    } catch (TimeoutException e) {
+      throw new SQLTimeoutException("Transaction deadline exceeded", "57014");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new NormTransactionException("Interrupted while waiting for an identical transaction", e);
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof Abandoned) {
+        context.onCancel(null);
+        return execute(transaction, connectionSupplier, input, context, flight);
+      }
+      if (cause instanceof SQLException) {
+        throw (SQLException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw (RuntimeException) cause;
+    } finally {
+      context.onCancel(null);
+    }
+  }
+
+  /**
+   * @return how many executions actually ran
+   */
+  public long getExecutions() {
+    return executions.sum();
+  }
+
+  /**
+   * @return how many executions waited for an identical one instead of
+   * running
+   */
+  public long getCollapsed() {
+    return collapsed.sum();
+  }
+
+  public int getInFlight() {
+    return inFlight.size();
+  }
+
+  /**
+   * The failure of an execution that was cancelled or ran out of time,
+   * telling the executions waiting for it to run again
+   */
+  private static final class Abandoned extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private Abandoned(Throwable cause) {
+      super(cause);
+    }
+
+  }
+
+  private static final class Key {
+
+    private final Object transaction;
+
+    private final Object connectionSupplier;
+
+    private final Object input;
+
+    private Key(Object transaction, Object connectionSupplier, Object input) {
+      this.transaction = transaction;
+      this.connectionSupplier = connectionSupplier;
+      this.input = input;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * System.identityHashCode(transaction) + System.identityHashCode(connectionSupplier)) + Objects.hashCode(input);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return transaction == other.transaction && connectionSupplier == other.connectionSupplier && Objects.equals(input, other.input);
+    }
+
+  }
+
+}
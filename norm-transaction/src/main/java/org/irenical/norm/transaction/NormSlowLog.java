@@ -0,0 +1,380 @@
+package org.irenical.norm.transaction;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+/**
+ * A hook recording operations slower than a threshold, with their SQL,
+ * parameters, row counts and, when sampled, phase timings, in a ring buffer
+ * of the latest entries and optionally to a sink, such as a logger.
+ * <p>
+ * Thresholds can be set per statement shape and per transaction name, the
+ * shape's taking precedence, and default to the one given on construction.
+ * Operations faster than every threshold cost a clock read and a comparison.
+ * Parameters pass through the redaction, if any, before being recorded.
+ */
+public class NormSlowLog implements NormHook {
+
+  public static final int DEFAULT_CAPACITY = 256;
+
+  /**
+   * Records every parameter as "?"
+   */
+  public static final Redaction REDACT_ALL = (fingerprint, index, value) -> "?";
+
+  private final Entry[] ring;
+
+  private long recorded;
+
+  private volatile long threshold;
+
+  private volatile long minimum;
+
+  private final Map<String, Long> shapeThresholds = new ConcurrentHashMap<>();
+
+  private final Map<String, Long> transactionThresholds = new ConcurrentHashMap<>();
+
+  private volatile Redaction redaction;
+
+  private volatile Consumer<Entry> sink;
+
+  public NormSlowLog(long threshold, TimeUnit unit) {
+    this(threshold, unit, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param threshold - the latency from which operations are recorded
+   * @param capacity - how many of the latest entries are kept
+   */
+  public NormSlowLog(long threshold, TimeUnit unit, int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Invalid capacity " + capacity);
+    }
+    this.ring = new Entry[capacity];
+    this.threshold = unit.toNanos(threshold);
+    this.minimum = this.threshold;
+  }
+
+  /**
+   * Rewrites a parameter before it is recorded
+   */
+  @FunctionalInterface
+  public interface Redaction {
+
+    /**
+     * @param fingerprint - the shape of the operation's SQL
+     * @param index - the parameter's position, from 1
+     * @param value - the parameter
+     * @return what to record instead
+     */
+    Object redact(NormFingerprint fingerprint, int index, Object value);
+
+  }
+
+  public void setThreshold(long threshold, TimeUnit unit) {
+    this.threshold = unit.toNanos(threshold);
+    updateMinimum();
+  }
+
+  public long getThreshold(TimeUnit unit) {
+    return unit.convert(threshold, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param shape - a fingerprint shape, as NormFingerprint.getShape returns
+   * @param threshold - the latency from which operations of this shape are
+   * recorded, or a negative value to use the default again
+   */
+  public void setShapeThreshold(String shape, long threshold, TimeUnit unit) {
+    set(shapeThresholds, shape, threshold, unit);
+  }
+
+  /**
+   * @param name - a transaction name
+   * @param threshold - the latency from which the transaction's operations
+   * are recorded, or a negative value to use the default again
+   */
+  public void setTransactionThreshold(String name, long threshold, TimeUnit unit) {
+    set(transactionThresholds, name, threshold, unit);
+  }
+
+  private void set(Map<String, Long> thresholds, String key, long threshold, TimeUnit unit) {
+    if (threshold < 0) {
+      thresholds.remove(key);
+    } else {
+      thresholds.put(key, unit.toNanos(threshold));
+    }
+    updateMinimum();
+  }
+
+  private synchronized void updateMinimum() {
+    long lowest = threshold;
+    for (long each : shapeThresholds.values()) {
+      lowest = Math.min(lowest, each);
+    }
+    for (long each : transactionThresholds.values()) {
+      lowest = Math.min(lowest, each);
+    }
+    minimum = lowest;
+  }
+
+  public void setRedaction(Redaction redaction) {
+    this.redaction = redaction;
+  }
+
+  public Redaction getRedaction() {
+    return redaction;
+  }
+
+  /**
+   * @param sink - called with each entry as it is recorded, for instance
+   * entry -&gt; logger.warning(entry::toString)
+   */
+  public void setSink(Consumer<Entry> sink) {
+    this.sink = sink;
+  }
+
+  public Consumer<Entry> getSink() {
+    return sink;
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+    long elapsed = System.nanoTime() - context.getOperationStart();
+    if (elapsed >= minimum) {
+      check(context, elapsed, null);
+    }
+  }
+
+  @Override
+  public <INPUT, OUTPUT> void operationFailed(NormContext<INPUT, OUTPUT> context, Exception cause) {
+    long elapsed = System.nanoTime() - context.getOperationStart();
+    if (elapsed >= minimum) {
+      check(context, elapsed, cause);
+    }
+  }
+
+  private void check(NormContext<?, ?> context, long elapsed, Exception failure) {
+    NormFingerprint fingerprint = context.getFingerprint();
+    Long applicable = fingerprint == null ? null : shapeThresholds.get(fingerprint.getShape());
+    NormTransaction<?, ?> transaction = context.getTransaction();
+    String transactionName = transaction == null ? null : transaction.getName();
+    if (applicable == null && transactionName != null) {
+      applicable = transactionThresholds.get(transactionName);
+    }
+    if (elapsed < (applicable == null ? threshold : applicable)) {
+      return;
+    }
+    Entry entry = new Entry(context, transactionName, fingerprint, parameters(context, fingerprint), elapsed, failure);
+    synchronized (ring) {
+      ring[(int) (recorded++ % ring.length)] = entry;
+    }
+    Consumer<Entry> recipient = sink;
+    if (recipient != null) {
+      recipient.accept(entry);
+    }
+  }
+
+  private List<Object> parameters(NormContext<?, ?> context, NormFingerprint fingerprint) {
+    Iterable<Object> parameters = context.getParameters();
+    if (parameters == null) {
+      return Collections.emptyList();
+    }
+    Redaction redacting = redaction;
+    List<Object> recorded = new ArrayList<>();
+    int index = 0;
+    for (Object parameter : parameters) {
+      ++index;
+      recorded.add(redacting == null ? parameter : redacting.redact(fingerprint, index, parameter));
+    }
+    return Collections.unmodifiableList(recorded);
+  }
+
+  /**
+   * @return the latest entries, oldest first
+   */
+  public List<Entry> getEntries() {
+    return getEntries(entry -> true);
+  }
+
+  /**
+   * @return the latest entries matching the filter, oldest first
+   */
+  public List<Entry> getEntries(Predicate<Entry> filter) {
+    List<Entry> entries = new ArrayList<>();
+    synchronized (ring) {
+      long first = Math.max(0, recorded - ring.length);
+      for (long i = first; i < recorded; i++) {
+        Entry entry = ring[(int) (i % ring.length)];
+        if (filter.test(entry)) {
+          entries.add(entry);
+        }
+      }
+    }
+    return entries;
+  }
+
+  public void clear() {
+    synchronized (ring) {
+      for (int i = 0; i < ring.length; i++) {
+        ring[i] = null;
+      }
+      recorded = 0;
+    }
+  }
+
+  /**
+   * A slow operation
+   */
+  public static final class Entry {
+
+    private final long timestamp = System.currentTimeMillis();
+
+    private final String transaction;
+
+    private final String operation;
+
+    private final String sql;
+
+    private final NormFingerprint fingerprint;
+
+    private final List<Object> parameters;
+
+    private final long rowsRead;
+
+    private final Integer updatedRows;
+
+    private final long elapsedNanos;
+
+    private final Map<String, Long> phaseNanos;
+
+    private final Exception failure;
+
+    private Entry(NormContext<?, ?> context, String transaction, NormFingerprint fingerprint, List<Object> parameters, long elapsedNanos, Exception failure) {
+      NormOperation<?, ?> operation = context.getOperation();
+      this.transaction = transaction;
+      this.operation = operation == null ? null : operation.getName();
+      this.sql = context.getQuery();
+      this.fingerprint = fingerprint;
+      this.parameters = parameters;
+      this.rowsRead = context.getRowsRead();
+      this.updatedRows = context.getUpdatedRows();
+      this.elapsedNanos = elapsedNanos;
+      this.failure = failure;
+      NormTimings timings = context.getTimings();
+      if (timings == null) {
+        this.phaseNanos = Collections.emptyMap();
+      } else {
+        Map<String, Long> phaseNanos = new LinkedHashMap<>();
+        for (NormTimings.Phase phase : NormTimings.Phase.values()) {
+          phaseNanos.put(phase.name(), timings.getOperation(phase));
+        }
+        this.phaseNanos = Collections.unmodifiableMap(phaseNanos);
+      }
+    }
+
+    /**
+     * @return the System.currentTimeMillis at which it was recorded
+     */
+    public long getTimestamp() {
+      return timestamp;
+    }
+
+    /**
+     * @return the transaction's name, if it has one
+     */
+    public String getTransaction() {
+      return transaction;
+    }
+
+    /**
+     * @return the operation's name, if it has one
+     */
+    public String getOperation() {
+      return operation;
+    }
+
+    public String getSql() {
+      return sql;
+    }
+
+    public NormFingerprint getFingerprint() {
+      return fingerprint;
+    }
+
+    /**
+     * @return the parameters, as redacted
+     */
+    public List<Object> getParameters() {
+      return parameters;
+    }
+
+    public long getRowsRead() {
+      return rowsRead;
+    }
+
+    public Integer getUpdatedRows() {
+      return updatedRows;
+    }
+
+    public long getElapsedNanos() {
+      return elapsedNanos;
+    }
+
+    /**
+     * @return the nanoseconds spent in each phase, by phase name, or nothing
+     * if the execution was not sampled for timings
+     */
+    public Map<String, Long> getPhaseNanos() {
+      return phaseNanos;
+    }
+
+    /**
+     * @return why the operation failed, or null if it did not
+     */
+    public Exception getFailure() {
+      return failure;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder description = new StringBuilder();
+      description.append("Slow operation took ").append(TimeUnit.NANOSECONDS.toMillis(elapsedNanos)).append("ms");
+      if (transaction != null) {
+        description.append(" in ").append(transaction);
+      }
+      description.append(": ").append(sql).append(" with parameters ").append(parameters).append(", ").append(rowsRead).append(" rows read");
+      if (updatedRows != null) {
+        description.append(", ").append(updatedRows).append(" rows updated");
+      }
+      if (!phaseNanos.isEmpty()) {
+        description.append(", phases ").append(phaseNanos);
+      }
+      if (failure != null) {
+        description.append(", failed with ").append(failure);
+      }
+      return description.toString();
+    }
+
+  }
+
+}
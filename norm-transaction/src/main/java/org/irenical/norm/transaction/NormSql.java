@@ -0,0 +1,155 @@
+package org.irenical.norm.transaction;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A lenient SQL scanner, good enough to find the tables a statement touches
+ * without parsing it
+ */
+final class NormSql {
+
+  private static final String LITERAL = "'";
+
+  private static final Set<String> TARGET_KEYWORDS = new HashSet<>(Arrays.asList("FROM", "JOIN", "INTO", "UPDATE", "TABLE"));
+
+  private static final Set<String> RESERVED = new HashSet<>(Arrays.asList("SELECT", "WHERE", "SET", "VALUES", "ONLY", "LATERAL", "OF", "NOWAIT", "IF", "EXISTS", "DEFAULT"));
+
+  private NormSql() {
+  }
+
+  /**
+   * Every identifier the statement mentions, each dotted segment on its own,
+   * so that no table read is missed. Over-reporting only costs unneeded
+   * invalidations
+   */
+  static Set<String> identifiers(String sql) {
+    Set<String> identifiers = new LinkedHashSet<>();
+    for (String token : tokens(sql)) {
+      if (isIdentifier(token)) {
+        for (String segment : token.split("\\.")) {
+          if (!segment.isEmpty()) {
+            identifiers.add(unquote(segment));
+          }
+        }
+      }
+    }
+    return Collections.unmodifiableSet(identifiers);
+  }
+
+  /**
+   * The tables a statement writes to or reads from explicitly: those after
+   * FROM, JOIN, INTO, UPDATE and TABLE, without schema
+   */
+  static Set<String> targets(String sql) {
+    List<String> tokens = tokens(sql);
+    Set<String> tables = new LinkedHashSet<>();
+    for (int i = 0; i < tokens.size() - 1; i++) {
+      if (TARGET_KEYWORDS.contains(upper(tokens.get(i)))) {
+        String table = tokens.get(i + 1);
+        if (isIdentifier(table) && !RESERVED.contains(upper(table))) {
+          tables.add(tableName(table));
+        }
+      }
+    }
+    return Collections.unmodifiableSet(tables);
+  }
+
+  /**
+   * @return the table's name, without schema or quotes, in upper case
+   */
+  static String tableName(String table) {
+    int dot = table.lastIndexOf('.');
+    return unquote(dot < 0 ? table : table.substring(dot + 1));
+  }
+
+  static List<String> tokens(String sql) {
+    List<String> tokens = new ArrayList<>();
+    int length = sql.length();
+    int i = 0;
+    while (i < length) {
+      char c = sql.charAt(i);
+      if (Character.isWhitespace(c)) {
+        ++i;
+      } else if (c == '-' && i + 1 < length && sql.charAt(i + 1) == '-') {
+        while (i < length && sql.charAt(i) != '\n') {
+          ++i;
+        }
+      } else if (c == '/' && i + 1 < length && sql.charAt(i + 1) == '*') {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? length : end + 2;
+      } else if (c == '\'') {
+        i = skipLiteral(sql, i);
+        tokens.add(LITERAL);
+      } else if (isIdentifierPart(c) || isQuote(c)) {
+        int start = i;
+        while (i < length) {
+          char d = sql.charAt(i);
+          if (isQuote(d)) {
+            int end = sql.indexOf(closing(d), i + 1);
+            i = end < 0 ? length : end + 1;
+          } else if (isIdentifierPart(d) || d == '.') {
+            ++i;
+          } else {
+            break;
+          }
+        }
+        tokens.add(sql.substring(start, i));
+      } else {
+        tokens.add(String.valueOf(c));
+        ++i;
+      }
+    }
+    return tokens;
+  }
+
+  private static int skipLiteral(String sql, int start) {
+    int i = start + 1;
+    while (i < sql.length()) {
+      if (sql.charAt(i) == '\'') {
+        if (i + 1 < sql.length() && sql.charAt(i + 1) == '\'') {
+          i += 2;
+          continue;
+        }
+        return i + 1;
+      }
+      ++i;
+    }
+    return i;
+  }
+
+  private static boolean isIdentifier(String token) {
+    char first = token.charAt(0);
+    return isQuote(first) || Character.isLetter(first) || first == '_';
+  }
+
+  private static boolean isIdentifierPart(char c) {
+    return Character.isLetterOrDigit(c) || c == '_' || c == '$';
+  }
+
+  private static boolean isQuote(char c) {
+    return c == '"' || c == '`' || c == '[';
+  }
+
+  private static char closing(char quote) {
+    return quote == '[' ? ']' : quote;
+  }
+
+  private static String unquote(String identifier) {
+    if (identifier.length() > 1 && isQuote(identifier.charAt(0))) {
+      identifier = identifier.substring(1, identifier.length() - 1);
+    }
+    return upper(identifier);
+  }
+
+  private static String upper(String token) {
+    return token.toUpperCase(Locale.ROOT);
+  }
+
+}
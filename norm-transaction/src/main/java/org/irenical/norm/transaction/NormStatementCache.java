@@ -0,0 +1,260 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Opt-in cache of prepared statements, shared by every transaction it is set
+ * on. Statements are kept per physical connection, keyed by statement kind
+ * and SQL text, and evicted in LRU order once a connection holds more than
+ * maxSize statements. A statement is removed from the cache while it is in
+ * use, so nested executions of the same query never share a statement.
+ * Each connection's statements have their own lock, and no driver call is
+ * made while holding one.
+ */
+public class NormStatementCache {
+
+  public static final int DEFAULT_MAX_SIZE = 64;
+
+  enum Kind {
+    SELECT_OR_UPDATE, INSERT, CALL
+  }
+
+  private static final String[] NO_COLUMNS = new String[0];
+
+  private final int maxSize;
+
+  private final ConcurrentHashMap<Connection, Statements> cached = new ConcurrentHashMap<>();
+
+  private final ConcurrentHashMap<PreparedStatement, Key> borrowed = new ConcurrentHashMap<>();
+
+  private final LongAdder hits = new LongAdder();
+
+  private final LongAdder misses = new LongAdder();
+
+  private final LongAdder evictions = new LongAdder();
+
+  public NormStatementCache() {
+    this(DEFAULT_MAX_SIZE);
+  }
+
+  public NormStatementCache(int maxSize) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("Invalid statement cache size " + maxSize);
+    }
+    this.maxSize = maxSize;
+  }
+
+  PreparedStatement prepare(Connection connection, Kind kind, String query) throws SQLException {
+    return prepare(connection, kind, query, null);
+  }
+
+  /**
+   * @param keyColumns - for inserts, the generated key columns to return, or
+   * null to let the driver choose
+   */
+  PreparedStatement prepare(Connection connection, Kind kind, String query, String[] keyColumns) throws SQLException {
+    Connection physical = physical(connection);
+    Key key = new Key(physical, kind, query, keyColumns == null ? NO_COLUMNS : keyColumns);
+    Statements statements = cached.get(physical);
+    PreparedStatement statement = statements == null ? null : statements.take(key);
+    if (statement != null && !statement.isClosed()) {
+      borrowed.put(statement, key);
+      hits.increment();
+      return statement;
+    }
+    misses.increment();
+    switch (kind) {
+    case INSERT:
+      statement = key.keyColumns.length == 0 ? physical.prepareStatement(query, Statement.RETURN_GENERATED_KEYS) : physical.prepareStatement(query, key.keyColumns);
+      break;
+    case CALL:
+      statement = physical.prepareCall(query);
+      break;
+    default:
+      statement = physical.prepareStatement(query);
+    }
+    borrowed.put(statement, key);
+    return statement;
+  }
+
+  /**
+   * Returns a statement obtained from this cache, or closes it if it did not
+   * come from this cache
+   */
+  void release(PreparedStatement statement) throws SQLException {
+    List<PreparedStatement> discarded = new ArrayList<>(1);
+    Key key = borrowed.remove(statement);
+    if (key == null || statement.isClosed()) {
+      discarded.add(statement);
+    } else {
+      statement.clearParameters();
+      Statements statements = cached.get(key.connection);
+      if (statements == null) {
+        Statements created = new Statements();
+        statements = cached.putIfAbsent(key.connection, created);
+        if (statements == null) {
+          statements = created;
+          purgeClosedConnections(discarded);
+        }
+      }
+      statements.put(key, statement, discarded);
+    }
+    for (PreparedStatement toClose : discarded) {
+      toClose.close();
+    }
+  }
+
+  /**
+   * Forgets the statements of connections closed since, checking each
+   * connection without holding any lock
+   */
+  private void purgeClosedConnections(List<PreparedStatement> discarded) throws SQLException {
+    for (Map.Entry<Connection, Statements> entry : cached.entrySet()) {
+      if (entry.getKey().isClosed() && cached.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().retire(discarded);
+      }
+    }
+  }
+
+  private static Connection physical(Connection connection) {
+    try {
+      Connection unwrapped = connection.unwrap(Connection.class);
+      return unwrapped == null ? connection : unwrapped;
+    } catch (SQLException e) {
+      return connection;
+    }
+  }
+
+  /**
+   * Closes and forgets every idle statement
+   * @throws SQLException if a statement fails to close
+   */
+  public void clear() throws SQLException {
+    List<PreparedStatement> discarded = new ArrayList<>();
+    for (Map.Entry<Connection, Statements> entry : cached.entrySet()) {
+      if (cached.remove(entry.getKey(), entry.getValue())) {
+        entry.getValue().retire(discarded);
+      }
+    }
+    for (PreparedStatement statement : discarded) {
+      statement.close();
+    }
+  }
+
+  public int size() {
+    int size = 0;
+    for (Statements statements : cached.values()) {
+      size += statements.size();
+    }
+    return size;
+  }
+
+  public int getMaxSize() {
+    return maxSize;
+  }
+
+  public long getHits() {
+    return hits.sum();
+  }
+
+  public long getMisses() {
+    return misses.sum();
+  }
+
+  public long getEvictions() {
+    return evictions.sum();
+  }
+
+  /**
+   * The idle statements of one physical connection, in LRU order, guarded by
+   * their own lock. Only map operations happen under it; statements are
+   * checked and closed by the callers, outside it
+   */
+  private final class Statements {
+
+    private final LinkedHashMap<Key, PreparedStatement> idle = new LinkedHashMap<>(16, 0.75f, true);
+
+    private boolean retired;
+
+    private synchronized PreparedStatement take(Key key) {
+      return idle.remove(key);
+    }
+
+    private synchronized void put(Key key, PreparedStatement statement, List<PreparedStatement> discarded) {
+      if (retired) {
+        discarded.add(statement);
+        return;
+      }
+      PreparedStatement replaced = idle.put(key, statement);
+      if (replaced != null) {
+        discarded.add(replaced);
+      }
+      Iterator<PreparedStatement> eldest = idle.values().iterator();
+      while (idle.size() > maxSize) {
+        discarded.add(eldest.next());
+        eldest.remove();
+        evictions.increment();
+      }
+    }
+
+    /**
+     * Hands over every idle statement, closing the cache to any statement
+     * released later
+     */
+    private synchronized void retire(List<PreparedStatement> discarded) {
+      retired = true;
+      discarded.addAll(idle.values());
+      idle.clear();
+    }
+
+    private synchronized int size() {
+      return idle.size();
+    }
+
+  }
+
+  private static final class Key {
+
+    private final Connection connection;
+
+    private final Kind kind;
+
+    private final String query;
+
+    private final String[] keyColumns;
+
+    private Key(Connection connection, Kind kind, String query, String[] keyColumns) {
+      this.connection = connection;
+      this.kind = kind;
+      this.query = query;
+      this.keyColumns = keyColumns;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * kind.hashCode() + query.hashCode()) + Arrays.hashCode(keyColumns);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return connection == other.connection && kind == other.kind && query.equals(other.query) && Arrays.equals(keyColumns, other.keyColumns);
+    }
+
+  }
+
+}
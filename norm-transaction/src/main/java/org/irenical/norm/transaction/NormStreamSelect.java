@@ -0,0 +1,284 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+
+/**
+ * A select whose rows are read lazily, through a forward-only cursor. The
+ * returned stream owns the connection, statement and result set until it is
+ * exhausted or closed, so it should be consumed in a try-with-resources block.
+ * Closing it before the last row cancels the running statement.
+ */
+public class NormStreamSelect<INPUT, ROW> {
+
+  public static final int DEFAULT_FETCH_SIZE = 1000;
+
+  private Function<NormContext<INPUT, ROW>, String> queryBuilder;
+
+  private Function<NormContext<INPUT, ROW>, Iterable<Object>> parametersBuilder;
+
+  private NormOutputReader<INPUT, ROW> rowReader;
+
+  private int fetchSize = DEFAULT_FETCH_SIZE;
+
+  private NormHook hook;
+
+  private NormConnectionSupplier connectionSupplier;
+
+  public NormStreamSelect() {
+  }
+
+  public NormStreamSelect(NormConnectionSupplier connectionSupplier) {
+    this.connectionSupplier = connectionSupplier;
+  }
+
+  public NormStreamSelect(NormConnectionSupplier connectionSupplier, Function<NormContext<INPUT, ROW>, String> queryBuilder, Function<NormContext<INPUT, ROW>, Iterable<Object>> parametersBuilder, NormOutputReader<INPUT, ROW> rowReader) {
+    this.connectionSupplier = connectionSupplier;
+    this.queryBuilder = queryBuilder;
+    this.parametersBuilder = parametersBuilder;
+    this.rowReader = rowReader;
+  }
+
+  public void setConnectionSupplier(NormConnectionSupplier connectionSupplier) {
+    this.connectionSupplier = connectionSupplier;
+  }
+
+  public NormConnectionSupplier getConnectionSupplier() {
+    return connectionSupplier;
+  }
+
+  public void setHook(NormHook hook) {
+    this.hook = hook;
+  }
+
+  public NormHook getHook() {
+    return hook;
+  }
+
+  public void setQueryBuilder(Function<NormContext<INPUT, ROW>, String> queryBuilder) {
+    this.queryBuilder = queryBuilder;
+  }
+
+  public Function<NormContext<INPUT, ROW>, String> getQueryBuilder() {
+    return queryBuilder;
+  }
+
+  public void setParametersBuilder(Function<NormContext<INPUT, ROW>, Iterable<Object>> parametersBuilder) {
+    this.parametersBuilder = parametersBuilder;
+  }
+
+  public Function<NormContext<INPUT, ROW>, Iterable<Object>> getParametersBuilder() {
+    return parametersBuilder;
+  }
+
+  /**
+   * @param rowReader - called once per row, with the context's result set
+   * positioned on that row
+   */
+  public void setRowReader(NormOutputReader<INPUT, ROW> rowReader) {
+    this.rowReader = rowReader;
+  }
+
+  public NormOutputReader<INPUT, ROW> getRowReader() {
+    return rowReader;
+  }
+
+  public void setFetchSize(int fetchSize) {
+    this.fetchSize = fetchSize;
+  }
+
+  public int getFetchSize() {
+    return fetchSize;
+  }
+
+  public Stream<ROW> stream() throws SQLException {
+    return stream(connectionSupplier, null);
+  }
+
+  public Stream<ROW> stream(INPUT input) throws SQLException {
+    return stream(connectionSupplier, input);
+  }
+
+  public Stream<ROW> stream(NormConnectionSupplier connectionSupplier, INPUT input) throws SQLException {
+    if (connectionSupplier == null) {
+      throw new NormTransactionException("No connection supplier was provided for this stream select");
+    }
+    if (queryBuilder == null) {
+      throw new NormTransactionException("No query builder was provided for this stream select " + this);
+    }
+    if (rowReader == null) {
+      throw new NormTransactionException("No row reader was provided for this stream select " + this);
+    }
+    NormContext<INPUT, ROW> context = new NormContext<>();
+    context.setInput(input);
+    context.startTransaction();
+    Connection connection = connectionSupplier.get();
+    if (connection == null) {
+      throw new NormTransactionException("Null connection supplied to this stream select");
+    }
+    context.setConnection(connection);
+    // the transaction is only reported once it holds a connection, so that
+    // every start is matched by an end when the cursor is released
+    if (hook != null) {
+      hook.transactionStarted(context);
+    }
+    Cursor cursor = new Cursor(context);
+    try {
+      cursor.open();
+    } catch (SQLException | RuntimeException e) {
+      cursor.fail();
+      throw e;
+    }
+    return StreamSupport.stream(cursor, false).onClose(cursor::close);
+  }
+
+  private class Cursor extends Spliterators.AbstractSpliterator<ROW> {
+
+    private final NormContext<INPUT, ROW> context;
+
+    private PreparedStatement statement;
+
+    private ResultSet resultSet;
+
+    private boolean autoCommit;
+
+    private boolean started;
+
+    private boolean exhausted;
+
+    private boolean closed;
+
+    private Cursor(NormContext<INPUT, ROW> context) {
+      super(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL);
+      this.context = context;
+    }
+
+    private void open() throws SQLException {
+      Connection connection = context.getConnection();
+      autoCommit = connection.getAutoCommit();
+      if (autoCommit) {
+        // most drivers only honour the fetch size inside a transaction
+        connection.setAutoCommit(false);
+      }
+      String query = queryBuilder.apply(context);
+      if (query == null || query.isEmpty()) {
+        throw new NormTransactionException("A null or empty query was provided for this stream select " + NormStreamSelect.this);
+      }
+      context.setQuery(query);
+      Iterable<Object> parameters = parametersBuilder == null ? null : parametersBuilder.apply(context);
+      context.setParameters(parameters);
+      context.startOperation(null);
+      if (hook != null) {
+        hook.operationStarted(context);
+      }
+      started = true;
+      statement = connection.prepareStatement(query, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+      statement.setFetchSize(fetchSize);
+      JDBChops.prepareInput(statement, parameters);
+      resultSet = statement.executeQuery();
+      context.setPreparedStatement(statement);
+      context.setResultSet(resultSet);
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super ROW> action) {
+      if (closed) {
+        return false;
+      }
+      try {
+        if (!resultSet.next()) {
+          exhausted = true;
+          close();
+          return false;
+        }
+        ROW row = rowReader.toOutput(context);
+        context.setCurrentOutput(row);
+        action.accept(row);
+        return true;
+      } catch (SQLException e) {
+        fail();
+        throw new NormTransactionException(e);
+      } catch (RuntimeException e) {
+        fail();
+        throw e;
+      }
+    }
+
+    private void close() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      Connection connection = context.getConnection();
+      try {
+        if (!exhausted) {
+          try {
+            statement.cancel();
+          } catch (SQLException e) {
+            // Statement already done or cancel not supported... ignoring.
+          }
+        }
+        resultSet.close();
+        statement.close();
+        connection.commit();
+        connection.setAutoCommit(autoCommit);
+      } catch (SQLException e) {
+        try {
+          connection.rollback();
+        } catch (SQLException rollbackException) {
+          // Error while rolling back... ignoring.
+        }
+        throw new NormTransactionException(e);
+      } finally {
+        release();
+      }
+    }
+
+    private void fail() {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      Connection connection = context.getConnection();
+      try {
+        if (statement != null) {
+          statement.close();
+        }
+        connection.rollback();
+        connection.setAutoCommit(autoCommit);
+      } catch (SQLException e) {
+        // Error while rolling back... ignoring.
+      } finally {
+        release();
+      }
+    }
+
+    private void release() {
+      try {
+        context.getConnection().close();
+      } catch (SQLException e) {
+        throw new NormTransactionException(e);
+      } finally {
+        context.endTransaction();
+        if (hook != null) {
+          if (started) {
+            hook.operationEnded(context);
+          }
+          hook.transactionEnded(context);
+        }
+      }
+    }
+
+  }
+
+}
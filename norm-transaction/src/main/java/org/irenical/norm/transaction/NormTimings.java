@@ -0,0 +1,174 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.ResultSet;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Where the time of a sampled execution went, phase by phase, for the
+ * current operation and for the whole transaction. Fetching is the time spent
+ * in ResultSet.next, and mapping the rest of the output reader's time, so
+ * result sets are wrapped while sampled readers run.
+ * <p>
+ * The database's share is the time spent preparing, executing, fetching and
+ * committing; the application's share is whatever else the transaction took
+ * besides getting its connection.
+ */
+public final class NormTimings {
+
+  public enum Phase {
+
+    CONNECT(false), PREPARE(true), BIND(false), EXECUTE(true), FETCH(true), MAP(false), COMMIT(true);
+
+    private final boolean database;
+
+    Phase(boolean database) {
+      this.database = database;
+    }
+
+    /**
+     * @return whether this phase is spent waiting for the database
+     */
+    public boolean isDatabase() {
+      return database;
+    }
+
+  }
+
+  private static final Phase[] PHASES = Phase.values();
+
+  private final long[] operation = new long[PHASES.length];
+
+  private final long[] transaction = new long[PHASES.length];
+
+  private long fetching;
+
+  private long elapsed;
+
+  void add(Phase phase, long nanos) {
+    operation[phase.ordinal()] += nanos;
+    transaction[phase.ordinal()] += nanos;
+  }
+
+  void startOperation() {
+    for (int i = 0; i < operation.length; i++) {
+      operation[i] = 0;
+    }
+  }
+
+  /**
+   * Adds the transaction times of a parallel operation's timings
+   */
+  void add(NormTimings other) {
+    for (int i = 0; i < transaction.length; i++) {
+      transaction[i] += other.transaction[i];
+    }
+  }
+
+  void end(long elapsed) {
+    this.elapsed = elapsed;
+  }
+
+  /**
+   * @return a result set adding the time spent in next to the fetch phase
+   */
+  ResultSet fetching(ResultSet resultSet) {
+    return (ResultSet) Proxy.newProxyInstance(NormTimings.class.getClassLoader(), new Class<?>[] { ResultSet.class }, new Fetching(resultSet));
+  }
+
+  /**
+   * @return the fetch time added since the last call
+   */
+  long takeFetching() {
+    long taken = fetching;
+    fetching = 0;
+    return taken;
+  }
+
+  /**
+   * @return the nanoseconds the current operation spent in the phase
+   */
+  public long getOperation(Phase phase) {
+    return operation[phase.ordinal()];
+  }
+
+  /**
+   * @return the nanoseconds the transaction spent in the phase so far
+   */
+  public long getTransaction(Phase phase) {
+    return transaction[phase.ordinal()];
+  }
+
+  /**
+   * @return the nanoseconds the whole transaction took, once it ended
+   */
+  public long getElapsed() {
+    return elapsed;
+  }
+
+  /**
+   * @return the nanoseconds the transaction spent in the database
+   */
+  public long getDatabase() {
+    long sum = 0;
+    for (Phase phase : PHASES) {
+      if (phase.isDatabase()) {
+        sum += transaction[phase.ordinal()];
+      }
+    }
+    return sum;
+  }
+
+  /**
+   * @return the nanoseconds the transaction spent outside the database,
+   * other than getting its connection, once it ended. Parallel transactions
+   * may report less than zero, their database time adding up across
+   * connections
+   */
+  public long getApplication() {
+    return elapsed - getDatabase() - getTransaction(Phase.CONNECT);
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder summary = new StringBuilder();
+    summary.append("elapsed=").append(micros(elapsed)).append("us database=").append(micros(getDatabase())).append("us application=").append(micros(getApplication())).append("us");
+    for (Phase phase : PHASES) {
+      summary.append(' ').append(phase.name().toLowerCase()).append('=').append(micros(transaction[phase.ordinal()])).append("us");
+    }
+    return summary.toString();
+  }
+
+  private static long micros(long nanos) {
+    return TimeUnit.NANOSECONDS.toMicros(nanos);
+  }
+
+  private final class Fetching implements InvocationHandler {
+
+    private final ResultSet delegate;
+
+    private Fetching(ResultSet delegate) {
+      this.delegate = delegate;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      boolean next = "next".equals(method.getName());
+      long start = next ? System.nanoTime() : 0;
+      try {
+        return method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      } finally {
+        if (next) {
+          fetching += System.nanoTime() - start;
+        }
+      }
+    }
+
+  }
+
+}
@@ -2,21 +2,64 @@ package org.irenical.norm.transaction;
 
 import java.sql.Connection;
 import java.sql.SQLException;
-import java.util.LinkedList;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Function;
 
 import org.irenical.norm.transaction.error.NormTransactionException;
 
 public class NormTransaction<INPUT, OUTPUT> {
 
-  private final List<NormOperationAdapter<INPUT, OUTPUT, ?, ?>> adapters = new CopyOnWriteArrayList<>();
+  private static final NormOperationAdapter<?, ?, ?, ?>[] EMPTY = new NormOperationAdapter<?, ?, ?, ?>[0];
+
+  @SuppressWarnings("unchecked")
+  private volatile NormOperationAdapter<INPUT, OUTPUT, ?, ?>[] adapters = (NormOperationAdapter<INPUT, OUTPUT, ?, ?>[]) EMPTY;
+
+  private volatile boolean frozen;
 
   private NormHook hook;
 
   private NormConnectionSupplier connectionSupplier;
 
+  private NormStatementCache statementCache;
+
+  private NormQueryCache queryCache;
+
+  private NormSingleFlight singleFlight;
+
+  private Executor executor;
+
+  private long timeoutNanos;
+
+  private Boolean autoCommit;
+
+  private boolean readOnly;
+
+  private Integer isolation;
+
+  private NormRetryPolicy retryPolicy;
+
+  private NormPropagation propagation = NormPropagation.REQUIRES_NEW;
+
+  private boolean parallel;
+
+  private String name;
+
+  private double timingSampleRate;
+
   public NormTransaction() {
   }
 
@@ -25,6 +68,7 @@ public class NormTransaction<INPUT, OUTPUT> {
   }
 
   public void setConnectionSupplier(NormConnectionSupplier connectionSupplier) {
+    checkNotFrozen();
     this.connectionSupplier = connectionSupplier;
   }
 
@@ -32,7 +76,210 @@ public class NormTransaction<INPUT, OUTPUT> {
     return connectionSupplier;
   }
 
+  public void setStatementCache(NormStatementCache statementCache) {
+    checkNotFrozen();
+    this.statementCache = statementCache;
+  }
+
+  public NormStatementCache getStatementCache() {
+    return statementCache;
+  }
+
+  /**
+   * @param queryCache - serves this transaction's cached selects and is
+   * invalidated by its writes. Every transaction writing to tables read by
+   * cached selects should share it
+   */
+  public void setQueryCache(NormQueryCache queryCache) {
+    checkNotFrozen();
+    this.queryCache = queryCache;
+  }
+
+  public NormQueryCache getQueryCache() {
+    return queryCache;
+  }
+
+  /**
+   * @param singleFlight - coalesces concurrent executions of this transaction
+   * with equal inputs, if it only holds selects whose statements depend on
+   * nothing but the input
+   */
+  public void setSingleFlight(NormSingleFlight singleFlight) {
+    checkNotFrozen();
+    this.singleFlight = singleFlight;
+  }
+
+  public NormSingleFlight getSingleFlight() {
+    return singleFlight;
+  }
+
+  /**
+   * @param executor - the executor used by executeAsync, or null to use
+   * NormExecutors.defaultExecutor()
+   */
+  public void setExecutor(Executor executor) {
+    checkNotFrozen();
+    this.executor = executor;
+  }
+
+  public Executor getExecutor() {
+    return executor;
+  }
+
+  /**
+   * @param timeout - the deadline of each execution, counted from the call
+   * to execute or executeAsync. Operations are not started past it, and the
+   * time left is applied to each statement, which is cancelled once it runs
+   * out. Zero for no deadline
+   * @param unit - the timeout's unit
+   */
+  public void setTimeout(long timeout, TimeUnit unit) {
+    checkNotFrozen();
+    if (timeout < 0) {
+      throw new IllegalArgumentException("Invalid transaction timeout " + timeout);
+    }
+    this.timeoutNanos = unit.toNanos(timeout);
+  }
+
+  public long getTimeout(TimeUnit unit) {
+    return unit.convert(timeoutNanos, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @param autoCommit - true to run in auto-commit mode, sparing the commit
+   * and rollback round trips, which only suits transactions with a single
+   * operation; false to make sure the connection is not in auto-commit mode;
+   * null, the default, to use the connection as supplied
+   * @throws NormTransactionException if auto-commit is enabled on a
+   * sequential transaction that already holds more than one operation
+   */
+  public synchronized void setAutoCommit(Boolean autoCommit) {
+    checkNotFrozen();
+    checkAutoCommit(autoCommit, parallel, adapters.length);
+    this.autoCommit = autoCommit;
+  }
+
+  /**
+   * Auto-commit mode commits each statement on its own, so it cannot make
+   * several sequential operations atomic
+   */
+  private static void checkAutoCommit(Boolean autoCommit, boolean parallel, int operations) {
+    if (Boolean.TRUE.equals(autoCommit) && !parallel && operations > 1) {
+      throw new NormTransactionException("Auto-commit mode only supports transactions with a single operation");
+    }
+  }
+
+  public Boolean getAutoCommit() {
+    return autoCommit;
+  }
+
+  /**
+   * @param readOnly - whether to set the connection read-only while this
+   * transaction runs, which lets some drivers route it to a replica
+   */
+  public void setReadOnly(boolean readOnly) {
+    checkNotFrozen();
+    this.readOnly = readOnly;
+  }
+
+  public boolean isReadOnly() {
+    return readOnly;
+  }
+
+  /**
+   * @param isolation - one of the Connection.TRANSACTION_* levels, or null,
+   * the default, to use the connection's
+   */
+  public void setIsolation(Integer isolation) {
+    checkNotFrozen();
+    this.isolation = isolation;
+  }
+
+  public Integer getIsolation() {
+    return isolation;
+  }
+
+  /**
+   * @param retryPolicy - retries executions failing with retryable
+   * SQLStates, such as serialization failures and deadlocks, or null not to
+   * retry
+   */
+  public void setRetryPolicy(NormRetryPolicy retryPolicy) {
+    checkNotFrozen();
+    this.retryPolicy = retryPolicy;
+  }
+
+  public NormRetryPolicy getRetryPolicy() {
+    return retryPolicy;
+  }
+
+  /**
+   * @param propagation - whether executions started while another
+   * transaction runs on the same thread, with the same connection supplier,
+   * join its connection. Defaults to REQUIRES_NEW. Joined executions ignore
+   * this transaction's connection modes and retry policy, which belong to
+   * the enclosing transaction
+   */
+  public void setPropagation(NormPropagation propagation) {
+    checkNotFrozen();
+    this.propagation = propagation == null ? NormPropagation.REQUIRES_NEW : propagation;
+  }
+
+  public NormPropagation getPropagation() {
+    return propagation;
+  }
+
+  /**
+   * @param parallel - whether to run the operations of this transaction,
+   * which must all be selects, concurrently on this transaction's executor.
+   * Each operation runs on a connection of its own, once the operations it
+   * depends on are done, seeing the output of its last dependency as the
+   * current output. The transaction outputs what the last operation to run,
+   * in append order, did. The calling thread runs the operations no executor
+   * thread has started, so a saturated executor slows the transaction down
+   * instead of deadlocking it
+   */
+  public synchronized void setParallel(boolean parallel) {
+    checkNotFrozen();
+    checkAutoCommit(autoCommit, parallel, adapters.length);
+    this.parallel = parallel;
+  }
+
+  public boolean isParallel() {
+    return parallel;
+  }
+
+  /**
+   * @param name - identifies this transaction to hooks, such as metrics
+   */
+  public void setName(String name) {
+    checkNotFrozen();
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param timingSampleRate - the fraction of executions, from 0 to 1, whose
+   * time is broken down by phase in their context's timings. Sampled
+   * executions pay for a clock read per phase and per fetched row
+   */
+  public void setTimingSampleRate(double timingSampleRate) {
+    checkNotFrozen();
+    if (!(timingSampleRate >= 0 && timingSampleRate <= 1)) {
+      throw new IllegalArgumentException("Invalid timing sample rate " + timingSampleRate);
+    }
+    this.timingSampleRate = timingSampleRate;
+  }
+
+  public double getTimingSampleRate() {
+    return timingSampleRate;
+  }
+
   public void setHook(NormHook hook) {
+    checkNotFrozen();
     this.hook = hook;
   }
 
@@ -53,6 +300,20 @@ public class NormTransaction<INPUT, OUTPUT> {
     return appendOperation(select);
   }
 
+  public NormTransaction<INPUT, OUTPUT> appendCachedSelect(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<Object>> parametersBuilder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendCachedSelect(null, queryBuilder, parametersBuilder, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendCachedSelect(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<Object>> parametersBuilder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormSelect<INPUT, OUTPUT> select = new NormSelect<>();
+    select.setQueryBuilder(queryBuilder);
+    select.setParametersBuilder(parametersBuilder);
+    select.setOutputReader(outputReader);
+    select.setCondition(condition);
+    select.setCached(true);
+    return appendOperation(select);
+  }
+
   public NormTransaction<INPUT, OUTPUT> appendInsert(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<Object>> parametersBuilder, NormOutputReader<INPUT, OUTPUT> outputReader) {
     return appendInsert(null, queryBuilder, parametersBuilder, outputReader);
   }
@@ -105,18 +366,128 @@ public class NormTransaction<INPUT, OUTPUT> {
     return appendOperation(call);
   }
 
+  public NormTransaction<INPUT, OUTPUT> appendBoundSelect(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBoundSelect(null, queryBuilder, parameterBinder, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundSelect(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormSelect<INPUT, OUTPUT> select = new NormSelect<>();
+    select.setQueryBuilder(queryBuilder);
+    select.setParameterBinder(parameterBinder);
+    select.setOutputReader(outputReader);
+    select.setCondition(condition);
+    return appendOperation(select);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundInsert(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBoundInsert(null, queryBuilder, parameterBinder, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundInsert(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormInsert<INPUT, OUTPUT> insert = new NormInsert<>();
+    insert.setQueryBuilder(queryBuilder);
+    insert.setParameterBinder(parameterBinder);
+    insert.setOutputReader(outputReader);
+    insert.setCondition(condition);
+    return appendOperation(insert);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundUpdate(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBoundUpdate(null, queryBuilder, parameterBinder, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundUpdate(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormUpdate<INPUT, OUTPUT> update = new NormUpdate<>();
+    update.setQueryBuilder(queryBuilder);
+    update.setParameterBinder(parameterBinder);
+    update.setOutputReader(outputReader);
+    update.setCondition(condition);
+    return appendOperation(update);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundDelete(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBoundDelete(null, queryBuilder, parameterBinder, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBoundDelete(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, NormParameterBinder<INPUT, OUTPUT> parameterBinder, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormDelete<INPUT, OUTPUT> delete = new NormDelete<>();
+    delete.setQueryBuilder(queryBuilder);
+    delete.setParameterBinder(parameterBinder);
+    delete.setOutputReader(outputReader);
+    delete.setCondition(condition);
+    return appendOperation(delete);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBatchInsert(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder, int batchSize, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBatchInsert(null, queryBuilder, batchParametersBuilder, batchSize, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBatchInsert(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder, int batchSize, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormBatchInsert<INPUT, OUTPUT> insert = new NormBatchInsert<>();
+    insert.setQueryBuilder(queryBuilder);
+    insert.setBatchParametersBuilder(batchParametersBuilder);
+    insert.setBatchSize(batchSize);
+    insert.setOutputReader(outputReader);
+    insert.setCondition(condition);
+    return appendOperation(insert);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBatchUpdate(Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder, int batchSize, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    return appendBatchUpdate(null, queryBuilder, batchParametersBuilder, batchSize, outputReader);
+  }
+
+  public NormTransaction<INPUT, OUTPUT> appendBatchUpdate(Function<NormContext<INPUT, OUTPUT>, Boolean> condition, Function<NormContext<INPUT, OUTPUT>, String> queryBuilder, Function<NormContext<INPUT, OUTPUT>, Iterable<? extends Iterable<?>>> batchParametersBuilder, int batchSize, NormOutputReader<INPUT, OUTPUT> outputReader) {
+    NormBatchUpdate<INPUT, OUTPUT> update = new NormBatchUpdate<>();
+    update.setQueryBuilder(queryBuilder);
+    update.setBatchParametersBuilder(batchParametersBuilder);
+    update.setBatchSize(batchSize);
+    update.setOutputReader(outputReader);
+    update.setCondition(condition);
+    return appendOperation(update);
+  }
+
   public NormTransaction<INPUT, OUTPUT> appendOperation(NormOperation<INPUT, OUTPUT> operation) {
     return appendOperation(operation,null,null);
   }
 
   public <OPERATION_INPUT, OPERATION_OUTPUT> NormTransaction<INPUT, OUTPUT> appendOperation(NormOperation<OPERATION_INPUT, OPERATION_OUTPUT> operation, Function<INPUT, OPERATION_INPUT> inputAdapter, Function<OUTPUT, OPERATION_OUTPUT> outputAdapter) {
-    NormOperationAdapter<INPUT,OUTPUT,OPERATION_INPUT,OPERATION_OUTPUT> adapter = new NormOperationAdapter<>(operation);
-    adapter.setInputAdapter(inputAdapter);
-    adapter.setOutputAdapter(outputAdapter);
-    adapters.add(adapter);
+    NormOperationAdapter<INPUT, OUTPUT, OPERATION_INPUT, OPERATION_OUTPUT> adapter = new NormOperationAdapter<>(operation, inputAdapter, outputAdapter);
+    synchronized (this) {
+      checkNotFrozen();
+      checkAutoCommit(autoCommit, parallel, adapters.length + 1);
+      NormOperationAdapter<INPUT, OUTPUT, ?, ?>[] grown = Arrays.copyOf(adapters, adapters.length + 1);
+      grown[adapters.length] = adapter;
+      adapters = grown;
+    }
     return this;
   }
 
+  /**
+   * Makes this transaction and its operations immutable. A frozen transaction
+   * can be shared and executed concurrently by any number of threads; any
+   * further attempt to configure it throws a NormTransactionException
+   * @return this transaction
+   */
+  public NormTransaction<INPUT, OUTPUT> freeze() {
+    synchronized (this) {
+      for (NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter : adapters) {
+        adapter.getOperation().freeze();
+      }
+      frozen = true;
+    }
+    return this;
+  }
+
+  public boolean isFrozen() {
+    return frozen;
+  }
+
+  private void checkNotFrozen() {
+    if (frozen) {
+      throw new NormTransactionException("This transaction is frozen and can no longer be changed");
+    }
+  }
+
   public OUTPUT execute() throws SQLException {
     return execute(connectionSupplier, null);
   }
@@ -125,54 +496,389 @@ public class NormTransaction<INPUT, OUTPUT> {
     return execute(connectionSupplier, input);
   }
 
-  @SuppressWarnings({ "rawtypes", "unchecked" })
   public OUTPUT execute(NormConnectionSupplier connectionSupplier, INPUT input) throws SQLException {
-    if (connectionSupplier == null) {
-      throw new NormTransactionException("No connection supplier was provided for this transaction");
+    return run(connectionSupplier, createContext(input));
+  }
+
+  public CompletableFuture<OUTPUT> executeAsync() {
+    return executeAsync(connectionSupplier, null);
+  }
+
+  public CompletableFuture<OUTPUT> executeAsync(INPUT input) {
+    return executeAsync(connectionSupplier, input);
+  }
+
+  /**
+   * Executes this transaction on this transaction's executor. Cancelling the
+   * returned future cancels the running statement and rolls back the
+   * transaction
+   * @param connectionSupplier - where to get the connection from
+   * @param input - the transaction input
+   * @return a future completed with the transaction output, or with the
+   * exception that made it fail
+   */
+  public CompletableFuture<OUTPUT> executeAsync(NormConnectionSupplier connectionSupplier, INPUT input) {
+    NormContext<INPUT, OUTPUT> context = createContext(input);
+    CompletableFuture<OUTPUT> future = new CompletableFuture<OUTPUT>() {
+      @Override
+      public boolean cancel(boolean mayInterruptIfRunning) {
+        boolean cancelled = super.cancel(mayInterruptIfRunning);
+        if (cancelled) {
+          context.cancel();
+        }
+        return cancelled;
+      }
+    };
+    Runnable task = () -> {
+      if (future.isDone()) {
+        return;
+      }
+      try {
+        future.complete(run(connectionSupplier, context));
+      } catch (Throwable e) {
+        future.completeExceptionally(e);
+      }
+    };
+    try {
+      (executor == null ? NormExecutors.defaultExecutor() : executor).execute(task);
+    } catch (RejectedExecutionException e) {
+      future.completeExceptionally(e);
     }
+    return future;
+  }
+
+  private NormContext<INPUT, OUTPUT> createContext(INPUT input) {
     NormContext<INPUT, OUTPUT> context = new NormContext<>();
     context.setTransaction(this);
     context.setInput(input);
+    context.setTimeout(timeoutNanos);
+    double rate = timingSampleRate;
+    if (rate >= 1 || rate > 0 && ThreadLocalRandom.current().nextDouble() < rate) {
+      context.setTimings(new NormTimings());
+    }
+    return context;
+  }
+
+  private OUTPUT run(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context) throws SQLException {
+    if (propagation != NormPropagation.REQUIRES_NEW) {
+      NormContext<?, ?> outer = NormContext.current();
+      if (outer != null && connectionSupplier != null && outer.getConnectionSupplier() == connectionSupplier) {
+        return join(outer, context);
+      }
+    }
+    NormSingleFlight flight = singleFlight;
+    if (flight != null && isSelectOnly()) {
+      return flight.execute(this, connectionSupplier, context.getInput(), context, () -> retrying(connectionSupplier, context));
+    }
+    return retrying(connectionSupplier, context);
+  }
+
+  private OUTPUT retrying(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context) throws SQLException {
+    NormRetryPolicy policy = retryPolicy;
+    if (policy == null) {
+      return transact(connectionSupplier, context);
+    }
+    while (true) {
+      try {
+        OUTPUT output = transact(connectionSupplier, context);
+        if (context.getAttempt() > 0) {
+          policy.recovered();
+        }
+        return output;
+      } catch (SQLException e) {
+        String state = policy.retryableState(e);
+        if (state == null) {
+          throw e;
+        }
+        long backoff = policy.backoff(context.getAttempt() + 1);
+        if (context.getAttempt() >= policy.getMaxRetries() || context.isCancelled() || context.getRemaining(TimeUnit.NANOSECONDS) <= backoff) {
+          policy.exhausted();
+          throw e;
+        }
+        policy.retried(state);
+        if (hook != null) {
+          hook.transactionRetried(context, e, backoff);
+        }
+        try {
+          TimeUnit.NANOSECONDS.sleep(backoff);
+        } catch (InterruptedException interrupted) {
+          Thread.currentThread().interrupt();
+          throw e;
+        }
+        context = context.retry();
+      }
+    }
+  }
+
+  private boolean isSelectOnly() {
+    for (NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter : adapters) {
+      if (!(adapter.getOperation() instanceof NormSelect)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private OUTPUT transact(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context) throws SQLException {
+    if (connectionSupplier == null) {
+      throw new NormTransactionException("No connection supplier was provided for this transaction");
+    }
+    if (parallel) {
+      return transactParallel(connectionSupplier, context);
+    }
+    boolean commits = !Boolean.TRUE.equals(autoCommit);
+    context.startTransaction();
     if (hook != null) {
       hook.transactionStarted(context);
     }
-    Connection connection = connectionSupplier.get();
-    if (connection == null) {
-      throw new NormTransactionException("Null connection supplied to this transaction");
+    Connection connection;
+    try {
+      long mark = context.mark();
+      connection = connectionSupplier.get();
+      context.timed(NormTimings.Phase.CONNECT, mark);
+      if (connection == null) {
+        throw new NormTransactionException("Null connection supplied to this transaction");
+      }
+    } catch (SQLException | RuntimeException e) {
+      context.setFailure(e);
+      context.endTransaction();
+      if (hook != null) {
+        hook.transactionEnded(context);
+      }
+      throw e;
     }
     context.setConnection(connection);
+    context.setConnectionSupplier(connectionSupplier);
+    NormConnectionState state = NormConnectionState.of(connection, autoCommit, readOnly, isolation);
     try {
-      for (NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter : new LinkedList<>(adapters)) {
-        // clear state
-        context.forward();
-        
-        NormOperation operation = adapter.getOperation();
-        context.setInputAdapter(adapter.getInputAdapter());
-        if (operation.condition == null || ((Function<NormContext,Boolean>)operation.condition).apply(context)) {
-          if (hook != null) {
-            hook.operationStarted(context);
-          }
-          Object got = operation.execute(context);
-          if(adapter.getOutputAdapter()!=null){
-            got = adapter.getOutputAdapter().apply((OUTPUT) got);
-          }
-          context.setCurrentOutput((OUTPUT)got);
-          
-          if (hook != null) {
-            hook.operationEnded(context);
-          }
-        }
+      if (state != null) {
+        state.apply();
       }
-      connection.commit();
-    } catch (SQLException e) {
+      NormContext<?, ?> previous = context.enter();
       try {
-        connection.rollback();
-      } catch (SQLException rollbackException) {
-        // Error while rolling back... ignoring.
+        operate(context);
+      } finally {
+        NormContext.exit(previous);
+      }
+      if (commits) {
+        context.checkCancelled();
+        long mark = context.mark();
+        connection.commit();
+        context.timed(NormTimings.Phase.COMMIT, mark);
+      }
+    } catch (SQLException | RuntimeException e) {
+      context.setFailure(e);
+      if (commits) {
+        rollback(context, connection);
+      }
+      throw e;
+    } catch (Error e) {
+      if (commits) {
+        rollback(context, connection);
       }
       throw e;
     } finally {
+      context.invalidateTablesWritten();
+      if (state != null) {
+        try {
+          state.restore();
+        } catch (SQLException restoreException) {
+          // Error while restoring the connection... ignoring.
+        }
+      }
       connection.close();
+      context.endTransaction();
+      if (hook != null) {
+        hook.transactionEnded(context);
+      }
+    }
+    return context.getCurrentOutput();
+  }
+
+  /**
+   * Rolls back a failed transaction, before its connection state is restored,
+   * as switching auto-commit back on would commit it
+   */
+  private static void rollback(NormContext<?, ?> context, Connection connection) {
+    long mark = context.mark();
+    try {
+      connection.rollback();
+    } catch (SQLException rollbackException) {
+      // Error while rolling back... ignoring.
+    }
+    context.timed(NormTimings.Phase.COMMIT, mark);
+  }
+
+  private void operate(NormContext<INPUT, OUTPUT> context) throws SQLException {
+    for (NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter : adapters) {
+      // clear state
+      context.forward();
+
+      context.setInputAdapter(adapter.getInputAdapter());
+      if (adapter.accepts(context)) {
+        runOperation(context, adapter);
+      }
+    }
+  }
+
+  private void runOperation(NormContext<INPUT, OUTPUT> context, NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter) throws SQLException {
+    NormOperation<?, ?> operation = adapter.getOperation();
+    context.startOperation(operation);
+    if (hook != null) {
+      hook.operationStarted(context);
+    }
+    try {
+      try {
+        context.setCurrentOutput(adapter.execute(context));
+      } finally {
+        context.endOperation();
+      }
+      context.countRows();
+    } catch (SQLException | RuntimeException e) {
+      if (hook != null) {
+        hook.operationFailed(context, e);
+      }
+      throw e;
+    }
+    if (operation.name != null) {
+      context.putOutput(operation.name, context.getCurrentOutput());
+    }
+    if (hook != null) {
+      hook.operationEnded(context);
+    }
+  }
+
+  private OUTPUT join(NormContext<?, ?> outer, NormContext<INPUT, OUTPUT> context) throws SQLException {
+    context.startTransaction();
+    if (hook != null) {
+      hook.transactionStarted(context);
+    }
+    context.join(outer);
+    Connection connection = context.getConnection();
+    Savepoint savepoint = null;
+    NormContext<?, ?> previous = context.enter();
+    try {
+      if (propagation == NormPropagation.NESTED) {
+        savepoint = connection.setSavepoint();
+      }
+      operate(context);
+      if (savepoint != null) {
+        connection.releaseSavepoint(savepoint);
+      }
+    } catch (SQLException | RuntimeException | Error e) {
+      if (e instanceof Exception) {
+        context.setFailure((Exception) e);
+      }
+      if (savepoint != null) {
+        try {
+          connection.rollback(savepoint);
+        } catch (SQLException rollbackException) {
+          // Error while rolling back... ignoring.
+        }
+      }
+      throw e;
+    } finally {
+      NormContext.exit(previous);
+      context.leave(outer);
+      context.endTransaction();
+      if (hook != null) {
+        hook.transactionEnded(context);
+      }
+    }
+    return context.getCurrentOutput();
+  }
+
+  /**
+   * @return the indexes of the operations each operation depends on
+   */
+  private int[][] dependencies(NormOperationAdapter<INPUT, OUTPUT, ?, ?>[] operations) {
+    Map<String, Integer> names = new HashMap<>();
+    int[][] dependencies = new int[operations.length][];
+    for (int i = 0; i < operations.length; i++) {
+      NormOperation<?, ?> operation = operations[i].getOperation();
+      if (!(operation instanceof NormSelect)) {
+        throw new NormTransactionException("Parallel transactions only support select operations, not " + operation);
+      }
+      List<String> required = operation.dependencies;
+      dependencies[i] = new int[required.size()];
+      for (int j = 0; j < required.size(); j++) {
+        Integer index = names.get(required.get(j));
+        if (index == null) {
+          throw new NormTransactionException("Operation " + operation + " depends on " + required.get(j) + ", which is not an operation appended before it");
+        }
+        dependencies[i][j] = index;
+      }
+      if (operation.name != null) {
+        names.put(operation.name, i);
+      }
+    }
+    return dependencies;
+  }
+
+  private OUTPUT transactParallel(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context) throws SQLException {
+    NormOperationAdapter<INPUT, OUTPUT, ?, ?>[] operations = adapters;
+    int[][] dependencies = dependencies(operations);
+    context.startTransaction();
+    if (hook != null) {
+      hook.transactionStarted(context);
+    }
+    context.setConnectionSupplier(connectionSupplier);
+    Executor chosen = executor == null ? NormExecutors.defaultExecutor() : executor;
+    AtomicReference<Throwable> failure = new AtomicReference<>();
+    List<Fork> forks = new ArrayList<>(operations.length);
+    for (int i = 0; i < operations.length; i++) {
+      List<Fork> required = new ArrayList<>(dependencies[i].length);
+      for (int index : dependencies[i]) {
+        required.add(forks.get(index));
+      }
+      Fork fork = new Fork(connectionSupplier, context, operations[i], required, failure);
+      forks.add(fork);
+      if (required.isEmpty()) {
+        submit(chosen, fork);
+      } else {
+        CompletableFuture<?>[] before = new CompletableFuture<?>[required.size()];
+        for (int j = 0; j < before.length; j++) {
+          before[j] = required.get(j).result;
+        }
+        CompletableFuture.allOf(before).whenComplete((done, e) -> submit(chosen, fork));
+      }
+    }
+    // the calling thread runs whatever no other thread has started, so it
+    // never waits for work queued behind it, even when it is one of the
+    // executor's own threads
+    for (Fork fork : forks) {
+      fork.run();
+    }
+    NormContext<INPUT, OUTPUT> lastRun = null;
+    for (Fork fork : forks) {
+      try {
+        NormContext<INPUT, OUTPUT> ran = fork.result.join();
+        if (ran != null) {
+          context.countRows(ran);
+          context.timed(ran);
+          lastRun = ran;
+        }
+      } catch (CompletionException | CancellationException e) {
+        // the first failure is rethrown below
+      }
+    }
+    try {
+      Throwable e = failure.get();
+      if (e instanceof Exception) {
+        context.setFailure((Exception) e);
+      }
+      if (e instanceof SQLException) {
+        throw (SQLException) e;
+      }
+      if (e instanceof RuntimeException) {
+        throw (RuntimeException) e;
+      }
+      if (e instanceof Error) {
+        throw (Error) e;
+      }
+      context.setCurrentOutput(lastRun == null ? null : lastRun.getCurrentOutput());
+    } finally {
+      context.endTransaction();
       if (hook != null) {
         hook.transactionEnded(context);
       }
@@ -180,4 +886,123 @@ public class NormTransaction<INPUT, OUTPUT> {
     return context.getCurrentOutput();
   }
 
+  /**
+   * Leaves the fork to the calling thread if the executor refuses it
+   */
+  private static void submit(Executor executor, Runnable fork) {
+    try {
+      executor.execute(fork);
+    } catch (RejectedExecutionException e) {
+      // run by the calling thread
+    }
+  }
+
+  /**
+   * An operation of a parallel transaction, run once by whichever thread
+   * claims it first, after the operations it depends on
+   */
+  private final class Fork implements Runnable {
+
+    private final AtomicBoolean claimed = new AtomicBoolean();
+
+    private final CompletableFuture<NormContext<INPUT, OUTPUT>> result = new CompletableFuture<>();
+
+    private final NormConnectionSupplier connectionSupplier;
+
+    private final NormContext<INPUT, OUTPUT> context;
+
+    private final NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter;
+
+    private final List<Fork> dependencies;
+
+    private final AtomicReference<Throwable> failure;
+
+    private Fork(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context, NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter, List<Fork> dependencies, AtomicReference<Throwable> failure) {
+      this.connectionSupplier = connectionSupplier;
+      this.context = context;
+      this.adapter = adapter;
+      this.dependencies = dependencies;
+      this.failure = failure;
+    }
+
+    @Override
+    public void run() {
+      if (!claimed.compareAndSet(false, true)) {
+        return;
+      }
+      try {
+        NormContext<INPUT, OUTPUT> previous = null;
+        for (Fork dependency : dependencies) {
+          dependency.run();
+          previous = dependency.result.join();
+        }
+        result.complete(operateApart(connectionSupplier, context, adapter, previous, failure));
+      } catch (Throwable e) {
+        result.completeExceptionally(e);
+      }
+    }
+
+  }
+
+  /**
+   * Runs a single operation of a parallel transaction on a connection of its
+   * own, recording the first failure and cancelling the other operations
+   * @param previous - the context of its last dependency, if any
+   * @return the operation's context, or null if it did not run
+   */
+  private NormContext<INPUT, OUTPUT> operateApart(NormConnectionSupplier connectionSupplier, NormContext<INPUT, OUTPUT> context, NormOperationAdapter<INPUT, OUTPUT, ?, ?> adapter, NormContext<INPUT, OUTPUT> previous, AtomicReference<Throwable> failure) {
+    NormContext<INPUT, OUTPUT> fork = context.fork();
+    try {
+      context.checkCancelled();
+      fork.setCurrentOutput(previous == null ? null : previous.getCurrentOutput());
+      fork.setInputAdapter(adapter.getInputAdapter());
+      if (!adapter.accepts(fork)) {
+        return null;
+      }
+      long mark = fork.mark();
+      Connection connection = connectionSupplier.get();
+      fork.timed(NormTimings.Phase.CONNECT, mark);
+      if (connection == null) {
+        throw new NormTransactionException("Null connection supplied to this transaction");
+      }
+      fork.setConnection(connection);
+      boolean commits = !Boolean.TRUE.equals(autoCommit);
+      NormConnectionState state = NormConnectionState.of(connection, autoCommit, readOnly, isolation);
+      NormContext<?, ?> outer = fork.enter();
+      try {
+        if (state != null) {
+          state.apply();
+        }
+        runOperation(fork, adapter);
+        if (commits) {
+          fork.checkCancelled();
+          long committing = fork.mark();
+          connection.commit();
+          fork.timed(NormTimings.Phase.COMMIT, committing);
+        }
+      } catch (SQLException | RuntimeException | Error e) {
+        if (commits) {
+          rollback(fork, connection);
+        }
+        throw e;
+      } finally {
+        NormContext.exit(outer);
+        if (state != null) {
+          try {
+            state.restore();
+          } catch (SQLException restoreException) {
+            // Error while restoring the connection... ignoring.
+          }
+        }
+        connection.close();
+      }
+      return fork;
+    } catch (SQLException | RuntimeException | Error e) {
+      if (failure.compareAndSet(null, e)) {
+        context.cancel();
+      }
+      throw new CompletionException(e);
+    }
+  }
+
 }
@@ -7,14 +7,29 @@ public class NormUpdate<INPUT, OUTPUT> extends NormOperation<INPUT, OUTPUT> {
 
   @Override
   OUTPUT execute(NormContext<INPUT, OUTPUT> context) throws SQLException {
-    try (PreparedStatement statement = JDBChops.prepareStatementForSelectOrUpdate(context.getConnection(), queryBuilder.apply(context), parametersBuilder == null ? null : parametersBuilder.apply(context))) {
+    String query = queryBuilder.apply(context);
+    context.setQuery(query);
+    tablesWritten(context, query);
+    NormStatementCache cache = context.getStatementCache();
+    Iterable<Object> parameters = buildParameters(context);
+    long mark = context.mark();
+    PreparedStatement statement = JDBChops.prepareStatementForSelectOrUpdate(cache, context.getConnection(), query, null);
+    try {
+      mark = context.timed(NormTimings.Phase.PREPARE, mark);
+      JDBChops.prepareInput(statement, parameters);
+      bindParameters(context, statement);
+      mark = context.timed(NormTimings.Phase.BIND, mark);
+      context.setActiveStatement(statement);
       int count = statement.executeUpdate();
+      context.timed(NormTimings.Phase.EXECUTE, mark);
       context.setPreparedStatement(statement);
       context.setUpdatedRows(count);
       if (outputReader != null) {
-        return outputReader.toOutput(context);
+        return context.read(outputReader);
       }
       return null;
+    } finally {
+      JDBChops.close(cache, statement);
     }
   }
 
@@ -0,0 +1,217 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class AsyncTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_async;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE CANCELLED (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  @Test
+  public void testExecuteAsync() throws Exception {
+    NormTransaction<Object, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 42", null, context -> {
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1);
+    });
+    Assert.assertEquals((Integer) 42, t.executeAsync().get(10, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testSaturatedPoolRejects() throws Exception {
+    ThreadPoolExecutor pool = NormExecutors.boundedPool(1, 1, "norm-test-");
+    CountDownLatch release = new CountDownLatch(1);
+    try {
+      NormTransaction<Object, Integer> t = new NormTransaction<>(connectionSupplier);
+      t.setExecutor(pool);
+      t.appendSelect(context -> "values 1", null, context -> {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+        return 1;
+      });
+      CompletableFuture<Integer> running = t.executeAsync();
+      CompletableFuture<Integer> queued = t.executeAsync();
+      CompletableFuture<Integer> rejected = t.executeAsync();
+      try {
+        rejected.get(10, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof RejectedExecutionException);
+      }
+      release.countDown();
+      Assert.assertEquals((Integer) 1, running.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals((Integer) 1, queued.get(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      pool.shutdown();
+    }
+  }
+
+  @Test
+  public void testCustomExecutor() throws Exception {
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      AtomicInteger hooked = new AtomicInteger();
+      NormTransaction<Object, String> t = new NormTransaction<>(connectionSupplier);
+      t.setExecutor(executor);
+      t.setHook(new CountingHook(hooked));
+      t.appendSelect(context -> "values 1", null, context -> Thread.currentThread().getName());
+      String threadName = t.executeAsync().get(10, TimeUnit.SECONDS);
+      Assert.assertNotEquals(Thread.currentThread().getName(), threadName);
+      Assert.assertEquals(4, hooked.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    NormTransaction<Object, Object> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, context -> {
+      throw new TestSQLException();
+    });
+    try {
+      t.executeAsync().get(10, TimeUnit.SECONDS);
+      Assert.fail();
+    } catch (ExecutionException e) {
+      Assert.assertTrue(e.getCause() instanceof TestSQLException);
+    }
+  }
+
+  @Test
+  public void testCancel() throws Exception {
+    CountDownLatch running = new CountDownLatch(1);
+    CountDownLatch cancelled = new CountDownLatch(1);
+    AtomicBoolean secondRan = new AtomicBoolean();
+    AtomicInteger ended = new AtomicInteger();
+    NormTransaction<Object, Object> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(new CountingHook(ended));
+    t.appendSelect(context -> "values 1", null, context -> {
+      running.countDown();
+      try {
+        cancelled.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return null;
+    });
+    t.appendSelect(context -> "values 2", null, context -> {
+      secondRan.set(true);
+      return null;
+    });
+    CompletableFuture<Object> future = t.executeAsync();
+    Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+    Assert.assertTrue(future.cancel(true));
+    cancelled.countDown();
+    Assert.assertTrue(future.isCancelled());
+    long deadline = System.currentTimeMillis() + 10000;
+    while (ended.get() < 4 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    // started, first operation started and ended, ended
+    Assert.assertEquals(4, ended.get());
+    Assert.assertFalse(secondRan.get());
+  }
+
+  @Test
+  public void testCancelBeforeCommit() throws Exception {
+    AtomicInteger ended = new AtomicInteger();
+    AtomicReference<CompletableFuture<Object>> future = new AtomicReference<>();
+    CountDownLatch submitted = new CountDownLatch(1);
+    NormTransaction<Object, Object> t = new NormTransaction<>(connectionSupplier);
+    t.setAutoCommit(false);
+    t.setHook(new CountingHook(ended));
+    t.appendUpdate(context -> "INSERT INTO CANCELLED VALUES (1)", null, context -> {
+      try {
+        submitted.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      Assert.assertTrue(future.get().cancel(true));
+      return null;
+    });
+    future.set(t.executeAsync());
+    submitted.countDown();
+    long deadline = System.currentTimeMillis() + 10000;
+    while (ended.get() < 4 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(10);
+    }
+    Assert.assertEquals(4, ended.get());
+    Connection connection = connectionSupplier.get();
+    try (ResultSet rs = connection.prepareStatement("SELECT COUNT(*) FROM CANCELLED").executeQuery()) {
+      rs.next();
+      Assert.assertEquals(0, rs.getInt(1));
+    } finally {
+      connection.close();
+    }
+  }
+
+  @Test(expected = ExecutionException.class)
+  public void testNoConnectionSupplier() throws InterruptedException, ExecutionException, SQLException {
+    new NormTransaction<>().appendSelect(context -> "values 1", null, null).executeAsync().get();
+  }
+
+  private static class CountingHook implements NormHook {
+
+    private final AtomicInteger count;
+
+    private CountingHook(AtomicInteger count) {
+      this.count = count;
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+      count.incrementAndGet();
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+      count.incrementAndGet();
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+      count.incrementAndGet();
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+      count.incrementAndGet();
+    }
+
+  }
+
+}
@@ -0,0 +1,112 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchLoaderTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_loader;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE ITEM (ITEM_ID INT NOT NULL, NAME VARCHAR(16))");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO ITEM VALUES (?, ?)");
+    for (int i = 1; i <= 20; i++) {
+      insertStatement.setInt(1, i);
+      insertStatement.setString(2, "item" + i);
+      insertStatement.addBatch();
+    }
+    insertStatement.executeBatch();
+    insertStatement.close();
+    connection.close();
+  }
+
+  private static NormTransaction<List<Integer>, Map<Integer, String>> itemsById() {
+    NormTransaction<List<Integer>, Map<Integer, String>> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT ITEM_ID, NAME FROM ITEM WHERE ITEM_ID IN (" + String.join(",", Collections.nCopies(context.getInput().size(), "?")) + ")", context -> new ArrayList<>(context.getInput()), context -> {
+      Map<Integer, String> names = new HashMap<>();
+      ResultSet rs = context.getResultSet();
+      while (rs.next()) {
+        names.put(rs.getInt(1), rs.getString(2));
+      }
+      return names;
+    });
+    return t;
+  }
+
+  @Test
+  public void testWindow() throws Exception {
+    NormBatchLoader<Integer, String> loader = new NormBatchLoader<>(itemsById(), 100, TimeUnit.MILLISECONDS);
+    List<CompletableFuture<String>> futures = new ArrayList<>();
+    for (int id : Arrays.asList(1, 2, 3, 2, 42)) {
+      futures.add(loader.load(id));
+    }
+    Assert.assertEquals("item1", futures.get(0).get(10, TimeUnit.SECONDS));
+    Assert.assertEquals("item2", futures.get(1).get(10, TimeUnit.SECONDS));
+    Assert.assertSame(futures.get(1), futures.get(3));
+    Assert.assertNull(futures.get(4).get(10, TimeUnit.SECONDS));
+    Assert.assertEquals(1, loader.getBatchSizes().getCount());
+    Assert.assertEquals(4, loader.getBatchSizes().getMax());
+  }
+
+  @Test
+  public void testMaxBatchSize() throws Exception {
+    NormBatchLoader<Integer, String> loader = new NormBatchLoader<>(itemsById(), 3, 20, TimeUnit.MILLISECONDS);
+    Map<Integer, String> loaded = loader.loadAll(Arrays.asList(1, 2, 3, 4, 5, 6, 7)).get(10, TimeUnit.SECONDS);
+    Assert.assertEquals(7, loaded.size());
+    Assert.assertEquals("item7", loaded.get(7));
+    NormHistogram sizes = loader.getBatchSizes();
+    Assert.assertEquals(3, sizes.getCount());
+    Assert.assertEquals(7, sizes.getSum());
+    Assert.assertEquals(3, sizes.getMax());
+  }
+
+  @Test
+  public void testNoWindow() throws Exception {
+    NormBatchLoader<Integer, String> loader = new NormBatchLoader<>(itemsById(), 0, TimeUnit.MILLISECONDS);
+    Assert.assertEquals("item9", loader.load(9).get(10, TimeUnit.SECONDS));
+    loader.flush();
+  }
+
+  @Test
+  public void testFailure() throws Exception {
+    NormTransaction<List<Integer>, Map<Integer, String>> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, context -> {
+      throw new TestSQLException();
+    });
+    NormBatchLoader<Integer, String> loader = new NormBatchLoader<>(t, 1, TimeUnit.SECONDS);
+    CompletableFuture<String> first = loader.load(1);
+    CompletableFuture<String> second = loader.load(2);
+    loader.flush();
+    for (CompletableFuture<String> future : Arrays.asList(first, second)) {
+      try {
+        future.get(10, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof TestSQLException);
+      }
+    }
+  }
+
+}
@@ -0,0 +1,85 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class BatchTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_batch;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createPeopleTableStatement = connection.prepareStatement("CREATE TABLE PEOPLE (PERSON_ID INT NOT NULL GENERATED ALWAYS AS IDENTITY CONSTRAINT PEOPLE_PK PRIMARY KEY, NAME VARCHAR(26), AGE INT)");
+    createPeopleTableStatement.executeUpdate();
+    createPeopleTableStatement.close();
+    connection.close();
+  }
+
+  private static List<List<Object>> people(String prefix, int count) {
+    List<List<Object>> rows = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      rows.add(Arrays.asList(prefix + i, i));
+    }
+    return rows;
+  }
+
+  @Test
+  public void testBatchInsert() throws SQLException {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendBatchInsert(context -> "INSERT INTO PEOPLE (NAME, AGE) VALUES (?, ?)", context -> people("insert", context.getInput()), 3, context -> {
+      Assert.assertEquals(10, context.getBatchUpdatedRows().length);
+      Assert.assertNotNull(context.getGeneratedKeys());
+      return context.getUpdatedRows();
+    });
+    t.appendSelect(context -> "SELECT COUNT(*) FROM PEOPLE WHERE NAME LIKE 'insert%'", null, context -> {
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals(context.getCurrentOutput(), (Integer) rs.getInt(1));
+      return context.getCurrentOutput();
+    });
+    Assert.assertEquals((Integer) 10, t.execute(10));
+  }
+
+  @Test
+  public void testBatchUpdate() throws SQLException {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendBatchInsert(context -> "INSERT INTO PEOPLE (NAME, AGE) VALUES (?, ?)", context -> people("update", context.getInput()), 2, null);
+    t.appendBatchUpdate(context -> "UPDATE PEOPLE SET AGE = ? WHERE NAME = ?", context -> {
+      List<List<Object>> rows = new ArrayList<>();
+      for (int i = 0; i < context.getInput(); i++) {
+        rows.add(Arrays.asList(100 + i, "update" + i));
+      }
+      rows.add(Arrays.asList(0, "nobody"));
+      return rows;
+    }, 4, context -> {
+      int[] counts = context.getBatchUpdatedRows();
+      Assert.assertEquals(6, counts.length);
+      Assert.assertEquals(0, counts[5]);
+      return context.getUpdatedRows();
+    });
+    Assert.assertEquals((Integer) 5, t.execute(5));
+  }
+
+  @Test
+  public void testEmptyBatch() throws SQLException {
+    NormTransaction<Object, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendBatchUpdate(context -> "UPDATE PEOPLE SET AGE = ? WHERE NAME = ?", context -> null, 10, context -> {
+      Assert.assertEquals(0, context.getBatchUpdatedRows().length);
+      return context.getUpdatedRows();
+    });
+    Assert.assertEquals((Integer) 0, t.execute());
+  }
+
+}
@@ -0,0 +1,216 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ConnectionPoolTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_pool;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE POOLED (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  @Test
+  public void testReuse() throws SQLException {
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 2)) {
+      Connection first = pool.get();
+      Connection physical = first.unwrap(Connection.class);
+      Assert.assertEquals(1, pool.getActive());
+      first.close();
+      Assert.assertTrue(first.isClosed());
+      first.close();
+      Assert.assertEquals(0, pool.getActive());
+      try {
+        first.createStatement();
+        Assert.fail();
+      } catch (SQLException e) {
+        // returned connections can't be used
+      }
+      try {
+        first.unwrap(Connection.class);
+        Assert.fail();
+      } catch (SQLException e) {
+        // nor unwrapped
+      }
+      Connection second = pool.get();
+      Assert.assertSame(physical, second.unwrap(Connection.class));
+      Assert.assertFalse(second.isClosed());
+      second.close();
+      Assert.assertEquals(1, pool.getCreated());
+      Assert.assertEquals(1, pool.getAffinityHits());
+      Assert.assertEquals(1, pool.getIdle());
+    }
+  }
+
+  @Test
+  public void testTimeout() throws SQLException {
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 2)) {
+      pool.setBorrowTimeout(50, TimeUnit.MILLISECONDS);
+      Connection first = pool.get();
+      Connection second = pool.get();
+      Assert.assertEquals(1.0, pool.getUtilisation(), 0);
+      try {
+        pool.get();
+        Assert.fail();
+      } catch (SQLTransientConnectionException e) {
+        // every connection is in use
+      }
+      Assert.assertEquals(1, pool.getTimeouts());
+      Assert.assertTrue(pool.getWaitTimes().getMax() >= TimeUnit.MILLISECONDS.toNanos(50));
+      first.close();
+      pool.get().close();
+      second.close();
+      Assert.assertEquals(2, pool.getSize());
+    }
+  }
+
+  @Test
+  public void testValidation() throws SQLException {
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 1)) {
+      pool.setValidationIdleTime(0, TimeUnit.MILLISECONDS);
+      Connection first = pool.get();
+      Connection physical = first.unwrap(Connection.class);
+      first.close();
+      physical.close();
+      Connection second = pool.get();
+      Assert.assertNotSame(physical, second.unwrap(Connection.class));
+      second.close();
+      Assert.assertEquals(1, pool.getDiscarded());
+      Assert.assertEquals(1, pool.getSize());
+    }
+  }
+
+  @Test
+  public void testClose() throws SQLException {
+    NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 2);
+    Connection idle = pool.get();
+    Connection busy = pool.get();
+    Connection idlePhysical = idle.unwrap(Connection.class);
+    Connection busyPhysical = busy.unwrap(Connection.class);
+    idle.close();
+    pool.close();
+    Assert.assertTrue(idlePhysical.isClosed());
+    Assert.assertFalse(busyPhysical.isClosed());
+    busy.close();
+    Assert.assertTrue(busyPhysical.isClosed());
+    Assert.assertEquals(0, pool.getSize());
+    try {
+      pool.get();
+      Assert.fail();
+    } catch (SQLException e) {
+      // closed pool
+    }
+  }
+
+  @Test
+  public void testConcurrentTransactions() throws Exception {
+    int threads = 8;
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 3)) {
+      NormTransaction<Integer, Integer> t = new NormTransaction<>(pool);
+      t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), context -> {
+        ResultSet rs = context.getResultSet();
+        Assert.assertTrue(rs.next());
+        return rs.getInt(1);
+      });
+      ExecutorService executor = Executors.newFixedThreadPool(threads);
+      try {
+        List<Future<Integer>> results = new ArrayList<>();
+        for (int i = 0; i < 400; i++) {
+          int input = i;
+          results.add(executor.submit(() -> t.execute(input)));
+        }
+        for (int i = 0; i < results.size(); i++) {
+          Assert.assertEquals((Integer) i, results.get(i).get(10, TimeUnit.SECONDS));
+        }
+      } finally {
+        executor.shutdown();
+      }
+      Assert.assertTrue(pool.getSize() <= 3);
+      Assert.assertEquals(0, pool.getActive());
+      Assert.assertEquals(400, pool.getBorrows());
+      Assert.assertEquals(400, pool.getWaitTimes().getCount());
+    }
+  }
+
+  @Test
+  public void testUncommittedWorkRolledBack() throws SQLException {
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 1)) {
+      Connection first = pool.get();
+      first.setAutoCommit(false);
+      PreparedStatement insert = first.prepareStatement("INSERT INTO POOLED (ID) VALUES (-1)");
+      insert.executeUpdate();
+      insert.close();
+      first.close();
+      Connection second = pool.get();
+      second.setAutoCommit(true);
+      PreparedStatement select = second.prepareStatement("SELECT COUNT(*) FROM POOLED WHERE ID = -1");
+      ResultSet rs = select.executeQuery();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals(0, rs.getInt(1));
+      select.close();
+      second.close();
+    }
+  }
+
+  @Test
+  public void testConcurrentClose() throws Exception {
+    int threads = 8;
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try (NormConnectionPool pool = new NormConnectionPool(connectionSupplier, 1)) {
+      for (int i = 0; i < 200; i++) {
+        Connection connection = pool.get();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> closes = new ArrayList<>();
+        for (int j = 0; j < threads; j++) {
+          closes.add(executor.submit(() -> {
+            start.await();
+            connection.close();
+            return null;
+          }));
+        }
+        start.countDown();
+        for (Future<?> close : closes) {
+          close.get(10, TimeUnit.SECONDS);
+        }
+        Assert.assertEquals(0, pool.getActive());
+        Assert.assertEquals(0, pool.getWaiting());
+      }
+      // a connection returned more than once would let two borrows share it
+      pool.setBorrowTimeout(50, TimeUnit.MILLISECONDS);
+      Connection only = pool.get();
+      try {
+        pool.get();
+        Assert.fail();
+      } catch (SQLTransientConnectionException e) {
+        // the pool holds a single connection
+      }
+      only.close();
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+}
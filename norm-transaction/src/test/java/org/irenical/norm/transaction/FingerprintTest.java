@@ -0,0 +1,69 @@
+package org.irenical.norm.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FingerprintTest {
+
+  private static String shape(String sql) {
+    return NormFingerprint.of(sql).getShape();
+  }
+
+  @Test
+  public void testLiterals() {
+    Assert.assertEquals("SELECT NAME FROM PEOPLE WHERE AGE > ? AND CITY = ?", shape("select name from people where age > 30 and city = 'Lisbon'"));
+    Assert.assertEquals(shape("SELECT * FROM PEOPLE WHERE CITY = 'It''s'"), shape("SELECT * FROM PEOPLE WHERE CITY = ?"));
+    Assert.assertEquals("SELECT \"Name\" FROM PEOPLE", shape("SELECT \"Name\" FROM PEOPLE"));
+  }
+
+  @Test
+  public void testWhitespaceAndComments() {
+    Assert.assertEquals("SELECT ID FROM PEOPLE WHERE ID = ?", shape("SELECT  ID\n  FROM PEOPLE -- by id\n WHERE ID=? /* hint */"));
+  }
+
+  @Test
+  public void testLists() {
+    String many = shape("SELECT ID FROM PEOPLE WHERE ID IN (?, ?, ?)");
+    Assert.assertEquals("SELECT ID FROM PEOPLE WHERE ID IN (?+)", many);
+    Assert.assertEquals(many, shape("SELECT ID FROM PEOPLE WHERE ID IN (?)"));
+    Assert.assertEquals(many, shape("SELECT ID FROM PEOPLE WHERE ID IN (1, 2, 3, 4)"));
+    Assert.assertEquals("INSERT INTO PEOPLE (ID, NAME) VALUES (?, ?)", shape("INSERT INTO PEOPLE (ID, NAME) VALUES (?, ?), (?, ?), (3, 'x')"));
+    Assert.assertEquals("UPDATE PEOPLE SET NAME = ?, AGE = ? WHERE ID = ?", shape("UPDATE PEOPLE SET NAME = ?, AGE = ? WHERE ID = ?"));
+    Assert.assertEquals("SELECT ID FROM PEOPLE WHERE ID IN (SELECT ID FROM PLACES WHERE ID = ?)", shape("SELECT ID FROM PEOPLE WHERE ID IN (SELECT ID FROM PLACES WHERE ID = 1)"));
+  }
+
+  @Test
+  public void testValuesKeepTheirArity() {
+    Assert.assertEquals("INSERT INTO PEOPLE VALUES (?, ?)", shape("INSERT INTO PEOPLE VALUES (?, ?)"));
+    Assert.assertNotEquals(shape("INSERT INTO PEOPLE VALUES (?, ?)"), shape("INSERT INTO PEOPLE VALUES (?, ?, ?)"));
+    Assert.assertNotEquals(shape("SELECT ?, ? FROM PEOPLE"), shape("SELECT ? FROM PEOPLE"));
+    Assert.assertNotEquals(shape("CALL TRANSFER(?, ?)"), shape("CALL TRANSFER(?, ?, ?)"));
+  }
+
+  @Test
+  public void testFullCacheKeepsItsEntries() {
+    NormFingerprint.clearCache();
+    try {
+      NormFingerprint cached = NormFingerprint.of("SELECT 1 FROM KEPT");
+      for (int i = 0; i < 5000; i++) {
+        NormFingerprint.of("SELECT " + i + " FROM FILLER WHERE ID = " + i);
+      }
+      Assert.assertSame(cached, NormFingerprint.of("SELECT 1 FROM KEPT"));
+      Assert.assertEquals(NormFingerprint.of("SELECT 1 FROM FILLER WHERE ID = 1"), NormFingerprint.of("SELECT 4999 FROM FILLER WHERE ID = 4999"));
+    } finally {
+      NormFingerprint.clearCache();
+    }
+  }
+
+  @Test
+  public void testId() {
+    NormFingerprint fingerprint = NormFingerprint.of("SELECT 1 FROM PEOPLE");
+    Assert.assertSame(fingerprint, NormFingerprint.of("SELECT 1 FROM PEOPLE"));
+    Assert.assertEquals(fingerprint, NormFingerprint.of("select 2 from people"));
+    Assert.assertEquals(fingerprint.getId(), NormFingerprint.of("select 2 from people").getId());
+    Assert.assertEquals(16, fingerprint.getId().length());
+    Assert.assertNotEquals(fingerprint.getId(), NormFingerprint.of("SELECT 1 FROM PLACES").getId());
+    Assert.assertNull(NormFingerprint.of(null));
+  }
+
+}
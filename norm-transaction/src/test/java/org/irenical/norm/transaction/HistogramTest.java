@@ -0,0 +1,42 @@
+package org.irenical.norm.transaction;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class HistogramTest {
+
+  @Test
+  public void testBuckets() {
+    Assert.assertEquals(0, NormHistogram.bucketOf(-1));
+    Assert.assertEquals(NormHistogram.BUCKETS - 1, NormHistogram.bucketOf(Long.MAX_VALUE));
+    Assert.assertEquals(Long.MAX_VALUE, NormHistogram.upperBoundOf(NormHistogram.BUCKETS - 1));
+    long lower = 0;
+    for (int bucket = 0; bucket < NormHistogram.BUCKETS; bucket++) {
+      long upper = NormHistogram.upperBoundOf(bucket);
+      // buckets are contiguous, each counting its own range
+      Assert.assertEquals(bucket, NormHistogram.bucketOf(lower));
+      Assert.assertEquals(bucket, NormHistogram.bucketOf(upper));
+      Assert.assertTrue(upper - lower <= Math.max(0, lower / NormHistogram.SUB_BUCKETS));
+      lower = upper + 1;
+    }
+  }
+
+  @Test
+  public void testPercentiles() {
+    NormHistogram histogram = new NormHistogram();
+    for (long value = 1; value <= 100000; value++) {
+      histogram.record(value * 1000);
+    }
+    Assert.assertEquals(100000, histogram.getCount());
+    Assert.assertEquals(100000000, histogram.getMax());
+    long p50 = histogram.getPercentile(50);
+    long p99 = histogram.getPercentile(99);
+    Assert.assertTrue(p50 >= 50000000 && p50 <= 50000000 * 1.07);
+    Assert.assertTrue(p99 >= 99000000 && p99 <= 99000000 * 1.07);
+    Assert.assertEquals(100000000, histogram.getPercentile(100));
+    histogram.reset();
+    Assert.assertEquals(0, histogram.getCount());
+    Assert.assertEquals(0, histogram.getPercentile(99));
+  }
+
+}
@@ -0,0 +1,80 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what the built-in hooks add to a transaction, by running the same
+ * single-select transaction against an in-memory Derby database without a
+ * hook and with each hook. Not run by the build: run its main, optionally
+ * passing the number of executions per round and of rounds. Configurations
+ * take turns within each round, starting from a different one each round, and
+ * the best round of each is reported in nanoseconds per execution, next to
+ * its overhead over the hookless run.
+ */
+public class HookBenchmark {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_benchmark_hooks;create=true");
+
+  public static void main(String[] args) throws Exception {
+    int executions = args.length > 0 ? Integer.parseInt(args[0]) : 20000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 20;
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    NormSlowLog slowLog = new NormSlowLog(1, TimeUnit.MINUTES);
+    NormMetrics metrics = new NormMetrics();
+    NormNPlusOneDetector detector = new NormNPlusOneDetector();
+    Map<String, NormTransaction<Integer, Integer>> transactions = new LinkedHashMap<>();
+    transactions.put("no hook", transaction(null));
+    transactions.put("NormMetrics", transaction(metrics));
+    transactions.put("NormSlowLog", transaction(slowLog));
+    transactions.put("NormNPlusOneDetector", transaction(detector));
+    transactions.put("all three", transaction(NormHooks.of(metrics, slowLog, detector)));
+    List<String> names = new ArrayList<>(transactions.keySet());
+    Map<String, Long> best = new LinkedHashMap<>();
+    for (String name : names) {
+      best.put(name, Long.MAX_VALUE);
+    }
+    for (int round = 0; round < rounds; round++) {
+      for (int i = 0; i < names.size(); i++) {
+        String name = names.get((round + i) % names.size());
+        best.merge(name, time(transactions.get(name), executions), Math::min);
+      }
+    }
+    long baseline = best.get("no hook") / executions;
+    System.out.printf("executions: %d, rounds: %d%n", executions, rounds);
+    for (Map.Entry<String, Long> entry : best.entrySet()) {
+      long perExecution = entry.getValue() / executions;
+      System.out.printf("%-22s %7d ns/execution, %+6d ns%n", entry.getKey() + ":", perExecution, perExecution - baseline);
+    }
+  }
+
+  private static NormTransaction<Integer, Integer> transaction(NormHook hook) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(hook);
+    t.setStatementCache(new NormStatementCache());
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), context -> {
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    return t.freeze();
+  }
+
+  private static long time(NormTransaction<Integer, Integer> transaction, int executions) throws SQLException {
+    long start = System.nanoTime();
+    for (int i = 0; i < executions; i++) {
+      if (transaction.execute(i) != i) {
+        throw new IllegalStateException("Unexpected output for " + i);
+      }
+    }
+    return System.nanoTime() - start;
+  }
+
+}
@@ -1,14 +1,18 @@
 package org.irenical.norm.transaction;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 import org.mockito.ArgumentMatcher;
 
+import java.math.BigDecimal;
 import java.sql.Date;
 import java.sql.PreparedStatement;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.util.Calendar;
@@ -35,6 +39,13 @@ public class JDBChopsTest {
   }
 
 
+  @After
+  public void tearDown() {
+    NormBinders.unregister(LocalTime.class);
+    NormBinders.unregister(TestValue.class);
+  }
+
+
   @Test
   public void testSetInputTimestamp() throws Exception {
     Timestamp t = new Timestamp(System.currentTimeMillis());
@@ -110,6 +121,97 @@ public class JDBChopsTest {
   }
 
 
+  @Test
+  public void testSetInputString() throws Exception {
+    JDBChops.setInput(mockPS, TEST_IDX, "test");
+
+    verify(mockPS).setString(
+            eq(TEST_IDX),
+            eq("test")
+    );
+  }
+
+
+  @Test
+  public void testSetInputLong() throws Exception {
+    JDBChops.setInput(mockPS, TEST_IDX, 42L);
+
+    verify(mockPS).setLong(
+            eq(TEST_IDX),
+            eq(42L)
+    );
+  }
+
+
+  @Test
+  public void testSetInputBigDecimal() throws Exception {
+    BigDecimal value = new BigDecimal("4.2");
+    JDBChops.setInput(mockPS, TEST_IDX, value);
+
+    verify(mockPS).setBigDecimal(
+            eq(TEST_IDX),
+            eq(value)
+    );
+  }
+
+
+  @Test
+  public void testSetInputLocalDate() throws Exception {
+    LocalDate value = LocalDate.of(2016, 3, 28);
+    JDBChops.setInput(mockPS, TEST_IDX, value);
+
+    verify(mockPS).setObject(
+            eq(TEST_IDX),
+            eq(value)
+    );
+  }
+
+
+  @Test
+  public void testSetInputLocalTimeRegistered() throws Exception {
+    NormBinders.register(LocalTime.class, (statement, index, value) -> statement.setTime(index, Time.valueOf(value)));
+    LocalTime value = LocalTime.of(12, 30);
+    JDBChops.setInput(mockPS, TEST_IDX, value);
+
+    verify(mockPS).setTime(
+            eq(TEST_IDX),
+            eq(Time.valueOf(value))
+    );
+  }
+
+
+  @Test
+  public void testSetInputCustomBinder() throws Exception {
+    NormBinders.register(TestValue.class, (statement, index, value) -> statement.setString(index, "custom:" + value.value));
+    JDBChops.setInput(mockPS, TEST_IDX, new TestSubValue("x"));
+
+    verify(mockPS).setString(
+            eq(TEST_IDX),
+            eq("custom:x")
+    );
+  }
+
+
+  static class TestValue {
+
+    final String value;
+
+    TestValue(String value) {
+      this.value = value;
+    }
+
+  }
+
+
+  static class TestSubValue extends TestValue {
+
+    TestSubValue(String value) {
+      super(value);
+    }
+
+  }
+
+
   /**
    * Compare the timezone of an argument of type Calendar with a provided ZoneId
    */
@@ -0,0 +1,120 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compares NormMapper against hand-written mapping of the same rows, over an
+ * in-memory Derby table. Not run by the build: run its main, optionally
+ * passing the number of rows and of rounds. Each round reads every row with
+ * both readers, alternating which goes first, and the best round of each is
+ * reported in nanoseconds per row.
+ */
+public class MapperBenchmark {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_benchmark_mapper;create=true");
+
+  public static class Row {
+
+    private int rowId;
+
+    private String label;
+
+    private long amount;
+
+    private boolean flagged;
+
+    public void setRowId(int rowId) {
+      this.rowId = rowId;
+    }
+
+    public void setLabel(String label) {
+      this.label = label;
+    }
+
+    public void setAmount(long amount) {
+      this.amount = amount;
+    }
+
+    public void setFlagged(boolean flagged) {
+      this.flagged = flagged;
+    }
+
+  }
+
+  private static final String QUERY = "SELECT ROW_ID, LABEL, AMOUNT, FLAGGED FROM BENCHMARKED";
+
+  private static final NormOutputReader<Object, List<Row>> HAND_WRITTEN = context -> {
+    ResultSet resultSet = context.getResultSet();
+    List<Row> rows = new ArrayList<>();
+    while (resultSet.next()) {
+      Row row = new Row();
+      row.setRowId(resultSet.getInt(1));
+      row.setLabel(resultSet.getString(2));
+      row.setAmount(resultSet.getLong(3));
+      row.setFlagged(resultSet.getBoolean(4));
+      rows.add(row);
+    }
+    return rows;
+  };
+
+  public static void main(String[] args) throws Exception {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    populate(rows);
+    NormTransaction<Object, List<Row>> mapped = new NormTransaction<>(connectionSupplier);
+    mapped.appendSelect(context -> QUERY, null, new NormMapper<>(Row.class).list());
+    NormTransaction<Object, List<Row>> handWritten = new NormTransaction<>(connectionSupplier);
+    handWritten.appendSelect(context -> QUERY, null, HAND_WRITTEN);
+    long bestMapped = Long.MAX_VALUE;
+    long bestHandWritten = Long.MAX_VALUE;
+    for (int round = 0; round < rounds; round++) {
+      if (round % 2 == 0) {
+        bestMapped = Math.min(bestMapped, time(mapped, rows));
+        bestHandWritten = Math.min(bestHandWritten, time(handWritten, rows));
+      } else {
+        bestHandWritten = Math.min(bestHandWritten, time(handWritten, rows));
+        bestMapped = Math.min(bestMapped, time(mapped, rows));
+      }
+    }
+    System.out.printf("rows: %d, rounds: %d%n", rows, rounds);
+    System.out.printf("NormMapper:   %d ns/row%n", bestMapped / rows);
+    System.out.printf("hand-written: %d ns/row%n", bestHandWritten / rows);
+    System.out.printf("ratio:        %.2f%n", (double) bestMapped / bestHandWritten);
+  }
+
+  private static long time(NormTransaction<Object, List<Row>> transaction, int rows) throws SQLException {
+    long start = System.nanoTime();
+    List<Row> result = transaction.execute();
+    long elapsed = System.nanoTime() - start;
+    if (result.size() != rows) {
+      throw new IllegalStateException("Read " + result.size() + " rows out of " + rows);
+    }
+    return elapsed;
+  }
+
+  private static void populate(int rows) throws SQLException {
+    try (Connection connection = connectionSupplier.get()) {
+      try (PreparedStatement create = connection.prepareStatement("CREATE TABLE BENCHMARKED (ROW_ID INT NOT NULL, LABEL VARCHAR(32), AMOUNT BIGINT, FLAGGED BOOLEAN)")) {
+        create.executeUpdate();
+      }
+      try (PreparedStatement insert = connection.prepareStatement("INSERT INTO BENCHMARKED VALUES (?, ?, ?, ?)")) {
+        for (int i = 0; i < rows; i++) {
+          insert.setInt(1, i);
+          insert.setString(2, "row " + i);
+          insert.setLong(3, i * 100L);
+          insert.setBoolean(4, i % 2 == 0);
+          insert.addBatch();
+        }
+        insert.executeBatch();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,186 @@
+package org.irenical.norm.transaction;
+
+import java.beans.ConstructorProperties;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MapperTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_mapper;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE ACCOUNT (ACCOUNT_ID INT NOT NULL, OWNER_NAME VARCHAR(32), BALANCE DECIMAL(10,2), OPENED DATE, KIND VARCHAR(8), ACTIVE BOOLEAN)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO ACCOUNT VALUES (1, 'Alice', 10.50, '2016-01-02', 'SAVINGS', true), (2, 'Bob', NULL, NULL, 'CHECKING', false), (3, 'Carol', 3.00, '2016-03-04', NULL, true)");
+    insertStatement.executeUpdate();
+    insertStatement.close();
+    connection.close();
+  }
+
+  public enum Kind {
+    SAVINGS, CHECKING
+  }
+
+  public static class Account {
+
+    private int accountId;
+
+    private String ownerName;
+
+    private BigDecimal balance;
+
+    private LocalDate opened;
+
+    private Kind kind;
+
+    public boolean active;
+
+    public void setAccountId(int accountId) {
+      this.accountId = accountId;
+    }
+
+    public void setOwnerName(String ownerName) {
+      this.ownerName = ownerName;
+    }
+
+    public void setBalance(BigDecimal balance) {
+      this.balance = balance;
+    }
+
+    public void setOpened(LocalDate opened) {
+      this.opened = opened;
+    }
+
+    public void setKind(Kind kind) {
+      this.kind = kind;
+    }
+
+  }
+
+  public static class Owner {
+
+    private final long id;
+
+    private final String name;
+
+    @ConstructorProperties({ "accountId", "ownerName" })
+    public Owner(long id, String name) {
+      this.id = id;
+      this.name = name;
+    }
+
+  }
+
+  private static class Hidden {
+
+    private String ownerName;
+
+    @SuppressWarnings("unused")
+    private void setOwnerName(String ownerName) {
+      this.ownerName = ownerName;
+    }
+
+    public void setName(String ownerName) {
+      this.ownerName = ownerName;
+    }
+
+  }
+
+  @Test
+  public void testBeanList() throws SQLException {
+    NormMapper<Account> mapper = new NormMapper<>(Account.class);
+    NormTransaction<Object, List<Account>> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT * FROM ACCOUNT ORDER BY ACCOUNT_ID", null, mapper.list());
+    List<Account> accounts = t.execute();
+    Assert.assertEquals(3, accounts.size());
+    Account alice = accounts.get(0);
+    Assert.assertEquals(1, alice.accountId);
+    Assert.assertEquals("Alice", alice.ownerName);
+    Assert.assertEquals(new BigDecimal("10.50"), alice.balance);
+    Assert.assertEquals(LocalDate.of(2016, 1, 2), alice.opened);
+    Assert.assertEquals(Kind.SAVINGS, alice.kind);
+    Assert.assertTrue(alice.active);
+    Account bob = accounts.get(1);
+    Assert.assertNull(bob.balance);
+    Assert.assertNull(bob.opened);
+    Assert.assertFalse(bob.active);
+    Assert.assertNull(accounts.get(2).kind);
+  }
+
+  @Test
+  public void testConstructorSingle() throws SQLException {
+    NormMapper<Owner> mapper = new NormMapper<>(Owner.class);
+    NormTransaction<Integer, Owner> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT OWNER_NAME, ACCOUNT_ID FROM ACCOUNT WHERE ACCOUNT_ID=?", context -> Arrays.asList(context.getInput()), mapper.single());
+    Owner bob = t.execute(2);
+    Assert.assertEquals(2L, bob.id);
+    Assert.assertEquals("Bob", bob.name);
+    Assert.assertNull(t.execute(42));
+  }
+
+  @Test
+  public void testReaderPerShape() throws SQLException {
+    NormMapper<Account> mapper = new NormMapper<>(Account.class);
+    List<NormRowReader<Account>> readers = new ArrayList<>();
+    NormTransaction<Integer, Object> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT ACCOUNT_ID, OWNER_NAME FROM ACCOUNT WHERE ACCOUNT_ID=?", context -> Arrays.asList(context.getInput()), context -> readers.add(mapper.resolve(context.getResultSet())));
+    t.execute(1);
+    t.execute(2);
+    Assert.assertSame(readers.get(0), readers.get(1));
+  }
+
+  @Test
+  public void testMapBy() throws SQLException {
+    NormMapper<Owner> mapper = new NormMapper<>(Owner.class);
+    NormTransaction<Object, Map<String, Owner>> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT ACCOUNT_ID, OWNER_NAME, KIND FROM ACCOUNT ORDER BY ACCOUNT_ID", null, mapper.mapBy("KIND"));
+    Map<String, Owner> byKind = t.execute();
+    Assert.assertEquals(Arrays.asList("SAVINGS", "CHECKING", null), byKind.keySet().stream().collect(Collectors.toList()));
+    Assert.assertEquals("Carol", byKind.get(null).name);
+  }
+
+  @Test
+  public void testColumnPrefix() throws SQLException {
+    NormMapper<Hidden> mapper = new NormMapper<>(Hidden.class, "OWNER_");
+    NormTransaction<Object, Hidden> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "SELECT ACCOUNT_ID AS NAME, OWNER_NAME FROM ACCOUNT WHERE ACCOUNT_ID=3", null, mapper.single());
+    Assert.assertEquals("Carol", t.execute().ownerName);
+  }
+
+  @Test
+  public void testStreamRows() throws SQLException {
+    NormMapper<Owner> mapper = new NormMapper<>(Owner.class);
+    NormStreamSelect<Object, Owner> select = new NormStreamSelect<>(connectionSupplier, context -> "SELECT ACCOUNT_ID, OWNER_NAME FROM ACCOUNT ORDER BY ACCOUNT_ID", null, mapper.row());
+    try (Stream<Owner> owners = select.stream()) {
+      Assert.assertEquals(Arrays.asList("Alice", "Bob", "Carol"), owners.map(owner -> owner.name).collect(Collectors.toList()));
+    }
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testNoMatchingColumns() throws SQLException {
+    NormMapper<Account> mapper = new NormMapper<>(Account.class);
+    NormTransaction<Object, Account> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, mapper.single());
+    t.execute();
+  }
+
+}
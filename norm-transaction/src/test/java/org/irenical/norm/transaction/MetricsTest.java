@@ -0,0 +1,147 @@
+package org.irenical.norm.transaction;
+
+import java.lang.management.ManagementFactory;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import javax.management.openmbean.TabularData;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class MetricsTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_metrics;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE MEASURED (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  private static NormTransaction<Integer, Integer> insertAndCount(NormMetrics metrics) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setName("insertAndCount");
+    t.setHook(metrics);
+    t.appendUpdate(context -> "INSERT INTO MEASURED VALUES (?)", context -> Arrays.asList(context.getInput()), null);
+    NormSelect<Integer, Integer> select = new NormSelect<>();
+    select.setName("all");
+    select.setQueryBuilder(context -> "SELECT ID FROM MEASURED WHERE ID = ?");
+    select.setParametersBuilder(context -> Arrays.asList(context.getInput()));
+    select.setOutputReader(context -> context.readRows().size());
+    t.appendOperation(select);
+    return t;
+  }
+
+  @Test
+  public void testRecording() throws SQLException {
+    NormMetrics metrics = new NormMetrics();
+    NormTransaction<Integer, Integer> t = insertAndCount(metrics);
+    Assert.assertEquals((Integer) 1, t.execute(1));
+    Assert.assertEquals((Integer) 1, t.execute(2));
+
+    NormMetrics.Snapshot insert = metrics.getOperation("INSERT INTO MEASURED VALUES (?)");
+    Assert.assertEquals(2, insert.getCount());
+    Assert.assertEquals(2, insert.getUpdatedRows());
+    Assert.assertEquals(0, insert.getErrors());
+    Assert.assertTrue(insert.getMaxNanos() > 0);
+    Assert.assertTrue(insert.getP50Nanos() <= insert.getMaxNanos());
+
+    NormMetrics.Snapshot all = metrics.getOperation("all");
+    Assert.assertEquals(2, all.getCount());
+    Assert.assertEquals(2, all.getRows());
+
+    NormMetrics.Snapshot transaction = metrics.getTransaction("insertAndCount");
+    Assert.assertEquals(2, transaction.getCount());
+    Assert.assertEquals(2, transaction.getRows());
+    Assert.assertEquals(2, transaction.getUpdatedRows());
+    Assert.assertTrue(transaction.getTotalNanos() >= insert.getTotalNanos() + all.getTotalNanos());
+  }
+
+  @Test
+  public void testErrors() {
+    NormMetrics metrics = new NormMetrics();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(metrics);
+    t.appendSelect(context -> "values 1", null, context -> {
+      throw new TestSQLException();
+    });
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (SQLException e) {
+      // recorded as an error
+    }
+    Assert.assertEquals(1, metrics.getOperation("VALUES ?").getErrors());
+    Map<String, NormMetrics.Snapshot> transactions = metrics.getTransactions();
+    Assert.assertEquals(1, transactions.size());
+    Assert.assertEquals(1, transactions.values().iterator().next().getErrors());
+    metrics.reset();
+    Assert.assertTrue(metrics.getOperations().isEmpty());
+  }
+
+  @Test
+  public void testShapes() throws SQLException {
+    NormMetrics metrics = new NormMetrics();
+    for (int size = 1; size <= 3; size++) {
+      int[] ids = new int[size];
+      NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+      t.setHook(metrics);
+      StringBuilder in = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        in.append(i == 0 ? "?" : ", ?");
+        ids[i] = i;
+      }
+      t.appendSelect(context -> "SELECT ID FROM MEASURED WHERE ID IN (" + in + ")", context -> Arrays.asList((Object[]) Arrays.stream(ids).boxed().toArray(Integer[]::new)), null);
+      t.execute();
+    }
+    Assert.assertEquals(1, metrics.getOperations().size());
+    Assert.assertEquals(3, metrics.getOperation("SELECT ID FROM MEASURED WHERE ID IN (?+)").getCount());
+  }
+
+  @Test
+  public void testUnnamedTransactions() throws SQLException {
+    NormMetrics metrics = new NormMetrics();
+    for (int i = 0; i < 3; i++) {
+      NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+      t.setHook(metrics);
+      t.appendSelect(context -> "values 1", null, null);
+      t.execute();
+    }
+    Assert.assertEquals(1, metrics.getTransactions().size());
+    Assert.assertEquals(3, metrics.getTransaction(NormMetrics.UNNAMED).getCount());
+  }
+
+  @Test
+  public void testJmx() throws Exception {
+    NormMetrics metrics = new NormMetrics();
+    insertAndCount(metrics).execute(3);
+    ObjectName name = metrics.register("test");
+    try {
+      MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+      TabularData operations = (TabularData) server.getAttribute(name, "Operations");
+      CompositeData all = (CompositeData) ((CompositeData) operations.get(new Object[] { "all" })).get("value");
+      Assert.assertEquals(1L, all.get("count"));
+      server.invoke(name, "reset", null, null);
+      Assert.assertTrue(metrics.getOperations().isEmpty());
+    } finally {
+      metrics.unregister();
+    }
+    Assert.assertNull(metrics.getObjectName());
+    Assert.assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+  }
+
+}
@@ -0,0 +1,114 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class NPlusOneTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_nplusone;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE LOOKUP (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO LOOKUP VALUES (1), (2), (3)");
+    insertStatement.executeUpdate();
+    insertStatement.close();
+    connection.close();
+  }
+
+  private static NormTransaction<Integer, Integer> byId(NormHook hook) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setPropagation(NormPropagation.REQUIRED);
+    t.setHook(hook);
+    t.appendSelect(context -> "SELECT ID FROM LOOKUP WHERE ID = ?", context -> Arrays.asList(context.getInput()), context -> context.readRows().size());
+    return t;
+  }
+
+  @Test
+  public void testTransaction() throws SQLException {
+    NormNPlusOneDetector detector = new NormNPlusOneDetector(10);
+    NormTransaction<Integer, Integer> byId = byId(detector);
+    NormTransaction<Integer, Integer> outer = new NormTransaction<>(connectionSupplier);
+    outer.setName("outer");
+    outer.setHook(detector);
+    outer.appendSelect(context -> "SELECT ID FROM LOOKUP", null, context -> {
+      int found = 0;
+      for (int i = 0; i < 12; i++) {
+        found += byId.execute(i);
+      }
+      return found;
+    });
+    Assert.assertEquals((Integer) 3, outer.execute());
+
+    List<NormNPlusOneDetector.Finding> findings = detector.getFindings();
+    Assert.assertEquals(1, findings.size());
+    NormNPlusOneDetector.Finding finding = findings.get(0);
+    Assert.assertEquals("outer", finding.getScope());
+    Assert.assertEquals("SELECT ID FROM LOOKUP WHERE ID = ?", finding.getFingerprint().getShape());
+    Assert.assertEquals(12, finding.getExecutions());
+    Assert.assertEquals(NPlusOneTest.class.getName(), finding.getCallSite().getClassName());
+    Assert.assertEquals(Arrays.asList(Arrays.asList(0), Arrays.asList(1), Arrays.asList(2)), finding.getSampleParameters());
+  }
+
+  @Test
+  public void testRequest() throws SQLException {
+    NormNPlusOneDetector detector = new NormNPlusOneDetector(5);
+    List<NormNPlusOneDetector.Finding> heard = new ArrayList<>();
+    detector.setListener(heard::add);
+    NormTransaction<Integer, Integer> byId = byId(detector);
+
+    detector.beginRequest("below");
+    for (int i = 0; i < 4; i++) {
+      byId.execute(i);
+    }
+    Assert.assertTrue(detector.endRequest().isEmpty());
+
+    detector.beginRequest("above");
+    try {
+      for (int i = 0; i < 6; i++) {
+        byId.execute(i);
+      }
+    } finally {
+      List<NormNPlusOneDetector.Finding> findings = detector.endRequest();
+      Assert.assertEquals(1, findings.size());
+      Assert.assertEquals("above", findings.get(0).getScope());
+      Assert.assertEquals(6, findings.get(0).getExecutions());
+    }
+    Assert.assertEquals(detector.getFindings(), heard);
+    detector.clear();
+    Assert.assertTrue(detector.getFindings().isEmpty());
+  }
+
+  @Test
+  public void testCombinedHooks() throws SQLException {
+    NormMetrics metrics = new NormMetrics();
+    NormNPlusOneDetector detector = new NormNPlusOneDetector(2);
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(NormHooks.of(metrics, detector));
+    for (int i = 1; i <= 2; i++) {
+      t.appendSelect(context -> "SELECT ID FROM LOOKUP WHERE ID = " + context.getInput(), null, context -> {
+        ResultSet rs = context.getResultSet();
+        return rs.next() ? rs.getInt(1) : null;
+      });
+    }
+    t.execute(1);
+    Assert.assertEquals(2, metrics.getOperation("SELECT ID FROM LOOKUP WHERE ID = ?").getCount());
+    Assert.assertEquals(1, detector.getFindings().size());
+    Assert.assertTrue(detector.getFindings().get(0).getSampleParameters().isEmpty());
+  }
+
+}
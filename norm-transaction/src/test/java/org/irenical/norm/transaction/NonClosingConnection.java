@@ -0,0 +1,45 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+
+/**
+ * Mimics a pooled connection: closing it leaves the physical connection open
+ */
+public class NonClosingConnection implements InvocationHandler {
+
+  private final Connection delegate;
+
+  private boolean closed;
+
+  public NonClosingConnection(Connection delegate) {
+    this.delegate = delegate;
+  }
+
+  public Connection proxy() {
+    return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, this);
+  }
+
+  @Override
+  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+    switch (method.getName()) {
+    case "close":
+      closed = true;
+      return null;
+    case "isClosed":
+      return closed;
+    case "unwrap":
+      return delegate;
+    default:
+      try {
+        return method.invoke(delegate, args);
+      } catch (InvocationTargetException e) {
+        throw e.getCause();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,214 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BrokenBarrierException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class ParallelTest {
+
+  private static final String URL = "jdbc:derby:memory:norm_testing_parallel;create=true";
+
+  private static ExecutorService executor;
+
+  private final AtomicInteger connections = new AtomicInteger();
+
+  private final NormConnectionSupplier connectionSupplier = () -> {
+    connections.incrementAndGet();
+    return DriverManager.getConnection(URL);
+  };
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    executor = Executors.newFixedThreadPool(4);
+  }
+
+  @AfterClass
+  public static void shutdown() {
+    executor.shutdown();
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * A select of the given value, taking the given time to read
+   */
+  private static NormSelect<Integer, Integer> slow(String name, int value, long millis, String... dependencies) {
+    NormSelect<Integer, Integer> select = new NormSelect<>();
+    select.setName(name);
+    select.setDependencies(dependencies);
+    select.setQueryBuilder(context -> "values " + value);
+    select.setOutputReader(context -> {
+      sleep(millis);
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    return select;
+  }
+
+  private NormTransaction<Integer, Integer> parallel() {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setParallel(true);
+    t.setExecutor(executor);
+    return t;
+  }
+
+  /**
+   * A select of the given value that only returns once the given number of
+   * parties are reading at the same time
+   */
+  private static NormSelect<Integer, Integer> meeting(String name, int value, CyclicBarrier barrier) {
+    NormSelect<Integer, Integer> select = new NormSelect<>();
+    select.setName(name);
+    select.setQueryBuilder(context -> "values " + value);
+    select.setOutputReader(context -> {
+      try {
+        barrier.await(10, TimeUnit.SECONDS);
+      } catch (InterruptedException | BrokenBarrierException | TimeoutException e) {
+        throw new AssertionError("The reads did not run concurrently", e);
+      }
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    return select;
+  }
+
+  @Test
+  public void testIndependentReads() throws SQLException {
+    CyclicBarrier barrier = new CyclicBarrier(3);
+    NormTransaction<Integer, Integer> t = parallel();
+    t.appendOperation(meeting("a", 1, barrier));
+    t.appendOperation(meeting("b", 2, barrier));
+    t.appendOperation(meeting("c", 3, barrier));
+    NormSelect<Integer, Integer> sum = new NormSelect<>();
+    sum.setDependencies("a", "b", "c");
+    sum.setQueryBuilder(context -> "values 0");
+    sum.setOutputReader(context -> context.<Integer> getOutput("a") + context.<Integer> getOutput("b") + context.<Integer> getOutput("c"));
+    t.appendOperation(sum);
+    Assert.assertEquals((Integer) 6, t.execute());
+    Assert.assertEquals(4, connections.get());
+  }
+
+  @Test
+  public void testDependencies() throws SQLException {
+    NormTransaction<Integer, Integer> t = parallel();
+    t.appendOperation(slow("first", 5, 100));
+    NormSelect<Integer, Integer> second = new NormSelect<>();
+    second.setName("second");
+    second.setDependencies("first");
+    second.setQueryBuilder(context -> "values " + (context.getCurrentOutput() * 2));
+    second.setOutputReader(context -> {
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    t.appendOperation(second);
+    Assert.assertEquals((Integer) 10, t.execute());
+  }
+
+  @Test
+  public void testFailure() throws SQLException {
+    AtomicBoolean composed = new AtomicBoolean();
+    NormTransaction<Integer, Integer> t = parallel();
+    t.appendOperation(slow("a", 1, 100));
+    NormSelect<Integer, Integer> failing = new NormSelect<>();
+    failing.setName("b");
+    failing.setQueryBuilder(context -> "values 2");
+    failing.setOutputReader(context -> {
+      throw new TestSQLException();
+    });
+    t.appendOperation(failing);
+    NormSelect<Integer, Integer> sum = new NormSelect<>();
+    sum.setDependencies("a", "b");
+    sum.setQueryBuilder(context -> "values 0");
+    sum.setOutputReader(context -> {
+      composed.set(true);
+      return 0;
+    });
+    t.appendOperation(sum);
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (TestSQLException e) {
+      // the first failure is thrown
+    }
+    Assert.assertFalse(composed.get());
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testReadsOnly() throws SQLException {
+    NormTransaction<Integer, Integer> t = parallel();
+    t.appendOperation(slow("a", 1, 0));
+    t.appendUpdate(context -> "UPDATE SOMETHING SET X=1", null, null);
+    t.execute();
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testUnknownDependency() throws SQLException {
+    NormTransaction<Integer, Integer> t = parallel();
+    t.appendOperation(slow("a", 1, 0, "b"));
+    t.appendOperation(slow("b", 2, 0));
+    t.execute();
+  }
+
+  @Test
+  public void testSequentialOutputs() throws SQLException {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendOperation(slow("a", 4, 0));
+    t.appendOperation(slow("b", 5, 0));
+    t.appendSelect(context -> "values 0", null, context -> context.<Integer> getOutput("a") * context.getCurrentOutput());
+    Assert.assertEquals((Integer) 20, t.execute());
+    Assert.assertEquals(1, connections.get());
+  }
+
+  @Test
+  public void testSaturatedExecutor() throws Exception {
+    ExecutorService small = Executors.newFixedThreadPool(2);
+    try {
+      NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+      t.setParallel(true);
+      t.setExecutor(small);
+      t.appendOperation(slow("a", 1, 0));
+      t.appendOperation(slow("b", 2, 0));
+      List<CompletableFuture<Integer>> futures = new ArrayList<>();
+      for (int i = 0; i < 200; i++) {
+        futures.add(t.executeAsync());
+      }
+      // every execution blocks an executor thread, which must not wait for
+      // forks queued behind it
+      CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).get(60, TimeUnit.SECONDS);
+      for (CompletableFuture<Integer> future : futures) {
+        Assert.assertEquals((Integer) 2, future.join());
+      }
+    } finally {
+      small.shutdownNow();
+    }
+  }
+
+}
@@ -0,0 +1,182 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class PropagationTest {
+
+  private static final String URL = "jdbc:derby:memory:norm_testing_propagation;create=true";
+
+  private final AtomicInteger connections = new AtomicInteger();
+
+  private final NormConnectionSupplier connectionSupplier = () -> {
+    connections.incrementAndGet();
+    return DriverManager.getConnection(URL);
+  };
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = DriverManager.getConnection(URL);
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE NESTING (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  @Before
+  public void clean() throws SQLException {
+    Connection connection = DriverManager.getConnection(URL);
+    PreparedStatement deleteStatement = connection.prepareStatement("DELETE FROM NESTING");
+    deleteStatement.executeUpdate();
+    deleteStatement.close();
+    connection.close();
+  }
+
+  private static int count() throws SQLException {
+    Connection connection = DriverManager.getConnection(URL);
+    try (ResultSet rs = connection.prepareStatement("SELECT COUNT(*) FROM NESTING").executeQuery()) {
+      rs.next();
+      return rs.getInt(1);
+    } finally {
+      connection.close();
+    }
+  }
+
+  private NormTransaction<Integer, Integer> counting(NormPropagation propagation) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setPropagation(propagation);
+    t.appendSelect(context -> "SELECT COUNT(*) FROM NESTING", null, context -> {
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    return t;
+  }
+
+  private NormTransaction<Integer, Integer> inserting(NormPropagation propagation, boolean fail) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setPropagation(propagation);
+    t.appendUpdate(context -> "INSERT INTO NESTING VALUES (?)", context -> Arrays.asList(context.getInput()), context -> {
+      if (fail) {
+        throw new TestSQLException();
+      }
+      return context.getUpdatedRows();
+    });
+    return t;
+  }
+
+  /**
+   * Inserts a row, then runs the nested transaction from an output reader
+   */
+  private NormTransaction<Integer, Integer> outer(NormTransaction<Integer, Integer> nested, boolean catchNested) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setAutoCommit(false);
+    t.appendUpdate(context -> "INSERT INTO NESTING VALUES (1)", null, null);
+    t.appendSelect(context -> "values 1", null, context -> {
+      try {
+        return nested.execute(2);
+      } catch (TestSQLException e) {
+        if (catchNested) {
+          return -1;
+        }
+        throw e;
+      }
+    });
+    return t;
+  }
+
+  @Test
+  public void testRequired() throws SQLException {
+    // the nested read sees the uncommitted row
+    Assert.assertEquals((Integer) 1, outer(counting(NormPropagation.REQUIRED), false).execute());
+    Assert.assertEquals(1, connections.get());
+  }
+
+  @Test
+  public void testRequiresNew() throws SQLException {
+    Assert.assertEquals((Integer) 1, outer(inserting(NormPropagation.REQUIRES_NEW, false), false).execute());
+    Assert.assertEquals(2, connections.get());
+    Assert.assertEquals(2, count());
+  }
+
+  @Test
+  public void testRequiredRollsBackWithOuter() throws SQLException {
+    NormTransaction<Integer, Integer> t = outer(inserting(NormPropagation.REQUIRED, false), false);
+    t.appendUpdate(context -> "INSERT INTO NESTING VALUES (3)", null, context -> {
+      throw new TestSQLException();
+    });
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (TestSQLException e) {
+      // the whole transaction rolls back
+    }
+    Assert.assertEquals(1, connections.get());
+    Assert.assertEquals(0, count());
+  }
+
+  @Test
+  public void testNested() throws SQLException {
+    Assert.assertEquals((Integer) (-1), outer(inserting(NormPropagation.NESTED, true), true).execute());
+    Assert.assertEquals(1, connections.get());
+    // only the nested insert was rolled back
+    Assert.assertEquals(1, count());
+
+    Assert.assertEquals((Integer) 1, outer(inserting(NormPropagation.NESTED, false), false).execute());
+    Assert.assertEquals(3, count());
+  }
+
+  @Test
+  public void testNestedUncheckedFailure() throws SQLException {
+    NormTransaction<Integer, Integer> nested = new NormTransaction<>(connectionSupplier);
+    nested.setPropagation(NormPropagation.NESTED);
+    nested.appendUpdate(context -> "INSERT INTO NESTING VALUES (?)", context -> Arrays.asList(context.getInput()), context -> {
+      throw new IllegalStateException();
+    });
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setAutoCommit(false);
+    t.appendUpdate(context -> "INSERT INTO NESTING VALUES (1)", null, null);
+    t.appendSelect(context -> "values 1", null, context -> {
+      try {
+        return nested.execute(2);
+      } catch (IllegalStateException e) {
+        return -1;
+      }
+    });
+    Assert.assertEquals((Integer) (-1), t.execute());
+    // only the outer insert was committed
+    Assert.assertEquals(1, count());
+  }
+
+  @Test
+  public void testOtherSupplierRunsApart() throws SQLException {
+    AtomicInteger others = new AtomicInteger();
+    NormTransaction<Integer, Integer> nested = new NormTransaction<>(() -> {
+      others.incrementAndGet();
+      return DriverManager.getConnection(URL);
+    });
+    nested.setPropagation(NormPropagation.REQUIRED);
+    nested.appendSelect(context -> "values 7", null, context -> {
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      return rs.getInt(1);
+    });
+    Assert.assertEquals((Integer) 7, outer(nested, false).execute());
+    Assert.assertEquals(1, connections.get());
+    Assert.assertEquals(1, others.get());
+    Assert.assertNull(NormContext.current());
+  }
+
+}
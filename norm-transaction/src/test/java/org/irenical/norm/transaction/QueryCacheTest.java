@@ -0,0 +1,212 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.irenical.norm.transaction.NormQueryCache.Eviction;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class QueryCacheTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_query_cache;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE COUNTRY (CODE VARCHAR(2) NOT NULL, NAME VARCHAR(32))");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  private NormTransaction<String, Integer> countCountries(NormQueryCache cache, AtomicInteger reads) {
+    NormTransaction<String, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setQueryCache(cache);
+    t.appendCachedSelect(context -> "SELECT COUNT(*) FROM COUNTRY WHERE CODE <> ?", context -> Arrays.asList(context.getInput()), context -> {
+      reads.incrementAndGet();
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1);
+    });
+    return t;
+  }
+
+  private NormTransaction<String, Integer> insertCountry(NormQueryCache cache) {
+    NormTransaction<String, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setQueryCache(cache);
+    t.appendInsert(context -> "INSERT INTO COUNTRY (CODE, NAME) VALUES (?, ?)", context -> Arrays.asList(context.getInput(), context.getInput()), null);
+    return t;
+  }
+
+  @Test
+  public void testHitAndWriteInvalidation() throws SQLException {
+    NormQueryCache cache = new NormQueryCache();
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<String, Integer> select = countCountries(cache, reads);
+    int before = select.execute("XX");
+    Assert.assertEquals((Integer) before, select.execute("XX"));
+    Assert.assertEquals(1, reads.get());
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(1, cache.size());
+    Assert.assertTrue(cache.getEstimatedBytes() > 0);
+
+    insertCountry(cache).execute("PT");
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(1, cache.getInvalidations());
+    Assert.assertEquals((Integer) (before + 1), select.execute("XX"));
+    Assert.assertEquals(2, reads.get());
+  }
+
+  @Test
+  public void testOwnWritesBypassCache() throws SQLException {
+    NormQueryCache cache = new NormQueryCache();
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<String, Integer> t = insertCountry(cache);
+    t.appendCachedSelect(context -> "SELECT COUNT(*) FROM COUNTRY WHERE CODE = ?", context -> Arrays.asList(context.getInput()), context -> {
+      reads.incrementAndGet();
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1);
+    });
+    Assert.assertEquals((Integer) 1, t.execute("ES"));
+    Assert.assertEquals(0, cache.size());
+    Assert.assertEquals(0, cache.getMisses());
+  }
+
+  @Test
+  public void testParametersAreKeys() throws SQLException {
+    NormQueryCache cache = new NormQueryCache();
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<String, Integer> select = countCountries(cache, reads);
+    select.execute("AA");
+    select.execute("BB");
+    select.execute("AA");
+    Assert.assertEquals(2, reads.get());
+    Assert.assertEquals(2, cache.size());
+  }
+
+  @Test
+  public void testArrayParameters() {
+    NormQueryCache cache = new NormQueryCache();
+    String query = "SELECT NAME FROM COUNTRY WHERE CODE = ?";
+    cache.put(query, Arrays.asList(new byte[] { 1, 2 }), Collections.singleton("COUNTRY"), "found", cache.begin());
+    Assert.assertEquals("found", cache.get(query, Arrays.asList(new byte[] { 1, 2 })));
+    Assert.assertSame(NormQueryCache.MISS, cache.get(query, Arrays.asList(new byte[] { 1, 3 })));
+  }
+
+  @Test
+  public void testHitsTakeNoLock() throws Exception {
+    NormQueryCache cache = new NormQueryCache();
+    String query = "SELECT NAME FROM COUNTRY WHERE CODE = ?";
+    cache.put(query, Arrays.asList("PT"), Collections.singleton("COUNTRY"), "Portugal", cache.begin());
+    ExecutorService executor = Executors.newSingleThreadExecutor();
+    try {
+      Future<Object> hit;
+      // a store or invalidation holding the cache's lock does not stall hits
+      synchronized (cache) {
+        hit = executor.submit(() -> cache.get(query, Arrays.asList("PT")));
+        Assert.assertEquals("Portugal", hit.get(5, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLruEviction() throws SQLException {
+    NormQueryCache cache = new NormQueryCache(2, NormQueryCache.DEFAULT_MAX_BYTES, 0, TimeUnit.SECONDS, Eviction.LRU);
+    NormTransaction<String, Integer> select = countCountries(cache, new AtomicInteger());
+    select.execute("AA");
+    select.execute("BB");
+    select.execute("AA");
+    select.execute("CC");
+    Assert.assertEquals(1, cache.getEvictions());
+    long hits = cache.getHits();
+    select.execute("AA");
+    Assert.assertEquals(hits + 1, cache.getHits());
+    select.execute("BB");
+    Assert.assertEquals(hits + 1, cache.getHits());
+  }
+
+  @Test
+  public void testLfuEviction() throws SQLException {
+    NormQueryCache cache = new NormQueryCache(2, NormQueryCache.DEFAULT_MAX_BYTES, 0, TimeUnit.SECONDS, Eviction.LFU);
+    NormTransaction<String, Integer> select = countCountries(cache, new AtomicInteger());
+    select.execute("AA");
+    select.execute("AA");
+    select.execute("BB");
+    select.execute("BB");
+    select.execute("BB");
+    select.execute("CC");
+    Assert.assertEquals(1, cache.getEvictions());
+    long hits = cache.getHits();
+    select.execute("BB");
+    select.execute("CC");
+    Assert.assertEquals(hits + 2, cache.getHits());
+    select.execute("AA");
+    Assert.assertEquals(hits + 2, cache.getHits());
+  }
+
+  @Test
+  public void testByteBound() throws SQLException {
+    NormQueryCache cache = new NormQueryCache(100, 500, 0, TimeUnit.SECONDS, Eviction.LRU);
+    NormTransaction<String, Integer> select = countCountries(cache, new AtomicInteger());
+    for (String code : Arrays.asList("AA", "BB", "CC", "DD", "EE")) {
+      select.execute(code);
+    }
+    Assert.assertTrue(cache.getEstimatedBytes() <= 500);
+    Assert.assertTrue(cache.getEvictions() > 0);
+  }
+
+  @Test
+  public void testTimeToLive() throws SQLException, InterruptedException {
+    NormQueryCache cache = new NormQueryCache(10, NormQueryCache.DEFAULT_MAX_BYTES, 1, TimeUnit.MILLISECONDS, Eviction.LRU);
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<String, Integer> select = countCountries(cache, reads);
+    select.execute("AA");
+    Thread.sleep(10);
+    select.execute("AA");
+    Assert.assertEquals(2, reads.get());
+    Assert.assertEquals(1, cache.getExpirations());
+  }
+
+  @Test
+  public void testManualInvalidation() throws SQLException {
+    NormQueryCache cache = new NormQueryCache();
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<String, Integer> select = countCountries(cache, reads);
+    select.execute("AA");
+    cache.invalidate("other_table");
+    select.execute("AA");
+    cache.invalidate("app.\"country\"");
+    select.execute("AA");
+    Assert.assertEquals(2, reads.get());
+    cache.invalidateAll();
+    Assert.assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testTableDetection() {
+    Assert.assertEquals(new HashSet<>(Arrays.asList("PEOPLE")), NormSql.targets("INSERT INTO app.people (NAME) VALUES ('FROM x')"));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("PEOPLE")), NormSql.targets("update \"People\" set name=? -- where from y"));
+    Assert.assertEquals(new HashSet<>(Arrays.asList("PEOPLE")), NormSql.targets("DELETE FROM PEOPLE WHERE ID IN (?)"));
+    Assert.assertTrue(NormSql.identifiers("SELECT p.NAME FROM (SELECT * FROM PEOPLE) p, app.ADDRESS a /* JOB */").containsAll(Arrays.asList("PEOPLE", "ADDRESS", "NAME")));
+    Assert.assertFalse(NormSql.identifiers("SELECT * FROM PEOPLE /* JOB */ WHERE NAME='JOB'").contains("JOB"));
+  }
+
+}
@@ -0,0 +1,156 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RetryTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_retry;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+  }
+
+  private static class RetryHook implements NormHook {
+
+    private final List<NormContext<?, ?>> retried = Collections.synchronizedList(new ArrayList<>());
+
+    private final List<NormContext<?, ?>> started = Collections.synchronizedList(new ArrayList<>());
+
+    @Override
+    public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+      started.add(context);
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void transactionRetried(NormContext<INPUT, OUTPUT> context, SQLException cause, long backoffNanos) {
+      Assert.assertTrue(backoffNanos <= TimeUnit.MILLISECONDS.toNanos(4));
+      retried.add(context);
+    }
+
+  }
+
+  /**
+   * A transaction failing with the given SQLState on its first failures
+   * executions
+   */
+  private static NormTransaction<Integer, Integer> failing(int failures, String sqlState, AtomicInteger executions) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, context -> {
+      if (executions.getAndIncrement() < failures) {
+        throw new SQLException("Conflict", sqlState);
+      }
+      return context.getInput() + context.getAttempt();
+    });
+    return t;
+  }
+
+  private static NormRetryPolicy policy(int maxRetries) {
+    NormRetryPolicy policy = new NormRetryPolicy(maxRetries);
+    policy.setBackoff(1, 4, TimeUnit.MILLISECONDS);
+    return policy;
+  }
+
+  @Test
+  public void testRecovery() throws SQLException {
+    AtomicInteger executions = new AtomicInteger();
+    NormRetryPolicy policy = policy(3);
+    RetryHook hook = new RetryHook();
+    NormTransaction<Integer, Integer> t = failing(2, NormRetryPolicy.SERIALIZATION_FAILURE, executions);
+    t.setRetryPolicy(policy);
+    t.setHook(hook);
+    Assert.assertEquals((Integer) 12, t.execute(10));
+    Assert.assertEquals(3, executions.get());
+    Assert.assertEquals(2, hook.retried.size());
+    Assert.assertEquals(0, hook.retried.get(0).getAttempt());
+    Assert.assertEquals(1, hook.retried.get(1).getAttempt());
+    Assert.assertEquals(3, hook.started.size());
+    Assert.assertNotSame(hook.started.get(0), hook.started.get(1));
+    Assert.assertEquals(2, policy.getRetries());
+    Assert.assertEquals(1, policy.getRecovered());
+    Assert.assertEquals(0, policy.getExhausted());
+    Assert.assertEquals((Long) 2L, policy.getRetriesBySqlState().get(NormRetryPolicy.SERIALIZATION_FAILURE));
+  }
+
+  @Test
+  public void testExhausted() throws SQLException {
+    AtomicInteger executions = new AtomicInteger();
+    NormRetryPolicy policy = policy(2);
+    NormTransaction<Integer, Integer> t = failing(5, NormRetryPolicy.DEADLOCK_DETECTED, executions);
+    t.setRetryPolicy(policy);
+    try {
+      t.execute(0);
+      Assert.fail();
+    } catch (SQLException e) {
+      Assert.assertEquals(NormRetryPolicy.DEADLOCK_DETECTED, e.getSQLState());
+    }
+    Assert.assertEquals(3, executions.get());
+    Assert.assertEquals(1, policy.getExhausted());
+  }
+
+  @Test
+  public void testNotRetryable() throws SQLException {
+    AtomicInteger executions = new AtomicInteger();
+    NormRetryPolicy policy = policy(2);
+    NormTransaction<Integer, Integer> t = failing(1, "23505", executions);
+    t.setRetryPolicy(policy);
+    try {
+      t.execute(0);
+      Assert.fail();
+    } catch (SQLException e) {
+      Assert.assertEquals("23505", e.getSQLState());
+    }
+    Assert.assertEquals(1, executions.get());
+    Assert.assertEquals(0, policy.getRetries());
+  }
+
+  @Test
+  public void testClassification() {
+    NormRetryPolicy policy = new NormRetryPolicy(1);
+    SQLException chained = new SQLException("Batch failed", "XJ208");
+    chained.setNextException(new SQLException("Deadlock", "40P01"));
+    Assert.assertTrue(policy.isRetryable(chained));
+    Assert.assertTrue(policy.isRetryable(new SQLException("Wrapped", "XX000", new SQLException("Conflict", "40001"))));
+    Assert.assertFalse(policy.isRetryable(new SQLException("Other", "42000")));
+    policy.setRetryableStates("40XL1");
+    Assert.assertTrue(policy.isRetryable(new SQLException("Lock timeout", "40XL1")));
+    Assert.assertFalse(policy.isRetryable(new SQLException("Conflict", "40001")));
+  }
+
+  @Test
+  public void testBackoff() {
+    NormRetryPolicy policy = new NormRetryPolicy(10);
+    policy.setBackoff(10, 100, TimeUnit.NANOSECONDS);
+    for (int i = 0; i < 100; i++) {
+      long first = policy.backoff(1);
+      Assert.assertTrue(first >= 5 && first <= 10);
+      long third = policy.backoff(3);
+      Assert.assertTrue(third >= 20 && third <= 40);
+      long capped = policy.backoff(10);
+      Assert.assertTrue(capped >= 50 && capped <= 100);
+    }
+  }
+
+}
@@ -0,0 +1,66 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class RowsTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_rows;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+  }
+
+  @Test
+  public void testReadRows() throws SQLException {
+    NormTransaction<Object, NormRows> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "select * from (values (1, 'one'), (2, 'two')) as numbers(n, name)", null, NormContext::readRows);
+    NormRows rows = t.execute();
+    Assert.assertEquals(2, rows.size());
+    NormRow second = rows.get(1);
+    Assert.assertSame(rows.get(0).getSchema(), second.getSchema());
+    Assert.assertEquals(Arrays.asList("N", "NAME"), second.getSchema().getColumns());
+    Assert.assertEquals(2, second.getInt(0));
+    Assert.assertEquals("two", second.get(1));
+    Assert.assertEquals("two", second.get("name"));
+    Assert.assertTrue(second.containsKey("NAME"));
+    Assert.assertNull(second.get("nothing"));
+    Map<String, Object> asMap = second;
+    Assert.assertEquals("{N=2, NAME=two}", asMap.toString());
+  }
+
+  @Test
+  public void testDuplicateColumns() throws SQLException {
+    NormTransaction<Object, NormRows> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "select a.id, b.id, a.name from (values (1, 'one')) as a(id, name), (values (2)) as b(id)", null, NormContext::readRows);
+    NormRow row = t.execute().get(0);
+    Assert.assertEquals(Arrays.asList("ID", "ID", "NAME"), row.getSchema().getColumns());
+    Assert.assertEquals(2, row.getInt(1));
+    Assert.assertEquals(1, row.get("ID"));
+    Assert.assertEquals(2, row.size());
+    Assert.assertEquals(2, row.entrySet().size());
+    Assert.assertEquals(Arrays.asList("ID", "NAME"), new ArrayList<>(row.keySet()));
+    Map<String, Object> copy = new HashMap<>(row);
+    Assert.assertEquals(copy, row);
+    Assert.assertEquals(row, copy);
+    Assert.assertEquals(copy.hashCode(), row.hashCode());
+  }
+
+  @Test(expected = UnsupportedOperationException.class)
+  public void testRowsAreReadOnly() throws SQLException {
+    NormTransaction<Object, NormRows> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, NormContext::readRows);
+    NormRows rows = t.execute();
+    rows.add(rows.get(0));
+  }
+
+}
@@ -0,0 +1,238 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.LongSupplier;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SingleFlightTest {
+
+  private static final int THREADS = 8;
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_single_flight;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE FLIGHT (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(10, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Runs the transaction from many threads, holding the first execution until
+   * every other one is waiting for it
+   */
+  private List<Future<Integer>> burst(NormSingleFlight flight, NormTransaction<Integer, Integer> t, CountDownLatch release, ExecutorService executor) throws InterruptedException {
+    List<Future<Integer>> results = new ArrayList<>();
+    for (int i = 0; i < THREADS; i++) {
+      results.add(executor.submit(() -> t.execute(7)));
+    }
+    long deadline = System.currentTimeMillis() + 10000;
+    while (flight.getCollapsed() < THREADS - 1 && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    release.countDown();
+    return results;
+  }
+
+  @Test
+  public void testCoalescing() throws Exception {
+    NormSingleFlight flight = new NormSingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setSingleFlight(flight);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), context -> {
+      reads.incrementAndGet();
+      await(release);
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1);
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (Future<Integer> result : burst(flight, t, release, executor)) {
+        Assert.assertEquals((Integer) 7, result.get(10, TimeUnit.SECONDS));
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(1, reads.get());
+    Assert.assertEquals(1, flight.getExecutions());
+    Assert.assertEquals(THREADS - 1, flight.getCollapsed());
+    Assert.assertEquals(0, flight.getInFlight());
+    Assert.assertEquals((Integer) 7, t.execute(7));
+    Assert.assertEquals(2, flight.getExecutions());
+  }
+
+  @Test
+  public void testSharedError() throws Exception {
+    NormSingleFlight flight = new NormSingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setSingleFlight(flight);
+    t.appendSelect(context -> "values 1", null, context -> {
+      await(release);
+      throw new TestSQLException();
+    });
+    ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+    try {
+      for (Future<Integer> result : burst(flight, t, release, executor)) {
+        try {
+          result.get(10, TimeUnit.SECONDS);
+          Assert.fail();
+        } catch (ExecutionException e) {
+          Assert.assertTrue(e.getCause() instanceof TestSQLException);
+        }
+      }
+    } finally {
+      executor.shutdown();
+    }
+    Assert.assertEquals(1, flight.getExecutions());
+  }
+
+  @Test
+  public void testWritesAreNotCoalesced() throws SQLException {
+    NormSingleFlight flight = new NormSingleFlight();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setSingleFlight(flight);
+    t.appendSelect(context -> "values 1", null, null);
+    t.appendUpdate(context -> "UPDATE FLIGHT SET ID=1", null, null);
+    t.execute(1);
+    Assert.assertEquals(0, flight.getExecutions());
+  }
+
+  private static NormTransaction<Integer, Integer> held(NormSingleFlight flight, CountDownLatch release, AtomicInteger reads) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setSingleFlight(flight);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), context -> {
+      reads.incrementAndGet();
+      await(release);
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1);
+    });
+    return t;
+  }
+
+  private static void awaitCount(LongSupplier count, long expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + 10000;
+    while (count.getAsLong() < expected && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    Assert.assertEquals(expected, count.getAsLong());
+  }
+
+  @Test
+  public void testFollowerDeadline() throws Exception {
+    NormSingleFlight flight = new NormSingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<Integer, Integer> t = held(flight, release, reads);
+    t.setTimeout(200, TimeUnit.MILLISECONDS);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<Integer> leader = executor.submit(() -> t.execute(7));
+      awaitCount(reads::get, 1);
+      Future<Integer> follower = executor.submit(() -> t.execute(7));
+      awaitCount(flight::getCollapsed, 1);
+      try {
+        // the leader is still held past its deadline
+        follower.get(5, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof SQLTimeoutException);
+      }
+      release.countDown();
+      try {
+        leader.get(10, TimeUnit.SECONDS);
+        Assert.fail();
+      } catch (ExecutionException e) {
+        Assert.assertTrue(e.getCause() instanceof SQLTimeoutException);
+      }
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testFollowerCancelled() throws Exception {
+    NormSingleFlight flight = new NormSingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<Integer, Integer> t = held(flight, release, reads);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    t.setExecutor(executor);
+    try {
+      CompletableFuture<Integer> leader = t.executeAsync(7);
+      awaitCount(reads::get, 1);
+      CompletableFuture<Integer> follower = t.executeAsync(7);
+      awaitCount(flight::getCollapsed, 1);
+      Assert.assertTrue(follower.cancel(true));
+      // the follower's thread stops waiting, and is free for other work
+      Assert.assertEquals((Integer) 1, executor.submit(() -> 1).get(5, TimeUnit.SECONDS));
+      release.countDown();
+      Assert.assertEquals((Integer) 7, leader.get(10, TimeUnit.SECONDS));
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+  @Test
+  public void testLeaderCancelled() throws Exception {
+    NormSingleFlight flight = new NormSingleFlight();
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger reads = new AtomicInteger();
+    NormTransaction<Integer, Integer> t = held(flight, release, reads);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    t.setExecutor(executor);
+    try {
+      CompletableFuture<Integer> leader = t.executeAsync(7);
+      awaitCount(reads::get, 1);
+      CompletableFuture<Integer> follower = t.executeAsync(7);
+      awaitCount(flight::getCollapsed, 1);
+      Assert.assertTrue(leader.cancel(true));
+      release.countDown();
+      // the follower runs again rather than sharing the leader's cancellation
+      Assert.assertEquals((Integer) 7, follower.get(10, TimeUnit.SECONDS));
+      Assert.assertEquals(2, reads.get());
+      Assert.assertEquals(2, flight.getExecutions());
+    } finally {
+      release.countDown();
+      executor.shutdown();
+    }
+  }
+
+}
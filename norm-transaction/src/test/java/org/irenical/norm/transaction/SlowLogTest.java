@@ -0,0 +1,128 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.irenical.norm.transaction.error.TestSQLException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class SlowLogTest {
+
+  private static final String SQL = "SELECT IBMREQD FROM SYSIBM.SYSDUMMY1 WHERE CAST(? AS INT) IS NOT NULL";
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_slowlog;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+  }
+
+  private static void sleep(long millis) {
+    try {
+      Thread.sleep(millis);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  /**
+   * Selects the input, taking its value in milliseconds to read it
+   */
+  private static NormTransaction<Integer, Integer> sleeping(NormSlowLog log) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setName("sleeping");
+    t.setHook(log);
+    t.appendSelect(context -> SQL, context -> Arrays.asList(context.getInput()), context -> {
+      sleep(context.getInput());
+      return context.readRows().size();
+    });
+    return t;
+  }
+
+  @Test
+  public void testThreshold() throws SQLException {
+    NormSlowLog log = new NormSlowLog(50, TimeUnit.MILLISECONDS);
+    NormTransaction<Integer, Integer> t = sleeping(log);
+    t.execute(0);
+    Assert.assertTrue(log.getEntries().isEmpty());
+    t.execute(60);
+    List<NormSlowLog.Entry> entries = log.getEntries();
+    Assert.assertEquals(1, entries.size());
+    NormSlowLog.Entry entry = entries.get(0);
+    Assert.assertEquals("sleeping", entry.getTransaction());
+    Assert.assertEquals(SQL, entry.getSql());
+    Assert.assertEquals(Arrays.asList(60), entry.getParameters());
+    Assert.assertEquals(1, entry.getRowsRead());
+    Assert.assertNull(entry.getUpdatedRows());
+    Assert.assertTrue(entry.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(60));
+    Assert.assertTrue(entry.getPhaseNanos().isEmpty());
+    Assert.assertNull(entry.getFailure());
+  }
+
+  @Test
+  public void testSpecificThresholds() throws SQLException {
+    NormSlowLog log = new NormSlowLog(1, TimeUnit.HOURS);
+    NormTransaction<Integer, Integer> t = sleeping(log);
+    log.setTransactionThreshold("sleeping", 0, TimeUnit.MILLISECONDS);
+    t.execute(0);
+    Assert.assertEquals(1, log.getEntries().size());
+    log.setShapeThreshold(NormFingerprint.of(SQL).getShape(), 20, TimeUnit.MILLISECONDS);
+    t.execute(0);
+    Assert.assertEquals(1, log.getEntries().size());
+    t.execute(30);
+    Assert.assertEquals(2, log.getEntries().size());
+    log.setShapeThreshold(NormFingerprint.of(SQL).getShape(), -1, TimeUnit.MILLISECONDS);
+    log.setTransactionThreshold("sleeping", -1, TimeUnit.MILLISECONDS);
+    t.execute(0);
+    Assert.assertEquals(2, log.getEntries().size());
+  }
+
+  @Test
+  public void testRingAndSink() throws SQLException {
+    NormSlowLog log = new NormSlowLog(0, TimeUnit.MILLISECONDS, 2);
+    List<NormSlowLog.Entry> sunk = new ArrayList<>();
+    log.setSink(sunk::add);
+    log.setRedaction(NormSlowLog.REDACT_ALL);
+    NormTransaction<Integer, Integer> t = sleeping(log);
+    t.execute(0);
+    t.execute(100);
+    t.execute(0);
+    Assert.assertEquals(3, sunk.size());
+    List<NormSlowLog.Entry> entries = log.getEntries();
+    Assert.assertEquals(sunk.subList(1, 3), entries);
+    Assert.assertEquals(Arrays.asList("?"), entries.get(0).getParameters());
+    List<NormSlowLog.Entry> slowest = log.getEntries(entry -> entry.getElapsedNanos() >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertEquals(Arrays.asList(entries.get(0)), slowest);
+    log.clear();
+    Assert.assertTrue(log.getEntries().isEmpty());
+  }
+
+  @Test
+  public void testFailureAndTimings() {
+    NormSlowLog log = new NormSlowLog(20, TimeUnit.MILLISECONDS);
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(log);
+    t.setTimingSampleRate(1);
+    t.appendSelect(context -> "values 1", null, context -> {
+      sleep(30);
+      throw new TestSQLException();
+    });
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (SQLException e) {
+      // recorded as slow
+    }
+    NormSlowLog.Entry entry = log.getEntries().get(0);
+    Assert.assertTrue(entry.getFailure() instanceof TestSQLException);
+    Assert.assertTrue(entry.getPhaseNanos().get("MAP") >= TimeUnit.MILLISECONDS.toNanos(30));
+    Assert.assertTrue(entry.toString().contains("values 1"));
+  }
+
+}
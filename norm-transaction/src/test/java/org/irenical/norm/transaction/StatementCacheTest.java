@@ -0,0 +1,161 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StatementCacheTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_cache;create=true");
+
+  private final NormOutputReader<Integer, Integer> readInt = context -> {
+    ResultSet rs = context.getResultSet();
+    Assert.assertTrue(rs.next());
+    return rs.getInt(1);
+  };
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+  }
+
+  @Test
+  public void testReuseWithinTransaction() throws SQLException {
+    NormStatementCache cache = new NormStatementCache();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setStatementCache(cache);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), readInt);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getCurrentOutput() + 1), readInt);
+    Assert.assertEquals((Integer) 2, t.execute(1));
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(1, cache.getHits());
+  }
+
+  @Test
+  public void testReuseAcrossTransactions() throws SQLException {
+    Connection pooled = connectionSupplier.get();
+    NormConnectionSupplier fakePool = () -> new NonClosingConnection(pooled).proxy();
+    NormStatementCache cache = new NormStatementCache();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(fakePool);
+    t.setStatementCache(cache);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), readInt);
+    Assert.assertEquals((Integer) 1, t.execute(1));
+    Assert.assertEquals((Integer) 2, t.execute(2));
+    Assert.assertEquals(1, cache.getMisses());
+    Assert.assertEquals(1, cache.getHits());
+    Assert.assertEquals(1, cache.size());
+    cache.clear();
+    Assert.assertEquals(0, cache.size());
+    pooled.close();
+  }
+
+  @Test
+  public void testNestedExecutionDoesNotShareStatement() throws SQLException {
+    Connection pooled = connectionSupplier.get();
+    NormConnectionSupplier fakePool = () -> new NonClosingConnection(pooled).proxy();
+    NormStatementCache cache = new NormStatementCache();
+    NormTransaction<Integer, Integer> inner = new NormTransaction<>(fakePool);
+    inner.setStatementCache(cache);
+    inner.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), readInt);
+    NormTransaction<Integer, Integer> outer = new NormTransaction<>(fakePool);
+    outer.setStatementCache(cache);
+    outer.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), context -> {
+      ResultSet rs = context.getResultSet();
+      int got = inner.execute(context.getInput() * 10);
+      Assert.assertTrue(rs.next());
+      return rs.getInt(1) + got;
+    });
+    Assert.assertEquals((Integer) 33, outer.execute(3));
+    Assert.assertEquals(2, cache.getMisses());
+    Assert.assertEquals(1, cache.size());
+    pooled.close();
+  }
+
+  @Test
+  public void testEviction() throws SQLException {
+    NormStatementCache cache = new NormStatementCache(1);
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setStatementCache(cache);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getInput()), readInt);
+    t.appendSelect(context -> "values cast(? as int) + 1", context -> Arrays.asList(context.getCurrentOutput()), readInt);
+    t.appendSelect(context -> "values cast(? as int)", context -> Arrays.asList(context.getCurrentOutput()), readInt);
+    Assert.assertEquals((Integer) 2, t.execute(1));
+    Assert.assertEquals(3, cache.getMisses());
+    Assert.assertEquals(2, cache.getEvictions());
+  }
+
+  @Test
+  public void testSlowConnectionDoesNotBlockOthers() throws Exception {
+    Connection slowPhysical = connectionSupplier.get();
+    CountDownLatch checking = new CountDownLatch(1);
+    CountDownLatch proceed = new CountDownLatch(1);
+    AtomicBoolean slow = new AtomicBoolean();
+    Connection slowConnection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new InvocationHandler() {
+      @Override
+      public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        switch (method.getName()) {
+        case "unwrap":
+          return proxy;
+        case "isClosed":
+          if (slow.get()) {
+            checking.countDown();
+            proceed.await();
+          }
+          break;
+        case "equals":
+          return proxy == args[0];
+        case "hashCode":
+          return System.identityHashCode(proxy);
+        default:
+        }
+        return method.invoke(slowPhysical, args);
+      }
+    });
+    Connection other = connectionSupplier.get();
+    Connection opened = connectionSupplier.get();
+    NormStatementCache cache = new NormStatementCache();
+    cache.release(cache.prepare(slowConnection, NormStatementCache.Kind.SELECT_OR_UPDATE, "values 1"));
+    cache.release(cache.prepare(other, NormStatementCache.Kind.SELECT_OR_UPDATE, "values 2"));
+    slow.set(true);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      // a release on a new connection checks the cached ones for closing
+      Future<?> purging = executor.submit(() -> {
+        cache.release(cache.prepare(opened, NormStatementCache.Kind.SELECT_OR_UPDATE, "values 3"));
+        return null;
+      });
+      Assert.assertTrue(checking.await(10, TimeUnit.SECONDS));
+      Future<?> reusing = executor.submit(() -> {
+        cache.release(cache.prepare(other, NormStatementCache.Kind.SELECT_OR_UPDATE, "values 2"));
+        return null;
+      });
+      reusing.get(5, TimeUnit.SECONDS);
+      Assert.assertEquals(1, cache.getHits());
+      proceed.countDown();
+      purging.get(10, TimeUnit.SECONDS);
+    } finally {
+      proceed.countDown();
+      executor.shutdown();
+    }
+    cache.clear();
+    slowPhysical.close();
+    other.close();
+    opened.close();
+  }
+
+}
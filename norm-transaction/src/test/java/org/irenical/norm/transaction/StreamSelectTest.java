@@ -0,0 +1,147 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class StreamSelectTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_stream;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE NUMBERS (N INT NOT NULL)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    PreparedStatement insertStatement = connection.prepareStatement("INSERT INTO NUMBERS (N) VALUES (?)");
+    for (int i = 0; i < 500; i++) {
+      insertStatement.setInt(1, i);
+      insertStatement.addBatch();
+    }
+    insertStatement.executeBatch();
+    insertStatement.close();
+    connection.close();
+  }
+
+  private NormStreamSelect<Integer, Integer> numbersBelow() {
+    NormStreamSelect<Integer, Integer> select = new NormStreamSelect<>(connectionSupplier, context -> "SELECT N FROM NUMBERS WHERE N < ? ORDER BY N", context -> Arrays.asList(context.getInput()), context -> context.getResultSet().getInt(1));
+    select.setFetchSize(16);
+    return select;
+  }
+
+  @Test
+  public void testStreamAll() throws SQLException {
+    try (Stream<Integer> numbers = numbersBelow().stream(500)) {
+      Assert.assertEquals(124750, numbers.mapToInt(Integer::intValue).sum());
+    }
+  }
+
+  @Test
+  public void testEarlyTermination() throws SQLException {
+    AtomicInteger ended = new AtomicInteger();
+    NormStreamSelect<Integer, Integer> select = numbersBelow();
+    select.setHook(new NormHook() {
+      @Override
+      public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+        ended.incrementAndGet();
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+      }
+    });
+    List<Integer> firstThree;
+    try (Stream<Integer> numbers = select.stream(500)) {
+      firstThree = numbers.limit(3).collect(Collectors.toList());
+      Assert.assertEquals(0, ended.get());
+    }
+    Assert.assertEquals(Arrays.asList(0, 1, 2), firstThree);
+    Assert.assertEquals(1, ended.get());
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testReadError() throws SQLException {
+    NormStreamSelect<Integer, Integer> select = numbersBelow();
+    select.setRowReader(context -> context.getResultSet().getInt(2));
+    try (Stream<Integer> numbers = select.stream(10)) {
+      numbers.count();
+    }
+  }
+
+  @Test(expected = SQLException.class)
+  public void testSyntaxError() throws SQLException {
+    NormStreamSelect<Integer, Integer> select = numbersBelow();
+    select.setQueryBuilder(context -> "SELECT YOUR_MOM");
+    select.stream(10);
+  }
+
+  @Test
+  public void testHooksSeeTheOperation() throws SQLException {
+    NormSlowLog slowLog = new NormSlowLog(10, TimeUnit.SECONDS);
+    NormMetrics metrics = new NormMetrics();
+    NormStreamSelect<Integer, Integer> select = numbersBelow();
+    select.setHook(NormHooks.of(slowLog, metrics));
+    try (Stream<Integer> numbers = select.stream(10)) {
+      Assert.assertEquals(10, numbers.count());
+    }
+    Assert.assertTrue(slowLog.getEntries().isEmpty());
+    Assert.assertEquals(1, metrics.getOperation("SELECT N FROM NUMBERS WHERE N < ? ORDER BY N").getCount());
+  }
+
+  @Test
+  public void testNoConnection() {
+    AtomicInteger started = new AtomicInteger();
+    NormStreamSelect<Integer, Integer> select = numbersBelow();
+    select.setConnectionSupplier(() -> {
+      throw new SQLException("No connection");
+    });
+    select.setHook(new NormHook() {
+      @Override
+      public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+        started.incrementAndGet();
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+      }
+
+      @Override
+      public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+      }
+    });
+    try {
+      select.stream(10);
+      Assert.fail();
+    } catch (SQLException e) {
+      // never started, so never left unended
+    }
+    Assert.assertEquals(0, started.get());
+  }
+
+}
@@ -0,0 +1,97 @@
+package org.irenical.norm.transaction;
+
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TimeoutTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_timeout;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+  }
+
+  private static NormSelect<Integer, Integer> queryTimeout() {
+    NormSelect<Integer, Integer> select = new NormSelect<>();
+    select.setQueryBuilder(context -> "values 1");
+    select.setOutputReader(context -> context.getPreparedStatement().getQueryTimeout());
+    return select;
+  }
+
+  @Test
+  public void testOperationTimeout() throws SQLException {
+    NormStatementCache cache = new NormStatementCache();
+    NormSelect<Integer, Integer> select = queryTimeout();
+    select.setTimeout(3, TimeUnit.SECONDS);
+    Assert.assertEquals(3000, select.getTimeout(TimeUnit.MILLISECONDS));
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setStatementCache(cache);
+    t.appendOperation(select);
+    Assert.assertEquals((Integer) 3, t.execute());
+
+    // the cached statement no longer carries the timeout
+    NormTransaction<Integer, Integer> untimed = new NormTransaction<>(connectionSupplier);
+    untimed.setStatementCache(cache);
+    untimed.appendOperation(queryTimeout());
+    Assert.assertEquals((Integer) 0, untimed.execute());
+  }
+
+  @Test
+  public void testDeadlineAppliedToStatement() throws SQLException {
+    NormSelect<Integer, Integer> select = queryTimeout();
+    select.setTimeout(1, TimeUnit.MINUTES);
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setTimeout(10, TimeUnit.SECONDS);
+    t.appendOperation(select);
+    int timeout = t.execute();
+    Assert.assertTrue(timeout > 0 && timeout <= 10);
+  }
+
+  @Test
+  public void testDeadlineExceeded() throws SQLException {
+    AtomicBoolean cancelled = new AtomicBoolean();
+    AtomicBoolean ranSecond = new AtomicBoolean();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setTimeout(100, TimeUnit.MILLISECONDS);
+    t.appendSelect(context -> "values 1", null, context -> {
+      Assert.assertTrue(context.hasDeadline());
+      try {
+        Thread.sleep(300);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      // the watchdog cancels the transaction once the deadline passes
+      cancelled.set(context.isCancelled());
+      Assert.assertTrue(context.getRemaining(TimeUnit.NANOSECONDS) < 0);
+      return 1;
+    });
+    t.appendSelect(context -> "values 2", null, context -> {
+      ranSecond.set(true);
+      return 2;
+    });
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (SQLTimeoutException e) {
+      Assert.assertEquals("57014", e.getSQLState());
+    }
+    Assert.assertTrue(cancelled.get());
+    Assert.assertFalse(ranSecond.get());
+  }
+
+  @Test
+  public void testNoDeadline() throws SQLException {
+    NormTransaction<Integer, Long> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", null, context -> context.getRemaining(TimeUnit.SECONDS));
+    Assert.assertEquals((Long) Long.MAX_VALUE, t.execute());
+  }
+
+}
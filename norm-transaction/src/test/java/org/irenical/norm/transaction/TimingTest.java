@@ -0,0 +1,145 @@
+package org.irenical.norm.transaction;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TimingTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_timing;create=true");
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE TIMED (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  private static class TimingHook implements NormHook {
+
+    private final List<long[]> operations = new ArrayList<>();
+
+    private NormTimings timings;
+
+    @Override
+    public <INPUT, OUTPUT> void transactionStarted(NormContext<INPUT, OUTPUT> context) {
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void transactionEnded(NormContext<INPUT, OUTPUT> context) {
+      timings = context.getTimings();
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationStarted(NormContext<INPUT, OUTPUT> context) {
+    }
+
+    @Override
+    public <INPUT, OUTPUT> void operationEnded(NormContext<INPUT, OUTPUT> context) {
+      if (context.getTimings() == null) {
+        return;
+      }
+      NormTimings.Phase[] phases = NormTimings.Phase.values();
+      long[] operation = new long[phases.length];
+      for (NormTimings.Phase phase : phases) {
+        operation[phase.ordinal()] = context.getTimings().getOperation(phase);
+      }
+      operations.add(operation);
+    }
+
+  }
+
+  private static NormTransaction<Integer, Integer> insertAndRead(long readMillis) {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendUpdate(context -> "INSERT INTO TIMED VALUES (?)", context -> Arrays.asList(context.getInput()), null);
+    t.appendSelect(context -> "SELECT ID FROM TIMED WHERE ID = ?", context -> Arrays.asList(context.getInput()), context -> {
+      ResultSet rs = context.getResultSet();
+      rs.next();
+      try {
+        Thread.sleep(readMillis);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      return rs.getInt(1);
+    });
+    return t;
+  }
+
+  private static long get(long[] operation, NormTimings.Phase phase) {
+    return operation[phase.ordinal()];
+  }
+
+  @Test
+  public void testPhases() throws SQLException {
+    TimingHook hook = new TimingHook();
+    NormTransaction<Integer, Integer> t = insertAndRead(50);
+    t.setHook(hook);
+    t.setTimingSampleRate(1);
+    Assert.assertEquals((Integer) 1, t.execute(1));
+
+    long[] insert = hook.operations.get(0);
+    Assert.assertTrue(get(insert, NormTimings.Phase.PREPARE) > 0);
+    Assert.assertTrue(get(insert, NormTimings.Phase.EXECUTE) > 0);
+    Assert.assertEquals(0, get(insert, NormTimings.Phase.FETCH));
+    long[] select = hook.operations.get(1);
+    Assert.assertTrue(get(select, NormTimings.Phase.FETCH) > 0);
+    Assert.assertTrue(get(select, NormTimings.Phase.MAP) >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertTrue(get(select, NormTimings.Phase.FETCH) < get(select, NormTimings.Phase.MAP));
+
+    NormTimings timings = hook.timings;
+    Assert.assertTrue(timings.getTransaction(NormTimings.Phase.CONNECT) > 0);
+    Assert.assertTrue(timings.getTransaction(NormTimings.Phase.COMMIT) > 0);
+    Assert.assertEquals(get(insert, NormTimings.Phase.EXECUTE) + get(select, NormTimings.Phase.EXECUTE), timings.getTransaction(NormTimings.Phase.EXECUTE));
+    Assert.assertTrue(timings.getElapsed() >= timings.getDatabase() + timings.getTransaction(NormTimings.Phase.CONNECT));
+    Assert.assertTrue(timings.getApplication() >= TimeUnit.MILLISECONDS.toNanos(50));
+    Assert.assertTrue(timings.toString().contains("database="));
+  }
+
+  @Test
+  public void testNotSampled() throws SQLException {
+    TimingHook hook = new TimingHook();
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setHook(hook);
+    t.appendSelect(context -> "values 1", null, context -> context.getTimings() == null ? 1 : 0);
+    Assert.assertEquals((Integer) 1, t.execute());
+    Assert.assertNull(hook.timings);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRate() {
+    new NormTransaction<>(connectionSupplier).setTimingSampleRate(1.5);
+  }
+
+  @Test
+  public void testMetrics() throws SQLException {
+    NormMetrics metrics = new NormMetrics();
+    NormTransaction<Integer, Integer> t = insertAndRead(0);
+    t.setName("timed");
+    t.setHook(metrics);
+    t.setTimingSampleRate(1);
+    t.execute(2);
+    t.execute(3);
+    NormMetrics.Snapshot transaction = metrics.getTransaction("timed");
+    Assert.assertEquals(2, transaction.getSampled());
+    Assert.assertTrue(transaction.getPhaseNanos().get("EXECUTE") > 0);
+    Assert.assertTrue(transaction.getPhaseNanos().get("COMMIT") > 0);
+    NormMetrics.Snapshot select = metrics.getOperation("SELECT ID FROM TIMED WHERE ID = ?");
+    Assert.assertEquals(2, select.getSampled());
+    Assert.assertTrue(select.getPhaseNanos().get("FETCH") > 0);
+    Assert.assertEquals((Long) 0L, select.getPhaseNanos().get("COMMIT"));
+  }
+
+}
@@ -0,0 +1,156 @@
+package org.irenical.norm.transaction;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.irenical.norm.transaction.error.NormTransactionException;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+public class TransactionModeTest {
+
+  private static NormConnectionSupplier connectionSupplier = () -> DriverManager.getConnection("jdbc:derby:memory:norm_testing_modes;create=true");
+
+  private Connection pooled;
+
+  private AtomicInteger commits;
+
+  private NormConnectionSupplier fakePool;
+
+  @BeforeClass
+  public static void init() throws ClassNotFoundException, SQLException {
+    Class.forName("org.apache.derby.jdbc.EmbeddedDriver");
+    Connection connection = connectionSupplier.get();
+    PreparedStatement createTableStatement = connection.prepareStatement("CREATE TABLE MODES (ID INT)");
+    createTableStatement.executeUpdate();
+    createTableStatement.close();
+    connection.close();
+  }
+
+  /**
+   * A single physical connection, counting the commits and rollbacks of the
+   * transactions using it
+   */
+  @Before
+  public void pool() throws SQLException {
+    pooled = connectionSupplier.get();
+    pooled.setAutoCommit(false);
+    commits = new AtomicInteger();
+    fakePool = () -> {
+      Connection connection = new NonClosingConnection(pooled).proxy();
+      return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+        if ("commit".equals(method.getName()) || "rollback".equals(method.getName())) {
+          commits.incrementAndGet();
+        }
+        try {
+          return method.invoke(connection, args);
+        } catch (InvocationTargetException e) {
+          throw e.getCause();
+        }
+      });
+    };
+  }
+
+  @After
+  public void close() throws SQLException {
+    pooled.rollback();
+    pooled.close();
+  }
+
+  @Test
+  public void testDefault() throws SQLException {
+    NormTransaction<Void, Boolean> t = new NormTransaction<>(fakePool);
+    t.appendSelect(context -> "values 1", null, context -> context.getConnection().getAutoCommit());
+    Assert.assertFalse(t.execute());
+    Assert.assertEquals(1, commits.get());
+  }
+
+  @Test
+  public void testAutoCommit() throws SQLException {
+    NormTransaction<Void, Boolean> t = new NormTransaction<>(fakePool);
+    t.setAutoCommit(true);
+    t.appendSelect(context -> "values 1", null, context -> context.getConnection().getAutoCommit());
+    Assert.assertTrue(t.execute());
+    Assert.assertEquals(0, commits.get());
+    Assert.assertFalse(pooled.getAutoCommit());
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testAutoCommitSingleOperation() {
+    NormTransaction<Void, Void> t = new NormTransaction<>(fakePool);
+    t.setAutoCommit(true);
+    t.appendSelect(context -> "values 1", null, null);
+    t.appendUpdate(context -> "UPDATE MODES SET ID=1", null, null);
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testAutoCommitAfterOperations() {
+    NormTransaction<Void, Void> t = new NormTransaction<>(fakePool);
+    t.appendSelect(context -> "values 1", null, null);
+    t.appendUpdate(context -> "UPDATE MODES SET ID=1", null, null);
+    t.setAutoCommit(true);
+  }
+
+  @Test
+  public void testReadOnly() throws SQLException {
+    NormTransaction<Void, Boolean> t = new NormTransaction<>(fakePool);
+    t.setReadOnly(true);
+    t.appendSelect(context -> "values 1", null, context -> context.getConnection().isReadOnly());
+    Assert.assertTrue(t.execute());
+    Assert.assertFalse(pooled.isReadOnly());
+
+    NormTransaction<Void, Void> write = new NormTransaction<>(fakePool);
+    write.setReadOnly(true);
+    write.appendUpdate(context -> "INSERT INTO MODES VALUES (1)", null, null);
+    try {
+      write.execute();
+      Assert.fail();
+    } catch (SQLException e) {
+      // read-only connections refuse writes
+    }
+    Assert.assertFalse(pooled.isReadOnly());
+  }
+
+  @Test
+  public void testIsolation() throws SQLException {
+    int original = pooled.getTransactionIsolation();
+    NormTransaction<Void, Integer> t = new NormTransaction<>(fakePool);
+    t.setIsolation(Connection.TRANSACTION_SERIALIZABLE);
+    t.appendSelect(context -> "values 1", null, context -> context.getConnection().getTransactionIsolation());
+    Assert.assertEquals((Integer) Connection.TRANSACTION_SERIALIZABLE, t.execute());
+    Assert.assertEquals(original, pooled.getTransactionIsolation());
+  }
+
+  @Test
+  public void testUncheckedFailureRollsBack() throws SQLException {
+    NormTransaction<Void, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.setAutoCommit(false);
+    t.appendUpdate(context -> "INSERT INTO MODES VALUES (7)", null, null);
+    t.appendSelect(context -> "values 1", null, context -> {
+      throw new IllegalStateException();
+    });
+    try {
+      t.execute();
+      Assert.fail();
+    } catch (IllegalStateException e) {
+      // restoring auto-commit must not commit the insert
+    }
+    Connection connection = connectionSupplier.get();
+    try (ResultSet rs = connection.prepareStatement("SELECT COUNT(*) FROM MODES WHERE ID = 7").executeQuery()) {
+      rs.next();
+      Assert.assertEquals(0, rs.getInt(1));
+    } finally {
+      connection.close();
+    }
+  }
+
+}
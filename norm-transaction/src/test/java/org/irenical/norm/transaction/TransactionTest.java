@@ -8,6 +8,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
 
 import org.irenical.norm.transaction.error.NormTransactionException;
@@ -209,4 +214,107 @@ public class TransactionTest {
     Assert.assertNotEquals(null,t.execute(p));
   }
 
+  @Test
+  public void testFrozenConcurrentExecution() throws Exception {
+    NormTransaction<Integer, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendSelect(context -> "values 1", intParameterBuilder(), context -> context.getInput());
+    t.appendSelect(context -> "values 2", intParameterBuilder(), context -> context.getCurrentOutput() * 2);
+    t.freeze();
+    Assert.assertTrue(t.isFrozen());
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> results = new ArrayList<>();
+      for (int i = 0; i < 20; i++) {
+        final int input = i;
+        results.add(executor.submit(() -> t.execute(input)));
+      }
+      for (int i = 0; i < 20; i++) {
+        Assert.assertEquals((Integer) (i * 2), results.get(i).get());
+      }
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testFrozenAppend() {
+    NormTransaction<Object, Object> t = new NormTransaction<>(connectionSupplier);
+    t.freeze().appendSelect(context -> "values 1", innocuousParameterBuilder, innocuousResultConsumer);
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testFrozenOperation() {
+    NormSelect<Object, Object> select = new NormSelect<>();
+    new NormTransaction<>(connectionSupplier).appendOperation(select).freeze();
+    select.setQueryBuilder(context -> "values 2");
+  }
+
+  @Test(expected = NormTransactionException.class)
+  public void testFrozenAdapter() {
+    NormSelect<Object, Object> select = new NormSelect<>();
+    NormOperationAdapter<Object, Object, Object, Object> adapter = new NormOperationAdapter<>(select);
+    new NormTransaction<>(connectionSupplier).appendOperation(select).freeze();
+    adapter.setOutputAdapter(output -> output);
+  }
+
+  @Test
+  public void testGeneratedKeyColumns() throws SQLException {
+    NormInsert<String, Long> insert = new NormInsert<>();
+    insert.setQueryBuilder(context -> "INSERT INTO PEOPLE (NAME) VALUES (?)");
+    insert.setParametersBuilder(context -> Arrays.asList(context.getInput()));
+    insert.setGeneratedKeyColumns("PERSON_ID");
+    insert.setOutputReader(NormContext::getFirstGeneratedKeyAsLong);
+    Assert.assertTrue(insert.isReturnGeneratedKeys());
+    NormTransaction<String, Long> t = new NormTransaction<>(connectionSupplier);
+    t.appendOperation(insert);
+    long first = t.execute("Key");
+    long second = t.execute("Key");
+    Assert.assertEquals(first + 1, second);
+  }
+
+  @Test
+  public void testNoGeneratedKeysWhenDisabled() throws SQLException {
+    NormInsert<String, Object> insert = new NormInsert<>();
+    Assert.assertTrue(insert.isReturnGeneratedKeys());
+    insert.setOutputReader(context -> context.getUpdatedRows());
+    Assert.assertTrue(insert.isReturnGeneratedKeys());
+    insert.setReturnGeneratedKeys(null);
+    Assert.assertTrue(insert.isReturnGeneratedKeys());
+    insert.setReturnGeneratedKeys(false);
+    Assert.assertFalse(insert.isReturnGeneratedKeys());
+    insert.setQueryBuilder(context -> "INSERT INTO PEOPLE (NAME) VALUES ('No keys')");
+    insert.setOutputReader(context -> context.getGeneratedKeys());
+    NormTransaction<String, Object> t = new NormTransaction<>(connectionSupplier);
+    t.appendOperation(insert);
+    Assert.assertEquals(Collections.emptyList(), t.execute());
+  }
+
+  @Test
+  public void testParameterBinder() throws SQLException {
+    NormTransaction<String, Integer> t = new NormTransaction<>(connectionSupplier);
+    t.appendBoundInsert(context -> "INSERT INTO PEOPLE (NAME) VALUES (?)", (context, statement) -> statement.setString(1, context.getInput()), NormContext::getFirstGeneratedKeyAsInteger);
+    t.appendBoundSelect(context -> "SELECT NAME FROM PEOPLE WHERE PERSON_ID=? AND PERSON_ID<?", (context, statement) -> {
+      statement.setInt(1, context.getCurrentOutput());
+      statement.setLong(2, Integer.MAX_VALUE);
+    }, context -> {
+      ResultSet rs = context.getResultSet();
+      Assert.assertTrue(rs.next());
+      Assert.assertEquals(context.getInput(), rs.getString(1));
+      return context.getCurrentOutput();
+    });
+    t.appendBoundUpdate(context -> "UPDATE PEOPLE SET NAME=? WHERE PERSON_ID=?", (context, statement) -> {
+      statement.setString(1, "Bound " + context.getInput());
+      statement.setInt(2, context.getCurrentOutput());
+    }, context -> {
+      Assert.assertEquals(1, (int) context.getUpdatedRows());
+      return context.getCurrentOutput();
+    });
+    t.appendBoundDelete(context -> "DELETE FROM PEOPLE WHERE PERSON_ID=?", (context, statement) -> statement.setInt(1, context.getCurrentOutput()), context -> context.getUpdatedRows());
+    Assert.assertEquals((Integer) 1, t.execute("Binder"));
+  }
+
+  private static Function<NormContext<Integer, Integer>, Iterable<Object>> intParameterBuilder() {
+    return context -> new ArrayList<>();
+  }
+
 }